@@ -0,0 +1,133 @@
+package com.opsvision.monitoring.benchmarks;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.snmp4j.CommandResponder;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.MessageException;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.mp.MessageProcessingModel;
+import org.snmp4j.mp.StatusInformation;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+/**
+ * In-process SNMP agent stand-in on the loopback interface. It answers
+ * GET, GETNEXT and GETBULK from an in-memory MIB and counts the traps it
+ * receives, so benchmarks measure the agent's own request path without a
+ * real device.
+ */
+public class AgentStub implements CommandResponder {
+	private final TreeMap<OID, Variable> mib = new TreeMap<>();
+	private final Snmp snmp;
+	private volatile long traps = 0;
+
+	/**
+	 * Starts the stub
+	 *
+	 * @param port the UDP port to listen on
+	 * @throws IOException if the port cannot be bound
+	 */
+	public AgentStub(int port) throws IOException {
+		snmp = new Snmp(new DefaultUdpTransportMapping(new UdpAddress("127.0.0.1/" + port)));
+		snmp.addCommandResponder(this);
+		snmp.listen();
+	}
+
+	/**
+	 * Adds an object to the MIB of the stub
+	 *
+	 * @param oid the object OID
+	 * @param value the object value
+	 */
+	public void put(OID oid, Variable value) {
+		synchronized (mib) {
+			mib.put(oid, value);
+		}
+	}
+
+	/**
+	 * @return the number of traps received
+	 */
+	public long getTraps() {
+		return traps;
+	}
+
+	/**
+	 * Stops the stub
+	 */
+	public void close() throws IOException {
+		snmp.close();
+	}
+
+	@Override
+	public void processPdu(CommandResponderEvent event) {
+		PDU request = event.getPDU();
+		if (request == null) {
+			return;
+		}
+		if (request.getType() == PDU.TRAP || request.getType() == PDU.V1TRAP) {
+			traps++;
+			return;
+		}
+
+		PDU response = (PDU) request.clone();
+		response.setType(PDU.RESPONSE);
+		response.clear();
+		response.setRequestID(request.getRequestID());
+
+		synchronized (mib) {
+			if (request.getType() == PDU.GET) {
+				int index = 0;
+				for (Object o : request.getVariableBindings()) {
+					VariableBinding vb = (VariableBinding) o;
+					index++;
+					Variable value = mib.get(vb.getOid());
+
+					// SNMPv1 cannot encode noSuchObject
+					if (value == null && event.getMessageProcessingModel() == MessageProcessingModel.MPv1) {
+						response = (PDU) request.clone();
+						response.setType(PDU.RESPONSE);
+						response.setErrorStatus(PDU.noSuchName);
+						response.setErrorIndex(index);
+						break;
+					}
+					response.add(new VariableBinding(vb.getOid(), (value == null) ? Null.noSuchObject : value));
+				}
+
+			} else {
+				int repetitions = (request.getType() == PDU.GETBULK)
+						? Math.max(1, request.getMaxRepetitions()) : 1;
+				for (Object o : request.getVariableBindings()) {
+					OID current = ((VariableBinding) o).getOid();
+					for (int i = 0; i < repetitions; i++) {
+						Map.Entry<OID, Variable> next = mib.higherEntry(current);
+						if (next == null) {
+							response.add(new VariableBinding(current, Null.endOfMibView));
+							break;
+						}
+						response.add(new VariableBinding(next.getKey(), next.getValue()));
+						current = next.getKey();
+					}
+				}
+			}
+		}
+
+		try {
+			event.getMessageDispatcher().returnResponsePdu(event.getMessageProcessingModel(),
+					event.getSecurityModel(), event.getSecurityName(), event.getSecurityLevel(),
+					response, event.getMaxSizeResponsePDU(), event.getStateReference(),
+					new StatusInformation());
+
+		} catch (MessageException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.opsvision.monitoring.benchmarks;
+
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.opsvision.monitoring.utils.ConfigSnapshot;
+
+/**
+ * Property lookups in a configuration of many devices: the keys below one
+ * device's prefix, found by a regex scan of every key as PropertyHandler
+ * used to or by a range of the ConfigSnapshot, and single key reads from
+ * several threads, from the synchronized Properties table or the snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigBenchmark {
+	private Properties props;
+	private ConfigSnapshot snapshot;
+
+	/** The number of configured devices, each with a few keys */
+	@Param({ "2000" })
+	public int devices;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		props = new Properties();
+		for (int i = 0; i < devices; i++) {
+			String prefix = "monitor.web.om.tx" + i + ".";
+			props.setProperty(prefix + "host", "10.0." + (i / 250) + "." + (i % 250));
+			props.setProperty(prefix + "port", "80");
+			props.setProperty(prefix + "username", "admin");
+			props.setProperty(prefix + "password", "secret");
+			props.setProperty(prefix + "extract.power", "Forward Power");
+			props.setProperty(prefix + "extract.reflected", "Reflected Power");
+		}
+		snapshot = new ConfigSnapshot(props);
+	}
+
+	private String device() {
+		return "monitor.web.om.tx" + ThreadLocalRandom.current().nextInt(devices) + ".";
+	}
+
+	@Benchmark
+	public Map<String, String> childrenByRegex() {
+		String regex = Pattern.quote(device() + "extract.") + "[^.]+";
+		Map<String, String> children = new HashMap<>();
+		Enumeration<Object> keys = props.keys();
+		while (keys.hasMoreElements()) {
+			String key = (String) keys.nextElement();
+			if (key.matches(regex)) {
+				children.put(key, props.getProperty(key));
+			}
+		}
+		return children;
+	}
+
+	@Benchmark
+	public Map<String, String> childrenBySnapshot() {
+		return snapshot.getChildren(device() + "extract.");
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String getFromProperties() {
+		return props.getProperty(device() + "host");
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String getFromSnapshot() {
+		return snapshot.getString(device() + "host");
+	}
+}
@@ -0,0 +1,140 @@
+package com.opsvision.monitoring.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.JobExecutionContext;
+import org.quartz.SchedulerException;
+
+import com.opsvision.monitoring.monitors.Monitor;
+import com.opsvision.monitoring.monitors.MonitorType;
+import com.opsvision.monitoring.scheduler.MonitorScheduler;
+import com.opsvision.monitoring.scheduler.QuartzMonitorScheduler;
+import com.opsvision.monitoring.scheduler.WheelMonitorScheduler;
+
+/**
+ * The Quartz and timer wheel schedulers with thousands of monitors that
+ * poll once a second and do nothing: the cost of scheduling and
+ * cancelling them all, and the time until every one has polled once after
+ * the scheduler starts. The first polls are spread across the second, so
+ * one second of the latter is the schedule itself and the rest is
+ * dispatch overhead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SchedulerBenchmark {
+	private NoopMonitor[] instances;
+	private MonitorScheduler backend;
+	private CountDownLatch polled;
+
+	/** The scheduler backend, as set by monitor.main.scheduler */
+	@Param({ "quartz", "wheel" })
+	public String scheduler;
+
+	/** The number of monitor instances */
+	@Param({ "10000" })
+	public int monitors;
+
+	/**
+	 * A monitor that only counts its first poll
+	 */
+	@DisallowConcurrentExecution
+	public static class NoopMonitor extends Monitor {
+		private volatile CountDownLatch latch = null;
+
+		public NoopMonitor(String id) {
+			super(MonitorType.Heartbeat, id);
+		}
+
+		@Override
+		public void init() {
+		}
+
+		@Override
+		public int getRate() {
+			return 1;
+		}
+
+		@Override
+		public boolean isEnabled() {
+			return true;
+		}
+
+		@Override
+		public void execute(JobExecutionContext context) {
+			CountDownLatch first = latch;
+			if (first != null) {
+				latch = null;
+				first.countDown();
+			}
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		instances = new NoopMonitor[monitors];
+		for (int i = 0; i < monitors; i++) {
+			instances[i] = new NoopMonitor("bench" + i);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void create() {
+		backend = "wheel".equals(scheduler) ? new WheelMonitorScheduler()
+				: new QuartzMonitorScheduler();
+		polled = new CountDownLatch(monitors);
+		for (NoopMonitor monitor : instances) {
+			monitor.latch = polled;
+		}
+	}
+
+	@TearDown(Level.Invocation)
+	public void shutdown() {
+		backend.shutdown(true);
+	}
+
+	@Benchmark
+	public int scheduleAndCancel() throws SchedulerException {
+		backend.start();
+		int count = 0;
+		for (NoopMonitor monitor : instances) {
+			if (backend.schedule(monitor)) {
+				count++;
+			}
+		}
+		for (NoopMonitor monitor : instances) {
+			backend.cancel(monitor.getName());
+		}
+		return count;
+	}
+
+	@Benchmark
+	public long firstPoll() throws SchedulerException, InterruptedException {
+		backend.start();
+		for (NoopMonitor monitor : instances) {
+			backend.schedule(monitor);
+		}
+		if (!polled.await(60, TimeUnit.SECONDS)) {
+			throw new IllegalStateException(polled.getCount() + " monitor(s) never polled");
+		}
+		return polled.getCount();
+	}
+}
@@ -0,0 +1,110 @@
+package com.opsvision.monitoring.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+
+import com.opsvision.monitoring.utils.SnmpBatchGet;
+import com.opsvision.monitoring.utils.SnmpGet;
+import com.opsvision.monitoring.utils.SnmpGetTemplate;
+import com.opsvision.monitoring.utils.SnmpSession;
+import com.opsvision.monitoring.utils.SnmpWalk;
+import com.opsvision.monitoring.utils.SnmpWalkListener;
+
+/**
+ * Polling round trips through the shared SnmpSession against an
+ * {@link AgentStub} on the loopback interface: a single GET, a GET of two
+ * OIDs as done by the GatesAir and Liebert monitors, with the target and
+ * request PDU built on every poll or once in an SnmpGetTemplate, and a
+ * streaming walk of a table. Run with -prof gc to compare the allocation
+ * of the two batched GETs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnmpBenchmark {
+	private static final String HOST = "127.0.0.1";
+	private static final String PORT = "16161";
+	private static final String COMMUNITY = "public";
+	private static final String SCALAR = "1.3.6.1.4.1.44132.9.1.0";
+	private static final String SECOND = "1.3.6.1.4.1.44132.9.3.0";
+	private static final String TABLE = "1.3.6.1.4.1.44132.9.2";
+	private static final List<OID> OIDS = Arrays.asList(new OID(SCALAR), new OID(SECOND));
+	private AgentStub agent;
+	private SnmpGetTemplate template;
+
+	/** The number of rows in the walked table */
+	@Param({ "100" })
+	public int rows;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		SnmpSession.getInstance().start();
+		agent = new AgentStub(Integer.parseInt(PORT));
+		agent.put(new OID(SCALAR), new Integer32(1));
+		agent.put(new OID(SECOND), new Integer32(2));
+		for (int i = 1; i <= rows; i++) {
+			agent.put(new OID(TABLE + ".1." + i), new OctetString("row " + i));
+		}
+		template = new SnmpGetTemplate(SnmpSession.getInstance().getTarget(
+				HOST, PORT, COMMUNITY, SnmpConstants.version1), OIDS);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		agent.close();
+		SnmpSession.getInstance().close();
+	}
+
+	@Benchmark
+	public ResponseEvent get() {
+		return SnmpGet.doGet(HOST, PORT, COMMUNITY, SCALAR);
+	}
+
+	@Benchmark
+	public Map<OID, Variable> batchGet() {
+		return SnmpBatchGet.doGet(HOST, PORT, COMMUNITY, OIDS);
+	}
+
+	@Benchmark
+	public Map<OID, Variable> templateGet() {
+		return SnmpBatchGet.doGet(template);
+	}
+
+	@Benchmark
+	public int walk(final Blackhole blackhole) {
+		return SnmpWalk.doWalk(HOST, PORT, COMMUNITY, TABLE, new SnmpWalkListener() {
+			@Override
+			public boolean onRow(VariableBinding variableBinding) {
+				blackhole.consume(variableBinding);
+				return true;
+			}
+		});
+	}
+}
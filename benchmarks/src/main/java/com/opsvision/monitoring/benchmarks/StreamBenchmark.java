@@ -0,0 +1,96 @@
+package com.opsvision.monitoring.benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.opsvision.monitoring.utils.TsAnalyzer;
+
+/**
+ * Per-datagram cost of StreamValve monitoring: the MPEG-TS analysis of a
+ * datagram of seven TS packets, and the same analysis behind a loopback
+ * send and non-blocking receive into a direct buffer as the StreamReceiver
+ * does it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamBenchmark {
+	private static final int PACKETS = 7;
+	private final TsAnalyzer analyzer = new TsAnalyzer();
+	private ByteBuffer datagram;
+	private ByteBuffer receive;
+	private DatagramChannel sender;
+	private DatagramChannel receiver;
+	private InetSocketAddress address;
+	private int cc = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		datagram = ByteBuffer.allocateDirect(PACKETS * TsAnalyzer.PACKET_SIZE);
+		receive = ByteBuffer.allocateDirect(65536);
+
+		receiver = DatagramChannel.open();
+		receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+		receiver.configureBlocking(false);
+		address = (InetSocketAddress) receiver.getLocalAddress();
+		sender = DatagramChannel.open();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		sender.close();
+		receiver.close();
+	}
+
+	@Benchmark
+	public long analyze() {
+		fill();
+		analyzer.analyze(datagram, System.nanoTime());
+		return analyzer.getContinuityErrors();
+	}
+
+	@Benchmark
+	public long receive() throws IOException {
+		fill();
+		sender.send(datagram, address);
+
+		receive.clear();
+		while (receiver.receive(receive) == null) {
+			Thread.yield();
+		}
+		receive.flip();
+		analyzer.analyze(receive, System.nanoTime());
+		return analyzer.getContinuityErrors();
+	}
+
+	// Writes seven video packets (PID 0x100) with running continuity counters
+	private void fill() {
+		datagram.clear();
+		for (int i = 0; i < PACKETS; i++) {
+			int p = i * TsAnalyzer.PACKET_SIZE;
+			datagram.put(p, (byte) 0x47);
+			datagram.put(p + 1, (byte) 0x01);
+			datagram.put(p + 2, (byte) 0x00);
+			datagram.put(p + 3, (byte) (0x10 | (cc++ & 0x0F)));
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.opsvision.monitoring.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.VariableBinding;
+
+import com.opsvision.monitoring.utils.SnmpSession;
+import com.opsvision.monitoring.utils.SnmpTrap;
+import com.opsvision.monitoring.utils.TrapDispatcher;
+
+/**
+ * The cost a monitor pays to raise a trap. With the dispatcher stopped the
+ * trap is encoded and sent on the calling thread; with it running the
+ * monitor only queues it. Traps go to the stub agent configured in the
+ * benchmark config.properties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrapBenchmark {
+	private static final OID stateOID = new OID("1.3.6.1.4.1.44132.4.1.5");
+	private static final OID valueOID = new OID("1.3.6.1.4.1.44132.4.1.6");
+	private AgentStub sink;
+	private int sequence = 0;
+
+	/** sync sends on the calling thread, queued hands off to the dispatcher */
+	@Param({ "sync", "queued" })
+	public String mode;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		sink = new AgentStub(16162);
+		SnmpSession.getInstance().start();
+		if ("queued".equals(mode)) {
+			TrapDispatcher.getInstance().start();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		TrapDispatcher.getInstance().stop();
+		SnmpSession.getInstance().close();
+		sink.close();
+	}
+
+	@Benchmark
+	public void sendTrap() {
+		// A distinct source per trap keeps the dispatcher from coalescing
+		SnmpTrap.sendTrap("bench" + (sequence++ & 1023), 5, new VariableBinding[] {
+				new VariableBinding(stateOID, new Integer32(2)),
+				new VariableBinding(valueOID, new OctetString("58.1")) });
+	}
+}
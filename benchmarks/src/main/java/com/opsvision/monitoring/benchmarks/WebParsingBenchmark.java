@@ -0,0 +1,83 @@
+package com.opsvision.monitoring.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.opsvision.monitoring.utils.HtmlExtractor;
+
+/**
+ * Extraction of the Forward RF Level from a recorded O&M status page, with
+ * the HtmlExtractor used by WebMonitor and, for comparison, the jsoup DOM
+ * scan it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebParsingBenchmark {
+	private static final String LABEL = "Forward RF Level";
+	private byte[] page;
+	private HtmlExtractor extractor;
+	private String[] values;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		try (InputStream in = WebParsingBenchmark.class.getResourceAsStream("/om-status.html")) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] chunk = new byte[8192];
+			int n;
+			while ((n = in.read(chunk)) > 0) {
+				out.write(chunk, 0, n);
+			}
+			page = out.toByteArray();
+		}
+
+		Map<String, String> rules = new LinkedHashMap<>();
+		rules.put("rflevel", LABEL);
+		extractor = new HtmlExtractor(rules);
+		values = new String[1];
+
+		if (!"52.4".equals(extract()) || !"52.4".equals(jsoup())) {
+			throw new IllegalStateException("om-status.html does not yield the expected value");
+		}
+	}
+
+	@Benchmark
+	public String extract() {
+		extractor.extract(page, values);
+		return values[0];
+	}
+
+	@Benchmark
+	public String jsoup() {
+		Document document = Jsoup.parse(new String(page, StandardCharsets.UTF_8));
+		for (Element td : document.getElementsByTag("td")) {
+			if (td.text().contains(LABEL)) {
+				return td.nextElementSibling().text().split("\\s+")[0];
+			}
+		}
+		return null;
+	}
+}
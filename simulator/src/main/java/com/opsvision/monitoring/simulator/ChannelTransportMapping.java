@@ -0,0 +1,64 @@
+package com.opsvision.monitoring.simulator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.transport.UdpTransportMapping;
+
+/**
+ * The snmp4j transport of one virtual device. Unlike DefaultUdpTransportMapping
+ * it has no listen thread: the {@link DeviceSimulator} reads every device's
+ * channel from one selector and hands the datagrams in, so thousands of
+ * devices cost one thread.
+ */
+class ChannelTransportMapping extends UdpTransportMapping {
+	private final DatagramChannel channel;
+	private final VirtualDevice device;
+
+	ChannelTransportMapping(DatagramChannel channel, VirtualDevice device) throws IOException {
+		super(new UdpAddress(((InetSocketAddress) channel.getLocalAddress()).getAddress(),
+				device.getPort()));
+		this.channel = channel;
+		this.device = device;
+	}
+
+	DatagramChannel getChannel() {
+		return channel;
+	}
+
+	VirtualDevice getDevice() {
+		return device;
+	}
+
+	// Called by the selector thread with a received datagram
+	void received(InetSocketAddress peer, ByteBuffer datagram) {
+		byte[] message = new byte[datagram.remaining()];
+		datagram.get(message);
+		fireProcessMessage(new UdpAddress(peer.getAddress(), peer.getPort()), ByteBuffer.wrap(message));
+	}
+
+	@Override
+	public void sendMessage(Address address, byte[] message) throws IOException {
+		UdpAddress udp = (UdpAddress) address;
+		channel.send(ByteBuffer.wrap(message), new InetSocketAddress(udp.getInetAddress(), udp.getPort()));
+	}
+
+	@Override
+	public void listen() throws IOException {
+		// The simulator reads the channel
+	}
+
+	@Override
+	public boolean isListening() {
+		return channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,138 @@
+package com.opsvision.monitoring.simulator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.Variable;
+
+/**
+ * The kinds of device the simulator can stand up. Each profile serves the
+ * exact OIDs its monitor polls, in their normal state, and knows the
+ * values that put the device into a fault and the trap the agent answers
+ * a value with.
+ */
+public enum DeviceProfile {
+	/** A GatesAir transmitter as polled by GatesAirMonitor */
+	GATESAIR("gatesair", "public",
+			new String[] { "1.3.6.1.4.1.37504.3.2.1.3.4.1.2.1", "1.3.6.1.4.1.37504.3.2.4.3.1.1.1.1" },
+			new int[] { 5, 1 },		// healthStatus operative(5), RF power up(1)
+			new int[] { 6, 2 },		// healthStatus alarm(6), RF power down(2)
+			new int[] { 7, 6 }),
+
+	/** A Liebert UPS as polled by LiebertMonitor */
+	LIEBERT("liebert", "LiebertEM",
+			new String[] { "1.3.6.1.2.1.33.1.2.1.0", "1.3.6.1.2.1.33.1.4.1.0" },
+			new int[] { 2, 3 },		// upsBatteryStatus normal(2), upsOutputSource normal(3)
+			new int[] { 3, 5 },		// upsBatteryStatus low(3), upsOutputSource battery(5)
+			new int[] { 3, 4 });
+
+	private static final OID sysDescrOID = new OID("1.3.6.1.2.1.1.1.0");
+	private final String prefix;
+	private final String community;
+	private final OID[] oids;
+	private final int[] normal;
+	private final int[] fault;
+	private final int[] traps;
+
+	DeviceProfile(String prefix, String community, String[] oids, int[] normal, int[] fault,
+			int[] traps) {
+		this.prefix = prefix;
+		this.community = community;
+		this.oids = new OID[oids.length];
+		for (int i = 0; i < oids.length; i++) {
+			this.oids[i] = new OID(oids[i]);
+		}
+		this.normal = normal;
+		this.fault = fault;
+		this.traps = traps;
+	}
+
+	/**
+	 * @return the monitor type prefix in the agent configuration
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * @return the community the device answers to
+	 */
+	public String getCommunity() {
+		return community;
+	}
+
+	/**
+	 * @return the polled OIDs
+	 */
+	public OID[] getOids() {
+		return oids.clone();
+	}
+
+	/**
+	 * @param index the index of the polled OID
+	 * @return the value of the OID in the normal state
+	 */
+	public int getNormal(int index) {
+		return normal[index];
+	}
+
+	/**
+	 * @param index the index of the polled OID
+	 * @return the value of the OID that the monitor reports as a fault
+	 */
+	public int getFault(int index) {
+		return fault[index];
+	}
+
+	/**
+	 * Builds the MIB of a device in its normal state.
+	 *
+	 * @param name the name of the device, served as sysDescr
+	 * @return the MIB
+	 */
+	public Map<OID, Variable> createMib(String name) {
+		Map<OID, Variable> mib = new LinkedHashMap<>();
+		mib.put(sysDescrOID, new OctetString(name));
+		for (int i = 0; i < oids.length; i++) {
+			mib.put(oids[i], new Integer32(normal[i]));
+		}
+		return mib;
+	}
+
+	/**
+	 * Returns the trap the agent sends when it sees a polled value change,
+	 * as "specificTrap=value".
+	 *
+	 * @param oid the polled OID
+	 * @param value the new value
+	 * @return the trap key, or null if the OID is not polled
+	 */
+	public String getTrapKey(OID oid, int value) {
+		for (int i = 0; i < oids.length; i++) {
+			if (oids[i].equals(oid)) {
+				// GatesAirMonitor reports any RF power but down(2) as up(1)
+				if (this == GATESAIR && i == 1 && value != 2) {
+					value = 1;
+				}
+				return traps[i] + "=" + value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param prefix the monitor type prefix
+	 * @return the profile, or null if there is none for the prefix
+	 */
+	public static DeviceProfile fromPrefix(String prefix) {
+		for (DeviceProfile profile : values()) {
+			if (profile.prefix.equalsIgnoreCase(prefix)) {
+				return profile;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,529 @@
+package com.opsvision.monitoring.simulator;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.snmp4j.CommandResponder;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.MessageException;
+import org.snmp4j.PDU;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.mp.MessageProcessingModel;
+import org.snmp4j.mp.StatusInformation;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Stands up thousands of virtual SNMP devices on consecutive UDP ports.
+ * Every device has its own channel and snmp4j transport, but all channels
+ * are read by one selector thread and decoded by one message dispatcher,
+ * so the simulator is cheap next to the agent it loads. Responses to
+ * devices with injected latency are sent from a small scheduler pool.
+ *
+ * Run stand-alone it writes the agent configuration for its devices and
+ * answers polls until it is killed:
+ *
+ * <pre>
+ * java -cp simulator.jar com.opsvision.monitoring.simulator.DeviceSimulator \
+ *     gatesair=1000 liebert=1000 port=20000 script=faults.txt config=devices.properties
+ * </pre>
+ */
+public class DeviceSimulator implements Runnable, CommandResponder {
+	final static Logger logger = Logger.getLogger(DeviceSimulator.class);
+	private final InetAddress address;
+	private final List<VirtualDevice> devices = new ArrayList<>();
+	private final List<ChannelTransportMapping> transports = new ArrayList<>();
+	private final MessageDispatcherImpl dispatcher = new MessageDispatcherImpl();
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+	private ScheduledExecutorService delayed = null;
+	private Selector selector = null;
+	private volatile Thread thread = null;
+	private volatile boolean running = false;
+
+	/**
+	 * @param host the address the devices listen on, normally 127.0.0.1
+	 * @throws IOException if the address cannot be resolved
+	 */
+	public DeviceSimulator(String host) throws IOException {
+		address = InetAddress.getByName(host);
+		dispatcher.addMessageProcessingModel(new MPv1());
+		dispatcher.addMessageProcessingModel(new MPv2c());
+		dispatcher.addCommandResponder(this);
+	}
+
+	/**
+	 * Binds a number of devices of a profile on consecutive ports. Devices
+	 * must be added before the simulator starts.
+	 *
+	 * @param profile the kind of device
+	 * @param count the number of devices
+	 * @param basePort the port of the first device
+	 * @return the new devices
+	 * @throws IOException if a port cannot be bound
+	 */
+	public synchronized List<VirtualDevice> addDevices(DeviceProfile profile, int count, int basePort)
+			throws IOException {
+		if (running) {
+			throw new IllegalStateException("Devices must be added before the simulator starts");
+		}
+
+		int first = 0;
+		for (VirtualDevice device : devices) {
+			if (device.getProfile() == profile) {
+				first++;
+			}
+		}
+
+		List<VirtualDevice> added = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			VirtualDevice device = new VirtualDevice(profile, first + i, basePort + i);
+			DatagramChannel channel = DatagramChannel.open();
+			try {
+				channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+				channel.bind(new InetSocketAddress(address, device.getPort()));
+				channel.configureBlocking(false);
+
+			} catch (IOException e) {
+				channel.close();
+				throw new IOException("Failed to bind port " + device.getPort() + ": " + e.getMessage(), e);
+			}
+
+			ChannelTransportMapping transport = new ChannelTransportMapping(channel, device);
+			transport.addTransportListener(dispatcher);
+			transports.add(transport);
+			devices.add(device);
+			added.add(device);
+		}
+
+		logger.info("Added " + count + " " + profile.getPrefix() + " device(s) on ports "
+				+ basePort + "-" + (basePort + count - 1));
+		return added;
+	}
+
+	/**
+	 * Starts answering requests.
+	 *
+	 * @throws IOException if the selector cannot be opened
+	 */
+	public synchronized void start() throws IOException {
+		if (running) {
+			return;
+		}
+
+		selector = Selector.open();
+		for (ChannelTransportMapping transport : transports) {
+			transport.getChannel().register(selector, SelectionKey.OP_READ, transport);
+		}
+
+		delayed = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread t = new Thread(runnable, "DeviceSimulator-delay");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		running = true;
+		thread = new Thread(this, "DeviceSimulator");
+		thread.setDaemon(true);
+		thread.start();
+		logger.info("Simulating " + devices.size() + " device(s) on " + address.getHostAddress());
+	}
+
+	/**
+	 * Stops answering and releases every port.
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join(5000);
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		delayed.shutdownNow();
+
+		for (ChannelTransportMapping transport : transports) {
+			try {
+				transport.close();
+
+			} catch (IOException e) {
+				logger.warn("Error closing port of " + transport.getDevice().getName() + ": " + e.getMessage());
+			}
+		}
+		try {
+			selector.close();
+
+		} catch (IOException e) {
+			logger.warn("Error closing selector: " + e.getMessage());
+		}
+		thread = null;
+	}
+
+	/**
+	 * @return every device
+	 */
+	public List<VirtualDevice> getDevices() {
+		return devices;
+	}
+
+	/**
+	 * Selects devices by a comma separated list of specs: all, a profile
+	 * (gatesair), a device (gatesair:5), a range (gatesair:0-99) or a
+	 * percentage of the devices of a profile (liebert:10%).
+	 *
+	 * @param spec the devices to select
+	 * @return the selected devices
+	 */
+	public List<VirtualDevice> select(String spec) {
+		List<VirtualDevice> selected = new ArrayList<>();
+
+		for (String part : spec.trim().split("\\s*,\\s*")) {
+			if (part.equals("all") || part.equals("*")) {
+				return new ArrayList<>(devices);
+			}
+
+			int colon = part.indexOf(':');
+			DeviceProfile profile = DeviceProfile.fromPrefix((colon < 0) ? part : part.substring(0, colon));
+			if (profile == null) {
+				throw new IllegalArgumentException("Unknown device profile in " + part);
+			}
+
+			List<VirtualDevice> ofProfile = new ArrayList<>();
+			for (VirtualDevice device : devices) {
+				if (device.getProfile() == profile) {
+					ofProfile.add(device);
+				}
+			}
+
+			String range = (colon < 0) ? "*" : part.substring(colon + 1);
+			int from = 0;
+			int to = ofProfile.size() - 1;
+			if (range.endsWith("%")) {
+				to = (int) (ofProfile.size() * Double.parseDouble(range.substring(0, range.length() - 1)) / 100) - 1;
+			} else if (!range.equals("*")) {
+				int dash = range.indexOf('-');
+				from = Integer.parseInt((dash < 0) ? range : range.substring(0, dash));
+				to = (dash < 0) ? from : Integer.parseInt(range.substring(dash + 1));
+			}
+
+			for (int i = Math.max(0, from); i <= Math.min(to, ofProfile.size() - 1); i++) {
+				selected.add(ofProfile.get(i));
+			}
+		}
+
+		return selected;
+	}
+
+	/**
+	 * Builds the agent properties that poll every device: the instance list
+	 * of each profile and the host and port of every instance.
+	 *
+	 * @return the properties
+	 */
+	public Properties getAgentProperties() {
+		Map<DeviceProfile, StringBuilder> instances = new LinkedHashMap<>();
+		Properties properties = new Properties();
+
+		for (VirtualDevice device : devices) {
+			String prefix = "monitor." + device.getProfile().getPrefix() + ".";
+			StringBuilder list = instances.get(device.getProfile());
+			if (list == null) {
+				list = new StringBuilder();
+				instances.put(device.getProfile(), list);
+			} else {
+				list.append(',');
+			}
+			list.append(device.getName());
+
+			properties.setProperty(prefix + device.getName() + ".host", address.getHostAddress());
+			properties.setProperty(prefix + device.getName() + ".port", Integer.toString(device.getPort()));
+		}
+
+		for (Map.Entry<DeviceProfile, StringBuilder> entry : instances.entrySet()) {
+			String prefix = "monitor." + entry.getKey().getPrefix() + ".";
+			properties.setProperty(prefix + "instances", entry.getValue().toString());
+			properties.setProperty(prefix + "enabled", "true");
+			properties.setProperty(prefix + "snmpcomm", entry.getKey().getCommunity());
+		}
+
+		return properties;
+	}
+
+	/**
+	 * @return the number of requests received by every device
+	 */
+	public long getRequests() {
+		long total = 0;
+		for (VirtualDevice device : devices) {
+			total += device.getRequests();
+		}
+		return total;
+	}
+
+	/**
+	 * @return the number of responses sent by every device
+	 */
+	public long getResponses() {
+		long total = 0;
+		for (VirtualDevice device : devices) {
+			total += device.getResponses();
+		}
+		return total;
+	}
+
+	/**
+	 * @return the number of requests dropped by every device
+	 */
+	public long getDropped() {
+		long total = 0;
+		for (VirtualDevice device : devices) {
+			total += device.getDropped();
+		}
+		return total;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					drain((DatagramChannel) key.channel(), (ChannelTransportMapping) key.attachment());
+				}
+			}
+
+		} catch (IOException e) {
+			logger.error("Device simulator failed: " + e.getMessage());
+		}
+	}
+
+	// Hands every queued datagram of a device to the dispatcher
+	private void drain(DatagramChannel channel, ChannelTransportMapping transport) {
+		try {
+			while (true) {
+				buffer.clear();
+				InetSocketAddress peer = (InetSocketAddress) channel.receive(buffer);
+				if (peer == null) {
+					break;
+				}
+				buffer.flip();
+				transport.received(peer, buffer);
+			}
+
+		} catch (IOException e) {
+			logger.warn("Error reading port of " + transport.getDevice().getName() + ": " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void processPdu(final CommandResponderEvent event) {
+		VirtualDevice device = ((ChannelTransportMapping) event.getTransportMapping()).getDevice();
+		PDU request = event.getPDU();
+		device.received();
+		event.setProcessed(true);
+
+		// Like a real agent, ignore unknown communities and anything but reads
+		if (request == null || !device.getProfile().getCommunity().equals(
+				new String(event.getSecurityName()))) {
+			device.dropped();
+			return;
+		}
+		if (request.getType() != PDU.GET && request.getType() != PDU.GETNEXT
+				&& request.getType() != PDU.GETBULK) {
+			return;
+		}
+
+		if (device.isDown() || (device.getLoss() > 0
+				&& ThreadLocalRandom.current().nextDouble() < device.getLoss())) {
+			device.dropped();
+			return;
+		}
+
+		final PDU response = respond(device, request,
+				event.getMessageProcessingModel() == MessageProcessingModel.MPv1);
+		final VirtualDevice target = device;
+		int delay = device.getLatency();
+		if (device.getJitter() > 0) {
+			delay += ThreadLocalRandom.current().nextInt(device.getJitter() + 1);
+		}
+
+		if (delay <= 0) {
+			send(target, event, response);
+			return;
+		}
+
+		delayed.schedule(new Runnable() {
+			@Override
+			public void run() {
+				send(target, event, response);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	// Answers a read from the MIB of a device
+	private static PDU respond(VirtualDevice device, PDU request, boolean v1) {
+		PDU response = (PDU) request.clone();
+		response.setType(PDU.RESPONSE);
+		response.clear();
+		response.setRequestID(request.getRequestID());
+
+		int index = 0;
+		for (Object o : request.getVariableBindings()) {
+			OID oid = ((VariableBinding) o).getOid();
+			index++;
+
+			if (request.getType() == PDU.GET) {
+				Variable value = device.get(oid);
+				if (value == null && v1) {
+					// SNMPv1 cannot encode noSuchObject
+					response = (PDU) request.clone();
+					response.setType(PDU.RESPONSE);
+					response.setErrorStatus(PDU.noSuchName);
+					response.setErrorIndex(index);
+					return response;
+				}
+				response.add(new VariableBinding(oid, (value == null) ? Null.noSuchObject : value));
+				continue;
+			}
+
+			int repetitions = (request.getType() == PDU.GETBULK) ? Math.max(1, request.getMaxRepetitions()) : 1;
+			for (int i = 0; i < repetitions; i++) {
+				Map.Entry<OID, Variable> next = device.next(oid);
+				if (next == null) {
+					response.add(new VariableBinding(oid, Null.endOfMibView));
+					break;
+				}
+				response.add(new VariableBinding(next.getKey(), next.getValue()));
+				oid = next.getKey();
+			}
+		}
+
+		return response;
+	}
+
+	private void send(VirtualDevice device, CommandResponderEvent event, PDU response) {
+		try {
+			dispatcher.returnResponsePdu(event.getMessageProcessingModel(), event.getSecurityModel(),
+					event.getSecurityName(), event.getSecurityLevel(), response,
+					event.getMaxSizeResponsePDU(), event.getStateReference(), new StatusInformation());
+			device.responded();
+
+		} catch (MessageException e) {
+			logger.warn("Failed to respond for " + device.getName() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Parses key=value arguments
+	 *
+	 * @param args the command line arguments
+	 * @return the arguments by key
+	 */
+	static Map<String, String> parseArgs(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0) {
+				throw new IllegalArgumentException("Expected key=value, got " + arg);
+			}
+			options.put(arg.substring(0, eq).trim(), arg.substring(eq + 1).trim());
+		}
+		return options;
+	}
+
+	/**
+	 * Creates the devices given by the gatesair, liebert, host and port
+	 * arguments; the devices of each profile follow those of the previous.
+	 *
+	 * @param options the parsed arguments
+	 * @return the simulator, not yet started
+	 * @throws IOException if a port cannot be bound
+	 */
+	static DeviceSimulator create(Map<String, String> options) throws IOException {
+		String host = options.containsKey("host") ? options.get("host") : "127.0.0.1";
+		int port = Integer.parseInt(options.containsKey("port") ? options.get("port") : "20000");
+
+		DeviceSimulator simulator = new DeviceSimulator(host);
+		for (DeviceProfile profile : DeviceProfile.values()) {
+			String count = options.get(profile.getPrefix());
+			if (count != null && Integer.parseInt(count) > 0) {
+				simulator.addDevices(profile, Integer.parseInt(count), port);
+				port += Integer.parseInt(count);
+			}
+		}
+		return simulator;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = parseArgs(args);
+		final DeviceSimulator simulator = create(options);
+
+		// A broken script fails here, before any device answers
+		FaultScript script = options.containsKey("script") ? FaultScript.load(options.get("script")) : null;
+
+		String config = options.get("config");
+		if (config != null) {
+			try (OutputStream out = new FileOutputStream(config)) {
+				simulator.getAgentProperties().store(out, "Simulated devices");
+			}
+			logger.info("Wrote the agent configuration to " + config);
+		}
+
+		simulator.start();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				simulator.stop();
+			}
+		});
+
+		if (script != null) {
+			script.start(simulator, null);
+		}
+
+		long requests = 0;
+		while (true) {
+			Thread.sleep(10000);
+			long now = simulator.getRequests();
+			logger.info(String.format("%.1f requests/s, %d responses, %d dropped",
+					(now - requests) / 10.0, simulator.getResponses(), simulator.getDropped()));
+			requests = now;
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package com.opsvision.monitoring.simulator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.Variable;
+
+/**
+ * A timed list of impairments injected into the simulated devices. Each
+ * line of a script is "seconds devices action [arguments]", with the
+ * devices selected as in {@link DeviceSimulator#select(String)}:
+ *
+ * <pre>
+ * # seconds  devices        action
+ * 30         gatesair:10%   fault          # every polled value in fault
+ * 30         liebert:0-9    fault 1        # only the second polled value
+ * 90         gatesair:10%   clear
+ * 60         liebert:5      set 1.3.6.1.2.1.33.1.2.1.0 3
+ * 60         all            latency 200 50 # 200 ms plus up to 50 ms
+ * 120        all            loss 0.05
+ * 150        gatesair:3     down
+ * 180        gatesair:3     up
+ * </pre>
+ *
+ * Actions and their arguments are checked when the script is parsed.
+ */
+public class FaultScript {
+	final static Logger logger = Logger.getLogger(FaultScript.class);
+	private final List<Action> actions;
+
+	/**
+	 * Receives every polled value that an action changed, so the trap the
+	 * agent should send for it can be expected.
+	 */
+	public interface Listener {
+		/**
+		 * @param device the device whose value changed
+		 * @param oid the changed OID
+		 * @param from the previous value
+		 * @param to the new value
+		 * @param time the time of the change in milliseconds
+		 */
+		void changed(VirtualDevice device, OID oid, int from, int to, long time);
+	}
+
+	// One line of a script
+	private static class Action {
+		final long offset;
+		final String devices;
+		final String[] command;
+		final String line;
+
+		Action(long offset, String devices, String[] command, String line) {
+			this.offset = offset;
+			this.devices = devices;
+			this.command = command;
+			this.line = line;
+		}
+	}
+
+	private FaultScript(List<Action> actions) {
+		this.actions = actions;
+	}
+
+	/**
+	 * Loads a script from a file
+	 *
+	 * @param file the script file
+	 * @return the script
+	 * @throws IOException if the file cannot be read
+	 */
+	public static FaultScript load(String file) throws IOException {
+		return parse(Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Parses the lines of a script
+	 *
+	 * @param lines the lines
+	 * @return the script, its actions ordered by time
+	 * @throws IllegalArgumentException if a line is not a valid action
+	 */
+	public static FaultScript parse(List<String> lines) {
+		List<Action> actions = new ArrayList<>();
+		for (String line : lines) {
+			int hash = line.indexOf('#');
+			String text = ((hash < 0) ? line : line.substring(0, hash)).trim();
+			if (text.isEmpty()) {
+				continue;
+			}
+
+			String[] fields = text.split("\\s+");
+			if (fields.length < 3) {
+				throw new IllegalArgumentException("Expected seconds, devices and action: " + line);
+			}
+			String[] command = new String[fields.length - 2];
+			System.arraycopy(fields, 2, command, 0, command.length);
+			check(command, line);
+			actions.add(new Action((long) (Double.parseDouble(fields[0]) * 1000), fields[1], command, text));
+		}
+
+		Collections.sort(actions, new Comparator<Action>() {
+			@Override
+			public int compare(Action a, Action b) {
+				return Long.compare(a.offset, b.offset);
+			}
+		});
+		return new FaultScript(actions);
+	}
+
+	// Rejects an unknown action or malformed arguments
+	private static void check(String[] command, String line) {
+		int min;
+		int max;
+		switch (command[0]) {
+		case "fault":
+		case "clear":
+			min = 1;
+			max = 2;
+			break;
+
+		case "set":
+			min = 3;
+			max = 3;
+			break;
+
+		case "latency":
+			min = 2;
+			max = 3;
+			break;
+
+		case "loss":
+			min = 2;
+			max = 2;
+			break;
+
+		case "down":
+		case "up":
+			min = 1;
+			max = 1;
+			break;
+
+		default:
+			throw new IllegalArgumentException("Unknown action: " + line);
+		}
+
+		if (command.length < min || command.length > max) {
+			throw new IllegalArgumentException("Wrong number of arguments: " + line);
+		}
+
+		// Every argument is a number, except the OID of set
+		try {
+			for (int i = 1; i < command.length; i++) {
+				if (command[0].equals("loss")) {
+					Double.parseDouble(command[i]);
+				} else if (!command[0].equals("set") || i == 2) {
+					Integer.parseInt(command[i]);
+				}
+			}
+
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number: " + line);
+		}
+	}
+
+	/**
+	 * @return the time of the last action in milliseconds
+	 */
+	public long getDuration() {
+		return actions.isEmpty() ? 0 : actions.get(actions.size() - 1).offset;
+	}
+
+	/**
+	 * Runs the script on a daemon thread, timed from now.
+	 *
+	 * @param simulator the simulator whose devices are impaired
+	 * @param listener receives the changed values, may be null
+	 * @return the thread running the script
+	 */
+	public Thread start(final DeviceSimulator simulator, final Listener listener) {
+		final long start = System.currentTimeMillis();
+		Thread thread = new Thread("FaultScript") {
+			@Override
+			public void run() {
+				try {
+					for (Action action : actions) {
+						long wait = start + action.offset - System.currentTimeMillis();
+						if (wait > 0) {
+							Thread.sleep(wait);
+						}
+						apply(action, simulator, listener);
+					}
+
+				} catch (InterruptedException e) {
+					// Stopped
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	private static void apply(Action action, DeviceSimulator simulator, Listener listener) {
+		List<VirtualDevice> devices = simulator.select(action.devices);
+		String verb = action.command[0];
+		long now = System.currentTimeMillis();
+		logger.info("Applying \"" + action.line + "\" to " + devices.size() + " device(s)");
+
+		for (VirtualDevice device : devices) {
+			DeviceProfile profile = device.getProfile();
+			OID[] oids = profile.getOids();
+
+			switch (verb) {
+			case "fault":
+			case "clear":
+				for (int i = 0; i < oids.length; i++) {
+					if (action.command.length < 2 || Integer.parseInt(action.command[1]) == i) {
+						set(device, oids[i], verb.equals("fault") ? profile.getFault(i) : profile.getNormal(i),
+								listener, now);
+					}
+				}
+				break;
+
+			case "set":
+				set(device, new OID(action.command[1]), Integer.parseInt(action.command[2]), listener, now);
+				break;
+
+			case "latency":
+				device.setLatency(Integer.parseInt(action.command[1]),
+						(action.command.length > 2) ? Integer.parseInt(action.command[2]) : 0);
+				break;
+
+			case "loss":
+				device.setLoss(Double.parseDouble(action.command[1]));
+				break;
+
+			case "down":
+				device.setDown(true);
+				break;
+
+			case "up":
+				device.setDown(false);
+				break;
+
+			default:
+				throw new IllegalArgumentException("Unknown action: " + action.line);
+			}
+		}
+	}
+
+	// Sets a value and reports it if it changed
+	private static void set(VirtualDevice device, OID oid, int value, Listener listener, long now) {
+		Variable previous = device.get(oid);
+		device.set(oid, value);
+
+		if (listener != null && previous != null && previous.toInt() != value) {
+			listener.changed(device, oid, previous.toInt(), value, now);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package com.opsvision.monitoring.simulator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import com.opsvision.monitoring.MonitoringAgent;
+
+/**
+ * Runs the monitoring agent in-process against simulated devices and
+ * reports how many polls per second it sustains and how long a device
+ * fault takes to arrive as a trap. Arguments are key=value:
+ *
+ * <pre>
+ * gatesair=1000 liebert=1000  devices per profile
+ * port=20000                  port of the first device
+ * rate=60                     polling rate of every device in seconds
+ * duration=300                length of the run in seconds
+ * script=faults.txt           fault script, see FaultScript; by default 10% of
+ *                             the devices fault at 1/4 of the run and clear at 1/2
+ * trapport=16262              port the agent sends traps to
+ * report=10                   seconds between progress reports
+ * monitor.*=...               any agent property, e.g. monitor.main.concurrency=500
+ * </pre>
+ */
+public class LoadHarness {
+	final static Logger logger = Logger.getLogger(LoadHarness.class);
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = DeviceSimulator.parseArgs(args);
+		int rate = Integer.parseInt(option(options, "rate", "60"));
+		long duration = Long.parseLong(option(options, "duration", "300")) * 1000;
+		int trapPort = Integer.parseInt(option(options, "trapport", "16262"));
+		long report = Long.parseLong(option(options, "report", "10")) * 1000;
+		if (!options.containsKey("gatesair") && !options.containsKey("liebert")) {
+			options.put("gatesair", "1000");
+		}
+
+		DeviceSimulator simulator = DeviceSimulator.create(options);
+		TrapCollector traps = new TrapCollector("127.0.0.1", trapPort);
+
+		FaultScript script;
+		if (options.containsKey("script")) {
+			script = FaultScript.load(options.get("script"));
+		} else {
+			String devices = options.containsKey("liebert") && options.containsKey("gatesair")
+					? "gatesair:10%,liebert:10%" : options.containsKey("liebert") ? "liebert:10%" : "gatesair:10%";
+			script = FaultScript.parse(Arrays.asList(
+					(duration / 4000) + " " + devices + " fault",
+					(duration / 2000) + " " + devices + " clear"));
+		}
+
+		// The agent reads this file instead of its own config.properties
+		File config = writeAgentConfig(simulator, options, rate, trapPort);
+		System.setProperty("monitor.config", config.getAbsolutePath());
+
+		simulator.start();
+		MonitoringAgent.start(new String[0]);
+		long start = System.currentTimeMillis();
+		script.start(simulator, traps);
+
+		double target = simulator.getDevices().size() / (double) rate;
+		long last = start;
+		long lastResponses = 0;
+		while (System.currentTimeMillis() - start < duration) {
+			Thread.sleep(Math.min(report, Math.max(1, start + duration - System.currentTimeMillis())));
+			long now = System.currentTimeMillis();
+			long responses = simulator.getResponses();
+			logger.info(String.format("%4ds  %.1f polls/s (target %.1f), %d dropped, %d trap(s), %d outstanding",
+					(now - start) / 1000, (responses - lastResponses) * 1000.0 / (now - last), target,
+					simulator.getDropped(), traps.getReceived(), traps.getOutstanding()));
+			last = now;
+			lastResponses = responses;
+		}
+
+		// Shutting down waits for polls stuck in timeouts, so count first
+		long elapsed = System.currentTimeMillis() - start;
+		long responses = simulator.getResponses();
+		MonitoringAgent.stop();
+		simulator.stop();
+		traps.close();
+		config.delete();
+
+		List<Long> latencies = traps.getLatencies();
+		logger.info(String.format("Polls: %d answered in %.0f s, %.1f/s against a target of %.1f/s",
+				responses, elapsed / 1000.0, responses * 1000.0 / elapsed, target));
+		logger.info(String.format("Requests: %d received, %d dropped by injected faults",
+				simulator.getRequests(), simulator.getDropped()));
+		logger.info(String.format("Traps: %d received, %d matched, %d unexpected, %d missing, "
+				+ "%d change(s) superseded before a poll", traps.getReceived(), latencies.size(),
+				traps.getUnexpected(), traps.getOutstanding(), traps.getSuperseded()));
+		if (!latencies.isEmpty()) {
+			logger.info(String.format("Trap latency ms: p50 %d, p90 %d, p99 %d, max %d",
+					percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+					latencies.get(latencies.size() - 1)));
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Writes the agent configuration: the agent's own config.properties with
+	 * every monitor disabled, plus the simulated devices, their polling rate,
+	 * the trap destination and any monitor.* arguments.
+	 */
+	private static File writeAgentConfig(DeviceSimulator simulator, Map<String, String> options,
+			int rate, int trapPort) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream in = LoadHarness.class.getClassLoader().getResourceAsStream("config.properties")) {
+			if (in != null) {
+				properties.load(in);
+			}
+		}
+
+		for (String key : properties.stringPropertyNames()) {
+			if (key.endsWith(".enabled") && !key.startsWith("monitor.main.")) {
+				properties.setProperty(key, "false");
+			}
+		}
+		properties.putAll(simulator.getAgentProperties());
+		for (DeviceProfile profile : DeviceProfile.values()) {
+			properties.setProperty("monitor." + profile.getPrefix() + ".polling.rate", Integer.toString(rate));
+		}
+
+		properties.setProperty("monitor.main.trap.destination", "127.0.0.1");
+		properties.setProperty("monitor.main.trap.port", Integer.toString(trapPort));
+		properties.setProperty("monitor.main.state.file", "");
+		for (Map.Entry<String, String> option : options.entrySet()) {
+			if (option.getKey().startsWith("monitor.")) {
+				properties.setProperty(option.getKey(), option.getValue());
+			}
+		}
+
+		File file = File.createTempFile("harness", ".properties");
+		try (OutputStream out = new FileOutputStream(file)) {
+			properties.store(out, "Load harness");
+		}
+		return file;
+	}
+
+	private static String option(Map<String, String> options, String key, String defaultValue) {
+		return options.containsKey(key) ? options.get(key) : defaultValue;
+	}
+
+	private static long percentile(List<Long> sorted, int percent) {
+		return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(sorted.size() * percent / 100.0) - 1));
+	}
+}
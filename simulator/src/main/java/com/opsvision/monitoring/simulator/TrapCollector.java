@@ -0,0 +1,162 @@
+package com.opsvision.monitoring.simulator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.snmp4j.CommandResponder;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.PDU;
+import org.snmp4j.PDUv1;
+import org.snmp4j.Snmp;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+/**
+ * Receives the agent's traps and times them against the value changes that
+ * should cause them. The agent's traps do not name the device, so a trap is
+ * matched to the oldest outstanding change with the same trap key. A change
+ * that is changed again before the agent polls the device causes no trap;
+ * it is counted as superseded rather than missing.
+ */
+public class TrapCollector implements CommandResponder, FaultScript.Listener {
+	private final Snmp snmp;
+	private final Map<String, ArrayDeque<Change>> expected = new HashMap<>();
+	private final Map<String, Change> pending = new HashMap<>();
+	private final List<Long> latencies = new ArrayList<>();
+	private long received = 0;
+	private long unexpected = 0;
+	private long superseded = 0;
+
+	// A value change waiting for its trap
+	private static class Change {
+		final String key;
+		final String trapKey;
+		final String baseline;
+		final long time;
+
+		Change(String key, String trapKey, String baseline, long time) {
+			this.key = key;
+			this.trapKey = trapKey;
+			this.baseline = baseline;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * Starts listening for traps
+	 *
+	 * @param host the address to listen on
+	 * @param port the port to listen on
+	 * @throws IOException if the port cannot be bound
+	 */
+	public TrapCollector(String host, int port) throws IOException {
+		snmp = new Snmp(new DefaultUdpTransportMapping(new UdpAddress(host + "/" + port)));
+		snmp.addCommandResponder(this);
+		snmp.listen();
+	}
+
+	/**
+	 * Stops listening
+	 */
+	public void close() throws IOException {
+		snmp.close();
+	}
+
+	@Override
+	public synchronized void changed(VirtualDevice device, OID oid, int from, int to, long time) {
+		String key = device.getName() + "/" + oid;
+		String trapKey = device.getProfile().getTrapKey(oid, to);
+		if (trapKey == null) {
+			return;
+		}
+
+		// The baseline is the last value the agent has trapped for
+		String baseline = device.getProfile().getTrapKey(oid, from);
+		Change previous = pending.remove(key);
+		if (previous != null) {
+			expected.get(previous.trapKey).remove(previous);
+			superseded++;
+			baseline = previous.baseline;
+		}
+		if (trapKey.equals(baseline)) {
+			return;
+		}
+
+		Change change = new Change(key, trapKey, baseline, time);
+		pending.put(key, change);
+		ArrayDeque<Change> changes = expected.get(trapKey);
+		if (changes == null) {
+			changes = new ArrayDeque<>();
+			expected.put(trapKey, changes);
+		}
+		changes.add(change);
+	}
+
+	@Override
+	public void processPdu(CommandResponderEvent event) {
+		long now = System.currentTimeMillis();
+		PDU pdu = event.getPDU();
+		if (!(pdu instanceof PDUv1) || pdu.size() == 0) {
+			return;
+		}
+
+		String trapKey = ((PDUv1) pdu).getSpecificTrap() + "="
+				+ ((VariableBinding) pdu.getVariableBindings().get(0)).getVariable().toInt();
+
+		synchronized (this) {
+			received++;
+			ArrayDeque<Change> changes = expected.get(trapKey);
+			Change change = (changes == null) ? null : changes.poll();
+			if (change == null) {
+				unexpected++;
+			} else {
+				pending.remove(change.key);
+				latencies.add(now - change.time);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of traps received
+	 */
+	public synchronized long getReceived() {
+		return received;
+	}
+
+	/**
+	 * @return the number of traps that matched no outstanding change
+	 */
+	public synchronized long getUnexpected() {
+		return unexpected;
+	}
+
+	/**
+	 * @return the number of changes changed again before their trap arrived
+	 */
+	public synchronized long getSuperseded() {
+		return superseded;
+	}
+
+	/**
+	 * @return the number of changes no trap has arrived for yet
+	 */
+	public synchronized long getOutstanding() {
+		return pending.size();
+	}
+
+	/**
+	 * @return the latency of every matched trap in milliseconds, sorted
+	 */
+	public synchronized List<Long> getLatencies() {
+		List<Long> sorted = new ArrayList<>(latencies);
+		Collections.sort(sorted);
+		return sorted;
+	}
+}
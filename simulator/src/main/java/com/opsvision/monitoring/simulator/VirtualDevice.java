@@ -0,0 +1,170 @@
+package com.opsvision.monitoring.simulator;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.Variable;
+
+/**
+ * One simulated device: its MIB and the impairments injected into it. The
+ * MIB and impairments may be changed at any time while the simulator
+ * answers requests.
+ */
+public class VirtualDevice {
+	private final DeviceProfile profile;
+	private final int index;
+	private final int port;
+	private final TreeMap<OID, Variable> mib = new TreeMap<>();
+	private volatile int latency = 0;
+	private volatile int jitter = 0;
+	private volatile double loss = 0;
+	private volatile boolean down = false;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong responses = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	VirtualDevice(DeviceProfile profile, int index, int port) {
+		this.profile = profile;
+		this.index = index;
+		this.port = port;
+		mib.putAll(profile.createMib(getName()));
+	}
+
+	/**
+	 * @return the name of the device, which is also its agent instance id
+	 */
+	public String getName() {
+		return profile.getPrefix() + index;
+	}
+
+	public DeviceProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * @return the index of the device among the devices of its profile
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the UDP port the device listens on
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Sets an integer object of the MIB
+	 *
+	 * @param oid the object OID
+	 * @param value the new value
+	 */
+	public void set(OID oid, int value) {
+		synchronized (mib) {
+			mib.put(oid, new Integer32(value));
+		}
+	}
+
+	/**
+	 * @param oid the object OID
+	 * @return the value of the object, or null if there is none
+	 */
+	public Variable get(OID oid) {
+		synchronized (mib) {
+			return mib.get(oid);
+		}
+	}
+
+	/**
+	 * @param oid the object OID
+	 * @return the next object in the MIB, or null at the end of the MIB
+	 */
+	public Map.Entry<OID, Variable> next(OID oid) {
+		synchronized (mib) {
+			return mib.higherEntry(oid);
+		}
+	}
+
+	/**
+	 * Delays every response
+	 *
+	 * @param latency the delay in milliseconds
+	 * @param jitter a random extra delay of up to this many milliseconds
+	 */
+	public void setLatency(int latency, int jitter) {
+		this.latency = latency;
+		this.jitter = jitter;
+	}
+
+	public int getLatency() {
+		return latency;
+	}
+
+	public int getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * Drops a fraction of the requests
+	 *
+	 * @param loss the fraction of requests to drop, 0 to 1
+	 */
+	public void setLoss(double loss) {
+		this.loss = loss;
+	}
+
+	public double getLoss() {
+		return loss;
+	}
+
+	/**
+	 * Stops or resumes answering, as if the device lost power
+	 *
+	 * @param down true to drop every request
+	 */
+	public void setDown(boolean down) {
+		this.down = down;
+	}
+
+	public boolean isDown() {
+		return down;
+	}
+
+	/**
+	 * @return the number of requests received
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return the number of responses sent
+	 */
+	public long getResponses() {
+		return responses.get();
+	}
+
+	/**
+	 * @return the number of requests dropped by injected loss or while down
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	void received() {
+		requests.incrementAndGet();
+	}
+
+	void responded() {
+		responses.incrementAndGet();
+	}
+
+	void dropped() {
+		dropped.incrementAndGet();
+	}
+}
@@ -1,25 +1,30 @@
 package com.opsvision.monitoring;
 
+import java.io.IOException;
+
 import org.apache.log4j.Logger;
-import org.quartz.JobBuilder;
-import org.quartz.JobDetail;
-import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
-import org.quartz.SimpleScheduleBuilder;
-import org.quartz.Trigger;
-import org.quartz.TriggerBuilder;
-import org.quartz.impl.StdSchedulerFactory;
 
-import com.opsvision.monitoring.monitors.Monitor;
-import com.opsvision.monitoring.monitors.MonitorFactory;
-import com.opsvision.monitoring.monitors.MonitorType;
+import com.opsvision.monitoring.alarms.StateJournal;
+import com.opsvision.monitoring.metrics.MetricsExporter;
+import com.opsvision.monitoring.metrics.MetricsRegistry;
+import com.opsvision.monitoring.scheduler.MonitorReconciler;
+import com.opsvision.monitoring.scheduler.MonitorScheduler;
+import com.opsvision.monitoring.scheduler.QuartzMonitorScheduler;
+import com.opsvision.monitoring.scheduler.WheelMonitorScheduler;
+import com.opsvision.monitoring.utils.ConfigWatcher;
+import com.opsvision.monitoring.utils.PropertyHandler;
+import com.opsvision.monitoring.utils.SnmpSession;
+import com.opsvision.monitoring.utils.StreamReceiver;
+import com.opsvision.monitoring.utils.TrapDispatcher;
 
 public class MonitoringAgent {
 	
 	private final static String VERSION = "3.0"; 
 	
 	private static final Logger logger = Logger.getLogger(MonitoringAgent.class);
-	private static Scheduler scheduler = null;
+	private static MonitorScheduler scheduler = null;
+	private static MonitorReconciler reconciler = null;
 	private static boolean stopRequested = false;
 	private static boolean isRunning = false;
 
@@ -27,25 +32,40 @@ public class MonitoringAgent {
 		logger.debug("Monitoring Agent: " + VERSION);
 		
 		try {
-			// Get a handle for the Scheduler
-			scheduler = new StdSchedulerFactory().getScheduler();
+			// Bind the shared SNMP transports used by every monitor
+			SnmpSession.getInstance().start();
+
+			// Move trap I/O off the monitor threads
+			TrapDispatcher.getInstance().start();
+
+			// Watch UDP streams continuously instead of from the monitor jobs
+			StreamReceiver.getInstance().start();
+
+			// Restore the alarm states of the previous run before monitors register
+			StateJournal.getInstance().start();
+
+			// Report the agent's own metrics
+			MetricsRegistry.getInstance().start();
+
+			// Serve metrics, device values and alarm states over SNMP and HTTP
+			MetricsExporter.getInstance().start();
 
 			// Start the Scheduler
+			scheduler = createScheduler();
 			scheduler.start();
 			
-			// Add enabled jobs to the scheduler
-			for (MonitorType type : MonitorType.values()) {
-				Monitor m = MonitorFactory.getMonitor(type);
-				if (m.isEnabled()) {
-					logger.debug(type + " is enabled");
-					addJobTrigger(scheduler, m.getClass(), m.getRate());
-				}
-			}
+			// Schedule every enabled monitor instance
+			reconciler = new MonitorReconciler(scheduler);
+			logger.info("Scheduled " + reconciler.scheduleAll() + " monitor instance(s)");
+
+			// Apply edits of the config file without restarting
+			ConfigWatcher.getInstance().addListener(reconciler);
+			ConfigWatcher.getInstance().start();
 			
 			// Toggle the running flag
 			isRunning = true;
 			
-		} catch(SchedulerException e) {
+		} catch(SchedulerException | IOException e) {
 			logger.error(e.getMessage());
 		}
 	}
@@ -63,14 +83,20 @@ public class MonitoringAgent {
 		// Toggle the stop flag
 		stopRequested = true;
 
-		if (scheduler != null) {
-			try {
-				scheduler.shutdown(true);
+		// No reloads while the monitors wind down
+		ConfigWatcher.getInstance().stop();
 
-			} catch (SchedulerException ignore) {
-				logger.warn(ignore.getMessage());
-			}
+		if (scheduler != null) {
+			scheduler.shutdown(true);
 		}
+
+		// Flush queued traps, then release the shared SNMP transports
+		TrapDispatcher.getInstance().stop();
+		SnmpSession.getInstance().close();
+		StreamReceiver.getInstance().stop();
+		StateJournal.getInstance().stop();
+		MetricsExporter.getInstance().stop();
+		MetricsRegistry.getInstance().stop();
 	}
 
 	/**
@@ -108,35 +134,17 @@ public class MonitoringAgent {
 	}
 
 	/**
-	 * This method is used to create both a JobDetail and Trigger. The method
-	 * then adds the JobDetail and Trigger to the Scheduler. Note that we are
-	 * suppressing warnings for using raw types and checking so we need to be
-	 * careful about sending classes that do not implement the Job interface.
+	 * Selects the scheduler backend with monitor.main.scheduler: quartz
+	 * (the default) or wheel for the hashed timer wheel.
 	 * 
-	 * @param scheduler An instance of the Quartz Scheduler
-	 * @param jobClass A class implementing the Quartz Job interface
-	 * @param rate An integer value representing the seconds between job runs
+	 * @return the scheduler, not yet started
 	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private static void addJobTrigger(Scheduler scheduler, Class jobClass, Integer rate) {
-		// Create a job detail
-		JobDetail job = JobBuilder.newJob(jobClass)
-				.withIdentity(jobClass.getSimpleName(), "modeo").build();
-
-		// Create the trigger
-		Trigger trigger = TriggerBuilder
-				.newTrigger()
-				.withIdentity(jobClass.getSimpleName() + "Trigger", "modeo")
-				.withSchedule(
-						SimpleScheduleBuilder.simpleSchedule()
-								.withIntervalInSeconds(rate).repeatForever())
-				.build();
-
-		try {
-			scheduler.scheduleJob(job, trigger);
-
-		} catch (SchedulerException e) {
-			logger.error(e.getMessage());
+	private static MonitorScheduler createScheduler() {
+		String type = PropertyHandler.getInstance().getValue("monitor.main.scheduler", "quartz");
+		if ("wheel".equals(type)) {
+			logger.debug("Scheduling monitors on a timer wheel");
+			return new WheelMonitorScheduler();
 		}
+		return new QuartzMonitorScheduler();
 	}
 }
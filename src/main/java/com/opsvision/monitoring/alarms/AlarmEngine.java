@@ -0,0 +1,146 @@
+package com.opsvision.monitoring.alarms;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.snmp4j.smi.OID;
+
+/**
+ * Central record of the last reported state of every alarm, keyed by the
+ * monitor instance and the OID of the trap that reports it. Monitors ask
+ * the engine whether a newly polled value is worth a trap: a change of
+ * state always is (fault or clear), an unchanged fault only once its
+ * re-notify interval has passed, and an unchanged normal state never is.
+ * When the {@link StateJournal} is running, every change is journaled so
+ * the states survive a restart.
+ */
+public class AlarmEngine {
+	private static AlarmEngine _instance = null;
+	private final StateStore store = new StateStore();
+
+	/**
+	 * Singleton constructor
+	 */
+	private AlarmEngine() {
+	}
+
+	/**
+	 * Method to return an instance of the AlarmEngine
+	 *
+	 * @return an instance of the AlarmEngine
+	 */
+	public static synchronized AlarmEngine getInstance() {
+		if (_instance == null)
+			_instance = new AlarmEngine();
+		return _instance;
+	}
+
+	/**
+	 * Method for resolving the state slot of an alarm. An alarm that has
+	 * never been seen is assumed to have been normal. Monitors resolve their
+	 * slots once in init() and pass them to update() on every poll.
+	 *
+	 * @param source the name of the monitor instance
+	 * @param oid the OID identifying the alarm
+	 * @param normalValue the value meaning "no fault"
+	 * @return the slot of the alarm
+	 */
+	public int register(String source, OID oid, int normalValue) {
+		return register(source, oid.toString(), normalValue);
+	}
+
+	/**
+	 * Method for resolving the state slot of a named alarm, for monitors
+	 * whose alarms share a trap OID.
+	 *
+	 * @param source the name of the monitor instance
+	 * @param alarm the name of the alarm, unique within the instance
+	 * @param normalValue the value meaning "no fault"
+	 * @return the slot of the alarm
+	 */
+	public int register(String source, String alarm, int normalValue) {
+		String key = source + "/" + alarm;
+		int slot = store.register(key, normalValue);
+		StateJournal.getInstance().register(slot, key);
+		return slot;
+	}
+
+	/**
+	 * Records a polled value and decides whether it must be notified.
+	 *
+	 * @param slot the slot returned by register
+	 * @param value the current value
+	 * @param normalValue the value meaning "no fault"
+	 * @param renotify milliseconds after which an unchanged fault is notified
+	 *        again, 0 to notify only on changes
+	 * @return true if a trap should be sent for the value
+	 */
+	public boolean update(int slot, int value, int normalValue, long renotify) {
+		long now = System.currentTimeMillis();
+		if (!store.update(slot, value, normalValue, renotify, now)) {
+			return false;
+		}
+
+		// Only changes reach the journal; unchanged polls cost nothing
+		StateJournal.getInstance().append(slot, value, now);
+		return true;
+	}
+
+	/**
+	 * Records a polled value by name. This resolves the slot on every call;
+	 * monitors polling on a schedule should keep the slot from register.
+	 *
+	 * @param source the name of the monitor instance
+	 * @param oid the OID identifying the alarm
+	 * @param value the current value
+	 * @param normalValue the value meaning "no fault"
+	 * @param renotify milliseconds after which an unchanged fault is notified
+	 *        again, 0 to notify only on changes
+	 * @return true if a trap should be sent for the value
+	 */
+	public boolean update(String source, OID oid, int value, int normalValue, long renotify) {
+		return update(register(source, oid, normalValue), value, normalValue, renotify);
+	}
+
+	/**
+	 * Method for returning the last recorded value of an alarm
+	 *
+	 * @param source the name of the monitor instance
+	 * @param oid the OID identifying the alarm
+	 * @param defaultValue the value to return if the alarm has never been seen
+	 * @return the last recorded value
+	 */
+	public int getValue(String source, OID oid, int defaultValue) {
+		int slot = store.lookup(source + "/" + oid);
+		return (slot < 0) ? defaultValue : store.getValue(slot);
+	}
+
+	/**
+	 * Forgets every alarm of a monitor instance, also in the journal, so
+	 * they are not restored by the next start
+	 *
+	 * @param source the name of the monitor instance
+	 */
+	public void remove(String source) {
+		remove(source, Collections.<Integer>emptySet());
+	}
+
+	/**
+	 * Forgets the alarms of a monitor instance that a new instance of the
+	 * same name no longer registers, also in the journal
+	 *
+	 * @param source the name of the monitor instance
+	 * @param keep the slots the new instance registered
+	 */
+	public void remove(String source, Set<Integer> keep) {
+		store.release(source + "/", keep);
+		StateJournal.getInstance().release(source + "/", keep);
+	}
+
+	/**
+	 * @return the store holding the alarm states
+	 */
+	public StateStore getStore() {
+		return store;
+	}
+}
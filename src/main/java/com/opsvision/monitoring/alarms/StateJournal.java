@@ -0,0 +1,389 @@
+package com.opsvision.monitoring.alarms;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.opsvision.monitoring.utils.PropertyHandler;
+
+/**
+ * Crash-safe journal of the {@link StateStore}, so alarm states survive a
+ * restart of the agent. Every change of an alarm is appended to a
+ * memory-mapped log; the operating system writes the pages back, so even a
+ * killed process loses nothing that was appended.
+ *
+ * The journal alternates between two files, &lt;file&gt;.0 and &lt;file&gt;.1.
+ * When the active file is full (and on every start) the live state is
+ * compacted into the other file, whose header is written last; a crash
+ * during compaction leaves the previous file as the newest valid one.
+ *
+ * Each record starts with a type byte that is written after the rest of the
+ * record, so a record torn by a crash reads as the end of the log. A
+ * RELEASE record forgets the key of a slot, so the alarms of a monitor
+ * instance removed at runtime are not restored by the next start. A key
+ * longer than Short.MAX_VALUE bytes in UTF-8 is not journaled.
+ */
+public class StateJournal {
+	final static Logger logger = Logger.getLogger(StateJournal.class);
+	private static StateJournal _instance = null;
+	private static final int MAGIC = 0x4f505353;
+	private static final int VERSION = 2;
+	private static final int HEADER = 16;
+	private static final byte KEY = 1;
+	private static final byte VALUE = 2;
+	private static final byte RELEASE = 3;
+	private static final int VALUE_SIZE = 1 + 4 + 4 + 8;
+	private static final int RELEASE_SIZE = 1 + 4;
+	private static final byte[] ZEROS = new byte[8192];
+	// The key last journaled for each slot, so keys are written only once
+	private final List<String> keys = new ArrayList<>();
+	private StateStore store = null;
+	private File[] files = null;
+	private MappedByteBuffer buffer = null;
+	private int active = 0;
+	private long generation = 0;
+	private int size = 1 << 20;
+	private volatile boolean running = false;
+
+	/**
+	 * Singleton constructor
+	 */
+	private StateJournal() {
+	}
+
+	/**
+	 * Method to return an instance of the StateJournal
+	 *
+	 * @return an instance of the StateJournal
+	 */
+	public static synchronized StateJournal getInstance() {
+		if (_instance == null)
+			_instance = new StateJournal();
+		return _instance;
+	}
+
+	/**
+	 * Restores the alarm states saved by the previous run into the
+	 * AlarmEngine and starts journaling changes. Must be called before the
+	 * monitors register their alarms. Calling this method on a running
+	 * journal has no effect, and an empty monitor.main.state.file disables
+	 * the journal.
+	 *
+	 * @throws IOException if the journal files cannot be mapped
+	 */
+	public synchronized void start() throws IOException {
+		if (running) {
+			return;
+		}
+
+		PropertyHandler props = PropertyHandler.getInstance();
+		String path = props.getValue("monitor.main.state.file", "");
+		if (path.isEmpty()) {
+			logger.debug("State journal disabled");
+			return;
+		}
+		size = Math.max(4096, props.getInt("monitor.main.state.size", 1048576));
+
+		store = AlarmEngine.getInstance().getStore();
+		generation = 0;
+		buffer = null;
+		files = new File[] { new File(path + ".0"), new File(path + ".1") };
+
+		long start = System.currentTimeMillis();
+		int restored = load();
+
+		// Start from a compacted file so the log only grows from here
+		compact();
+		running = true;
+
+		logger.info("Restored " + restored + " alarm state(s) from " + path + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Flushes the journal to disk and stops journaling.
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+
+		running = false;
+		buffer.force();
+		buffer = null;
+		logger.debug("State journal closed");
+	}
+
+	/**
+	 * @return true if changes are being journaled
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Journals the key of a slot, unless it was already written.
+	 *
+	 * @param slot the slot of the state
+	 * @param key the unique name of the state
+	 */
+	public synchronized void register(int slot, String key) {
+		if (!running || key.equals(getKey(slot))) {
+			return;
+		}
+
+		byte[] bytes = encode(key);
+		if (bytes == null) {
+			logger.warn("Alarm key too long to journal: " + key.substring(0, 64) + "...");
+			return;
+		}
+		if (buffer.remaining() < 7 + bytes.length) {
+			tryCompact();
+			return;
+		}
+
+		int position = buffer.position();
+		buffer.position(position + 1);
+		buffer.putInt(slot);
+		buffer.putShort((short) bytes.length);
+		buffer.put(bytes);
+		buffer.put(position, KEY);
+		setKey(slot, key);
+	}
+
+	/**
+	 * Journals a change of a state.
+	 *
+	 * @param slot the slot of the state
+	 * @param value the new value
+	 * @param notified the time the value was last notified, in milliseconds
+	 */
+	public synchronized void append(int slot, int value, long notified) {
+		if (!running) {
+			return;
+		}
+
+		// A compaction writes the current state, which includes this change
+		if (buffer.remaining() < VALUE_SIZE) {
+			tryCompact();
+			return;
+		}
+
+		int position = buffer.position();
+		buffer.position(position + 1);
+		buffer.putInt(slot);
+		buffer.putInt(value);
+		buffer.putLong(notified);
+		buffer.put(position, VALUE);
+	}
+
+	/**
+	 * Journals the release of every slot whose key starts with a prefix,
+	 * except the given slots. Call it after the slots are released from
+	 * the store.
+	 *
+	 * @param prefix the key prefix, e.g. GatesAir.tx1/
+	 * @param keep the slots that were kept
+	 */
+	public synchronized void release(String prefix, Set<Integer> keep) {
+		if (!running) {
+			return;
+		}
+
+		for (int slot = 0; slot < keys.size(); slot++) {
+			String key = keys.get(slot);
+			if (key == null || !key.startsWith(prefix) || keep.contains(slot)) {
+				continue;
+			}
+
+			// A compaction writes only the live keys, which no longer include these
+			if (buffer.remaining() < RELEASE_SIZE) {
+				tryCompact();
+				return;
+			}
+
+			int position = buffer.position();
+			buffer.position(position + 1);
+			buffer.putInt(slot);
+			buffer.put(position, RELEASE);
+			keys.set(slot, null);
+		}
+	}
+
+	private void tryCompact() {
+		try {
+			compact();
+
+		} catch (IOException e) {
+			logger.error("Failed to compact the state journal: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes the live state into the inactive file and switches to it.
+	 */
+	private void compact() throws IOException {
+		int next = 1 - active;
+
+		List<String> live = store.getKeys();
+		int needed = HEADER;
+		List<byte[]> encoded = new ArrayList<>(live.size());
+		for (String key : live) {
+			byte[] bytes = encode(key);
+			encoded.add(bytes);
+			if (bytes != null) {
+				needed += 7 + bytes.length + VALUE_SIZE;
+			}
+		}
+
+		// Leave at least half of the file for appends
+		while (size < needed * 2) {
+			size *= 2;
+		}
+
+		MappedByteBuffer out = map(files[next], size);
+		while (out.hasRemaining()) {
+			out.put(ZEROS, 0, Math.min(ZEROS.length, out.remaining()));
+		}
+
+		keys.clear();
+		out.position(HEADER);
+		for (int i = 0; i < live.size(); i++) {
+			String key = live.get(i);
+			byte[] bytes = encoded.get(i);
+			int slot = store.lookup(key);
+			if (slot < 0 || bytes == null) {
+				continue;
+			}
+
+			out.put(KEY);
+			out.putInt(slot);
+			out.putShort((short) bytes.length);
+			out.put(bytes);
+			out.put(VALUE);
+			out.putInt(slot);
+			out.putInt(store.getValue(slot));
+			out.putLong(store.getNotified(slot));
+			setKey(slot, key);
+		}
+		out.force();
+
+		// The header makes the file valid, so it goes in last
+		generation++;
+		out.putLong(8, generation);
+		out.putInt(4, VERSION);
+		out.putInt(0, MAGIC);
+		out.force();
+
+		buffer = out;
+		active = next;
+		logger.debug("Compacted " + live.size() + " alarm state(s) into " + files[next]);
+	}
+
+	/**
+	 * Replays the newest valid journal file into the store.
+	 *
+	 * @return the number of states restored
+	 */
+	private int load() throws IOException {
+		ByteBuffer in = null;
+		for (int i = 0; i < files.length; i++) {
+			if (!files[i].isFile() || files[i].length() < HEADER) {
+				continue;
+			}
+
+			MappedByteBuffer candidate = map(files[i], (int) files[i].length());
+			// Version 1 files are the same without RELEASE records
+			int version = candidate.getInt(4);
+			if (candidate.getInt(0) == MAGIC && version >= 1 && version <= VERSION
+					&& candidate.getLong(8) > generation) {
+				in = candidate;
+				active = i;
+				generation = candidate.getLong(8);
+			}
+		}
+
+		if (in == null) {
+			return 0;
+		}
+
+		// Replay the log; the last record for a slot wins
+		Map<Integer, String> names = new HashMap<>();
+		Map<String, long[]> states = new HashMap<>();
+		in.position(HEADER);
+		while (in.remaining() >= 1) {
+			byte type = in.get();
+			if (type == KEY && in.remaining() >= 6) {
+				int slot = in.getInt();
+				int length = in.getShort();
+				if (length < 0 || in.remaining() < length) {
+					break;
+				}
+				byte[] bytes = new byte[length];
+				in.get(bytes);
+				names.put(slot, new String(bytes, StandardCharsets.UTF_8));
+
+			} else if (type == VALUE && in.remaining() >= VALUE_SIZE - 1) {
+				String key = names.get(in.getInt());
+				long[] state = new long[] { in.getInt(), in.getLong() };
+				if (key != null) {
+					states.put(key, state);
+				}
+
+			} else if (type == RELEASE && in.remaining() >= RELEASE_SIZE - 1) {
+				String key = names.remove(in.getInt());
+				if (key != null) {
+					states.remove(key);
+				}
+
+			} else {
+				break;
+			}
+		}
+
+		for (Map.Entry<String, long[]> entry : states.entrySet()) {
+			long[] state = entry.getValue();
+			int slot = store.register(entry.getKey(), (int) state[0]);
+			store.set(slot, (int) state[0], state[1]);
+		}
+
+		return states.size();
+	}
+
+	// The UTF-8 bytes of a key, or null if they do not fit a KEY record
+	private static byte[] encode(String key) {
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		return (bytes.length > Short.MAX_VALUE) ? null : bytes;
+	}
+
+	private String getKey(int slot) {
+		return (slot < keys.size()) ? keys.get(slot) : null;
+	}
+
+	private void setKey(int slot, String key) {
+		while (keys.size() <= slot) {
+			keys.add(null);
+		}
+		keys.set(slot, key);
+	}
+
+	private static MappedByteBuffer map(File file, int size) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			if (raf.length() < size) {
+				raf.setLength(size);
+			}
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+	}
+}
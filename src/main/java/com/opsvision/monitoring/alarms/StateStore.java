@@ -0,0 +1,226 @@
+package com.opsvision.monitoring.alarms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Compact store for per-target monitor state. Every alarm a monitor
+ * instance tracks is given an integer slot once, when the instance is
+ * initialized; after that the last value and notification time of the
+ * alarm live in primitive arrays indexed by the slot, so recording a poll
+ * neither allocates nor boxes.
+ *
+ * The arrays are split into fixed-size pages that are added as slots are
+ * handed out. Existing pages are never copied or moved, which keeps
+ * the polling path free of the store lock while it grows. The arrays cost
+ * 12 bytes per slot, so a million alarms fit in about 12 MB plus the key
+ * index.
+ */
+public class StateStore {
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	private static final int STRIPES = 64;
+
+	private final ConcurrentMap<String, Integer> slots = new ConcurrentHashMap<>();
+	private final Object[] locks = new Object[STRIPES];
+	private volatile int[][] values = new int[0][];
+	private volatile long[][] notified = new long[0][];
+	private int[] free = new int[16];
+	private int freeCount = 0;
+	private int size = 0;
+
+	public StateStore() {
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * Returns the slot of a key, allocating it with an initial value on
+	 * first use. Slots are meant to be resolved once and then kept by the
+	 * caller; this method is not intended for the polling path.
+	 *
+	 * @param key the unique name of the state, e.g. GatesAir.tx1/1.3.6...
+	 * @param initialValue the value of a newly allocated slot
+	 * @return the slot holding the state of the key
+	 */
+	public int register(String key, int initialValue) {
+		Integer slot = slots.get(key);
+		if (slot != null) {
+			return slot;
+		}
+
+		synchronized (this) {
+			slot = slots.get(key);
+			if (slot != null) {
+				return slot;
+			}
+
+			int index = (freeCount > 0) ? free[--freeCount] : size++;
+			if ((index >> PAGE_BITS) >= values.length) {
+				grow();
+			}
+
+			synchronized (lock(index)) {
+				values[index >> PAGE_BITS][index & PAGE_MASK] = initialValue;
+				notified[index >> PAGE_BITS][index & PAGE_MASK] = 0;
+			}
+
+			slots.put(key, index);
+			return index;
+		}
+	}
+
+	/**
+	 * Method for looking up the slot of a key without allocating one
+	 *
+	 * @param key the unique name of the state
+	 * @return the slot, or -1 if the key has never been registered
+	 */
+	public int lookup(String key) {
+		Integer slot = slots.get(key);
+		return (slot == null) ? -1 : slot;
+	}
+
+	/**
+	 * Releases every slot whose key starts with a prefix. Released slots
+	 * are reused by later registrations.
+	 *
+	 * @param prefix the key prefix, e.g. GatesAir.tx1/
+	 * @return the number of slots released
+	 */
+	public int release(String prefix) {
+		return release(prefix, Collections.<Integer>emptySet());
+	}
+
+	/**
+	 * Releases every slot whose key starts with a prefix, except the given
+	 * slots. Released slots are reused by later registrations.
+	 *
+	 * @param prefix the key prefix, e.g. GatesAir.tx1/
+	 * @param keep the slots to keep
+	 * @return the number of slots released
+	 */
+	public synchronized int release(String prefix, Set<Integer> keep) {
+		int count = 0;
+		for (String key : slots.keySet()) {
+			if (!key.startsWith(prefix) || keep.contains(slots.get(key))) {
+				continue;
+			}
+
+			int index = slots.remove(key);
+			if (freeCount == free.length) {
+				int[] larger = new int[free.length * 2];
+				System.arraycopy(free, 0, larger, 0, freeCount);
+				free = larger;
+			}
+			free[freeCount++] = index;
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Records a polled value and decides whether it must be notified: a
+	 * change of value always is, an unchanged fault only once the
+	 * re-notify interval has passed.
+	 *
+	 * @param slot the slot returned by register
+	 * @param value the current value
+	 * @param normalValue the value meaning "no fault"
+	 * @param renotify milliseconds after which an unchanged fault is notified
+	 *        again, 0 to notify only on changes
+	 * @param now the current time in milliseconds
+	 * @return true if the value should be notified
+	 */
+	public boolean update(int slot, int value, int normalValue, long renotify, long now) {
+		int[] valuePage = values[slot >> PAGE_BITS];
+		long[] notifiedPage = notified[slot >> PAGE_BITS];
+		int i = slot & PAGE_MASK;
+
+		synchronized (lock(slot)) {
+			boolean changed = (valuePage[i] != value);
+			valuePage[i] = value;
+
+			if (changed || (value != normalValue && renotify > 0 && now - notifiedPage[i] >= renotify)) {
+				notifiedPage[i] = now;
+				return true;
+			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * Method for overwriting the value of a slot, e.g. when restoring state
+	 *
+	 * @param slot the slot returned by register
+	 * @param value the value to store
+	 * @param notifiedAt the time the value was last notified, in milliseconds
+	 */
+	public void set(int slot, int value, long notifiedAt) {
+		synchronized (lock(slot)) {
+			values[slot >> PAGE_BITS][slot & PAGE_MASK] = value;
+			notified[slot >> PAGE_BITS][slot & PAGE_MASK] = notifiedAt;
+		}
+	}
+
+	/**
+	 * @param slot the slot returned by register
+	 * @return the last value recorded in the slot
+	 */
+	public int getValue(int slot) {
+		synchronized (lock(slot)) {
+			return values[slot >> PAGE_BITS][slot & PAGE_MASK];
+		}
+	}
+
+	/**
+	 * @param slot the slot returned by register
+	 * @return the time the slot was last notified, 0 if it never was
+	 */
+	public long getNotified(int slot) {
+		synchronized (lock(slot)) {
+			return notified[slot >> PAGE_BITS][slot & PAGE_MASK];
+		}
+	}
+
+	/**
+	 * @return the keys of every registered slot
+	 */
+	public List<String> getKeys() {
+		return new ArrayList<>(slots.keySet());
+	}
+
+	/**
+	 * @return the number of registered slots
+	 */
+	public int size() {
+		return slots.size();
+	}
+
+	private Object lock(int slot) {
+		return locks[slot & (STRIPES - 1)];
+	}
+
+	// Called with the store lock held; adds one page to every array
+	private void grow() {
+		int pages = values.length + 1;
+
+		int[][] newValues = new int[pages][];
+		long[][] newNotified = new long[pages][];
+		System.arraycopy(values, 0, newValues, 0, values.length);
+		System.arraycopy(notified, 0, newNotified, 0, notified.length);
+		newValues[pages - 1] = new int[PAGE_SIZE];
+		newNotified[pages - 1] = new long[PAGE_SIZE];
+
+		notified = newNotified;
+		values = newValues;
+	}
+}
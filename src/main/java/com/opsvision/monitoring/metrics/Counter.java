@@ -0,0 +1,42 @@
+package com.opsvision.monitoring.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free counter for hot paths. Increments are spread over a few
+ * cells chosen by thread, each on its own cache line, so threads counting
+ * the same event rarely contend; reads add the cells up.
+ */
+public class Counter {
+	private static final int STRIPES = 16;
+	// Longs per cache line; only every PAD-th element is used
+	private static final int PAD = 8;
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+	/**
+	 * Counts one event
+	 */
+	public void increment() {
+		add(1);
+	}
+
+	/**
+	 * Counts a number of events
+	 *
+	 * @param n the number of events
+	 */
+	public void add(long n) {
+		cells.getAndAdd((int) (Thread.currentThread().threadId() & (STRIPES - 1)) * PAD, n);
+	}
+
+	/**
+	 * @return the number of events counted since start
+	 */
+	public long get() {
+		long total = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			total += cells.get(i * PAD);
+		}
+		return total;
+	}
+}
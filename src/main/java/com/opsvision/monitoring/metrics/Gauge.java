@@ -0,0 +1,24 @@
+package com.opsvision.monitoring.metrics;
+
+/**
+ * The last value of something that goes up and down, such as a device
+ * reading. Setting it is a single volatile write; NaN means no value has
+ * been set yet.
+ */
+public class Gauge {
+	private volatile double value = Double.NaN;
+
+	/**
+	 * @param value the current value
+	 */
+	public void set(double value) {
+		this.value = value;
+	}
+
+	/**
+	 * @return the last value set, NaN if none was
+	 */
+	public double get() {
+		return value;
+	}
+}
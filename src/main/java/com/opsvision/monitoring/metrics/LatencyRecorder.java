@@ -0,0 +1,158 @@
+package com.opsvision.monitoring.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram in the style of HdrHistogram. Latencies are
+ * kept in microseconds in log-linear buckets: every power of two is split
+ * into 32 linear buckets, so any percentile is within about 3% of the true
+ * value, from 1 microsecond up to days, in a fixed 1184 counters. Recording
+ * is one atomic increment per bucket, count, sum and (rarely) max; nothing
+ * is allocated.
+ */
+public class LatencyRecorder {
+	private static final int SUB_BITS = 5;
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int MAX_EXPONENT = 40;
+	private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB;
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one latency
+	 *
+	 * @param nanos the latency in nanoseconds, as measured with System.nanoTime
+	 */
+	public void record(long nanos) {
+		long micros = Math.min(Math.max(0, nanos / 1000), MAX_VALUE);
+
+		buckets.incrementAndGet(index(micros));
+		count.incrementAndGet();
+		sum.addAndGet(micros);
+
+		long current;
+		while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+			// Lost a race with a larger or concurrent maximum; try again
+		}
+	}
+
+	/**
+	 * Records the time elapsed since a start time
+	 *
+	 * @param startNanos the start time from System.nanoTime
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * @return the number of latencies recorded since start
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Copies the histogram for reading. Recording continues while the copy
+	 * is taken, so its totals may be off by the few latencies in flight.
+	 *
+	 * @return the copy
+	 */
+	public Snapshot getSnapshot() {
+		long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = buckets.get(i);
+		}
+		return new Snapshot(copy, count.get(), sum.get(), max.get());
+	}
+
+	static int index(long micros) {
+		if (micros < SUB) {
+			return (int) micros;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+		return (shift + 1) * SUB + (int) ((micros >>> shift) - SUB);
+	}
+
+	// The largest value that falls into a bucket
+	static long highest(int index) {
+		if (index < SUB) {
+			return index;
+		}
+		int shift = index / SUB - 1;
+		return ((SUB + (long) (index % SUB) + 1) << shift) - 1;
+	}
+
+	/**
+	 * A point-in-time copy of a LatencyRecorder; all values in milliseconds.
+	 */
+	public static class Snapshot {
+		private final long[] buckets;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		Snapshot(long[] buckets, long count, long sum, long max) {
+			this.buckets = buckets;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/**
+		 * @return the number of latencies recorded
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the sum of every latency recorded
+		 */
+		public double getSum() {
+			return sum / 1000.0;
+		}
+
+		/**
+		 * @return the mean latency, 0 if none was recorded
+		 */
+		public double getMean() {
+			return (count == 0) ? 0 : sum / 1000.0 / count;
+		}
+
+		/**
+		 * @return the largest latency recorded
+		 */
+		public double getMax() {
+			return max / 1000.0;
+		}
+
+		/**
+		 * @param percentile the percentile, 0 to 100
+		 * @return the latency the given percentage of latencies did not exceed
+		 */
+		public double getPercentile(double percentile) {
+			long total = 0;
+			for (long n : buckets) {
+				total += n;
+			}
+			if (total == 0) {
+				return 0;
+			}
+
+			long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank) {
+					return Math.min(highest(i), max) / 1000.0;
+				}
+			}
+			return max / 1000.0;
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package com.opsvision.monitoring.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.snmp4j.CommandResponder;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.MessageException;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.mp.MessageProcessingModel;
+import org.snmp4j.mp.StatusInformation;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+import com.opsvision.monitoring.alarms.AlarmEngine;
+import com.opsvision.monitoring.utils.PropertyHandler;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the agent's metrics, device values and alarm states to managers:
+ * read-only over SNMP (v1 and v2c) under {@link MetricsSnapshot#ROOT} and
+ * in the Prometheus text format over HTTP at /metrics. Every
+ * monitor.main.export.refresh seconds one thread renders a new
+ * {@link MetricsSnapshot}; requests are answered from the latest one and
+ * never touch the metrics the polling threads update.
+ *
+ * Setting monitor.main.export.snmp.port or monitor.main.export.http.port
+ * to 0 disables that export.
+ */
+public class MetricsExporter implements Runnable, CommandResponder, HttpHandler {
+	final static Logger logger = Logger.getLogger(MetricsExporter.class);
+	private static MetricsExporter _instance = null;
+	// Room for the message header around the PDU
+	private static final int MESSAGE_OVERHEAD = 64;
+	private volatile MetricsSnapshot snapshot = null;
+	private volatile Thread thread = null;
+	private Snmp snmp = null;
+	private HttpServer http = null;
+	private String community = "public";
+	private long interval = 10000;
+
+	/**
+	 * Singleton constructor
+	 */
+	private MetricsExporter() {
+	}
+
+	/**
+	 * Method to return an instance of the MetricsExporter
+	 *
+	 * @return an instance of the MetricsExporter
+	 */
+	public static synchronized MetricsExporter getInstance() {
+		if (_instance == null)
+			_instance = new MetricsExporter();
+		return _instance;
+	}
+
+	/**
+	 * Renders the first snapshot and opens the enabled exports. An export
+	 * that cannot be bound is logged and left closed.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+
+		PropertyHandler props = PropertyHandler.getInstance();
+		String address = props.getValue("monitor.main.export.address", "127.0.0.1");
+		int snmpPort = props.getInt("monitor.main.export.snmp.port", 1161);
+		int httpPort = props.getInt("monitor.main.export.http.port", 9464);
+		community = props.getValue("monitor.main.export.snmp.community", "public");
+		interval = Math.max(1, props.getLong("monitor.main.export.refresh", 10)) * 1000;
+		if (snmpPort <= 0 && httpPort <= 0) {
+			return;
+		}
+
+		refresh();
+
+		if (snmpPort > 0) {
+			try {
+				snmp = new Snmp(new DefaultUdpTransportMapping(new UdpAddress(address + "/" + snmpPort)));
+				snmp.addCommandResponder(this);
+				snmp.listen();
+				logger.info("Exporting metrics over SNMP on " + address + "/" + snmpPort);
+
+			} catch (IOException e) {
+				logger.error("Failed to open the SNMP export on port " + snmpPort + ": " + e.getMessage());
+				snmp = null;
+			}
+		}
+
+		if (httpPort > 0) {
+			try {
+				http = HttpServer.create(new InetSocketAddress(address, httpPort), 0);
+				http.createContext("/metrics", this);
+				http.start();
+				logger.info("Exporting metrics over HTTP on " + address + ":" + httpPort + "/metrics");
+
+			} catch (IOException e) {
+				logger.error("Failed to open the HTTP export on port " + httpPort + ": " + e.getMessage());
+				http = null;
+			}
+		}
+
+		thread = new Thread(this, "MetricsExporter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Closes the exports
+	 */
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+
+		thread.interrupt();
+		thread = null;
+
+		if (snmp != null) {
+			try {
+				snmp.close();
+
+			} catch (IOException e) {
+				logger.warn(e.getMessage());
+			}
+			snmp = null;
+		}
+
+		if (http != null) {
+			http.stop(0);
+			http = null;
+		}
+	}
+
+	/**
+	 * @return the latest snapshot, null if the exports were never started
+	 */
+	public MetricsSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Renders a new snapshot now
+	 */
+	public void refresh() {
+		snapshot = MetricsSnapshot.capture(MetricsRegistry.getInstance(),
+				AlarmEngine.getInstance().getStore());
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Thread.sleep(interval);
+				try {
+					refresh();
+
+				} catch (RuntimeException e) {
+					logger.error("Failed to render the metrics snapshot", e);
+				}
+			}
+
+		} catch (InterruptedException e) {
+			// stopped
+		}
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			if (!"GET".equals(method) && !"HEAD".equals(method)) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+
+			MetricsSnapshot current = snapshot;
+			String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			boolean gzip = encoding != null && encoding.contains("gzip");
+			byte[] body = gzip ? current.getGzip() : current.getText();
+
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			if (gzip) {
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			}
+			if ("HEAD".equals(method)) {
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+
+		} finally {
+			exchange.close();
+		}
+	}
+
+	@Override
+	public void processPdu(CommandResponderEvent event) {
+		PDU request = event.getPDU();
+		if (request == null || !community.equals(new String(event.getSecurityName()))) {
+			return;
+		}
+		if (request.getType() != PDU.GET && request.getType() != PDU.GETNEXT
+				&& request.getType() != PDU.GETBULK && request.getType() != PDU.SET) {
+			return;
+		}
+		event.setProcessed(true);
+
+		PDU response = respond(snapshot, request,
+				event.getMessageProcessingModel() == MessageProcessingModel.MPv1,
+				event.getMaxSizeResponsePDU() - MESSAGE_OVERHEAD);
+		try {
+			event.getMessageDispatcher().returnResponsePdu(event.getMessageProcessingModel(),
+					event.getSecurityModel(), event.getSecurityName(), event.getSecurityLevel(),
+					response, event.getMaxSizeResponsePDU(), event.getStateReference(),
+					new StatusInformation());
+
+		} catch (MessageException e) {
+			logger.warn("Failed to answer " + event.getPeerAddress() + ": " + e.getMessage());
+		}
+	}
+
+	// Answers a read from the snapshot; the exports are read-only
+	private static PDU respond(MetricsSnapshot snapshot, PDU request, boolean v1, int maxSize) {
+		if (request.getType() == PDU.SET) {
+			return error(request, v1 ? PDU.noSuchName : PDU.notWritable, 1);
+		}
+
+		PDU response = (PDU) request.clone();
+		response.setType(PDU.RESPONSE);
+		response.clear();
+		response.setRequestID(request.getRequestID());
+
+		@SuppressWarnings("unchecked")
+		List<VariableBinding> vbs = request.getVariableBindings();
+
+		if (request.getType() == PDU.GETBULK) {
+			int nonRepeaters = Math.max(0, Math.min(request.getNonRepeaters(), vbs.size()));
+			OID[] current = new OID[vbs.size()];
+			for (int i = 0; i < vbs.size(); i++) {
+				current[i] = vbs.get(i).getOid();
+			}
+
+			// A bulk response is cut short, not failed, when it gets too big
+			for (int i = 0; i < nonRepeaters; i++) {
+				VariableBinding vb = next(snapshot, current[i]);
+				if (!fits(response, vb, maxSize)) {
+					return error(request, PDU.tooBig, 0);
+				}
+				response.add(vb);
+			}
+			for (int r = 0; r < request.getMaxRepetitions(); r++) {
+				boolean more = false;
+				for (int i = nonRepeaters; i < vbs.size(); i++) {
+					VariableBinding vb = next(snapshot, current[i]);
+					if (!fits(response, vb, maxSize)) {
+						return (response.size() == 0) ? error(request, PDU.tooBig, 0) : response;
+					}
+					response.add(vb);
+					current[i] = vb.getOid();
+					more |= !vb.getVariable().isException();
+				}
+				if (!more) {
+					break;
+				}
+			}
+			return response;
+		}
+
+		for (int i = 0; i < vbs.size(); i++) {
+			OID oid = vbs.get(i).getOid();
+			VariableBinding vb;
+			if (request.getType() == PDU.GET) {
+				Variable value = snapshot.get(oid);
+				vb = new VariableBinding(oid, (value == null) ? Null.noSuchObject : value);
+			} else {
+				vb = next(snapshot, oid);
+
+				// SNMPv1 managers walk past the objects they cannot decode (RFC 2576)
+				while (v1 && vb.getVariable() instanceof Counter64) {
+					vb = next(snapshot, vb.getOid());
+				}
+			}
+
+			// SNMPv1 cannot encode the exceptions or Counter64
+			if (v1 && (vb.getVariable().isException() || vb.getVariable() instanceof Counter64)) {
+				return error(request, PDU.noSuchName, i + 1);
+			}
+			if (!fits(response, vb, maxSize)) {
+				return error(request, PDU.tooBig, 0);
+			}
+			response.add(vb);
+		}
+		return response;
+	}
+
+	private static boolean fits(PDU response, VariableBinding vb, int maxSize) {
+		return response.getBERLength() + vb.getBERLength() <= maxSize;
+	}
+
+	private static VariableBinding next(MetricsSnapshot snapshot, OID oid) {
+		VariableBinding vb = snapshot.next(oid);
+		return (vb == null) ? new VariableBinding(oid, Null.endOfMibView) : vb;
+	}
+
+	private static PDU error(PDU request, int status, int index) {
+		PDU response = (PDU) request.clone();
+		response.setType(PDU.RESPONSE);
+		response.setErrorStatus(status);
+		response.setErrorIndex(index);
+		return response;
+	}
+}
@@ -0,0 +1,229 @@
+package com.opsvision.monitoring.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+import com.opsvision.monitoring.utils.PropertyHandler;
+
+/**
+ * The agent's own counters and latency recorders, and the device values
+ * published by monitors, by name. Callers look a metric up once and keep
+ * it; recording is lock-free. Every
+ * monitor.main.metrics.report seconds (0 disables it) the agent-wide
+ * metrics are logged; the per-instance monitor.* metrics are not, as there
+ * may be thousands.
+ *
+ * Names are dotted, e.g. snmp.request, trap.sent or monitor.tx1.execute.
+ * Device values are named like alarms, &lt;source&gt;/&lt;name&gt;, e.g.
+ * GatesAir.tx1/health.
+ */
+public class MetricsRegistry implements Runnable {
+	final static Logger logger = Logger.getLogger(MetricsRegistry.class);
+	private static MetricsRegistry _instance = null;
+	private static final String INSTANCE_PREFIX = "monitor.";
+	private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LatencyRecorder> recorders = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+	private volatile Thread thread = null;
+	private long interval = 0;
+
+	/**
+	 * Singleton constructor
+	 */
+	private MetricsRegistry() {
+	}
+
+	/**
+	 * Method to return an instance of the MetricsRegistry
+	 *
+	 * @return an instance of the MetricsRegistry
+	 */
+	public static synchronized MetricsRegistry getInstance() {
+		if (_instance == null)
+			_instance = new MetricsRegistry();
+		return _instance;
+	}
+
+	/**
+	 * Returns the counter of a name, creating it on first use
+	 *
+	 * @param name the metric name
+	 * @return the counter
+	 */
+	public Counter counter(String name) {
+		Counter counter = counters.get(name);
+		if (counter == null) {
+			Counter created = new Counter();
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Returns the latency recorder of a name, creating it on first use
+	 *
+	 * @param name the metric name
+	 * @return the recorder
+	 */
+	public LatencyRecorder recorder(String name) {
+		LatencyRecorder recorder = recorders.get(name);
+		if (recorder == null) {
+			LatencyRecorder created = new LatencyRecorder();
+			recorder = recorders.putIfAbsent(name, created);
+			if (recorder == null) {
+				recorder = created;
+			}
+		}
+		return recorder;
+	}
+
+	/**
+	 * Returns the device value of a source, creating it on first use
+	 *
+	 * @param source the name of the monitor instance
+	 * @param name the name of the value, unique within the source
+	 * @return the gauge holding the value
+	 */
+	public Gauge gauge(String source, String name) {
+		String key = source + "/" + name;
+		Gauge gauge = gauges.get(key);
+		if (gauge == null) {
+			Gauge created = new Gauge();
+			gauge = gauges.putIfAbsent(key, created);
+			if (gauge == null) {
+				gauge = created;
+			}
+		}
+		return gauge;
+	}
+
+	/**
+	 * Forgets every device value of a source
+	 *
+	 * @param source the name of the monitor instance
+	 */
+	public void removeGauges(String source) {
+		String prefix = source + "/";
+		for (String key : gauges.keySet()) {
+			if (key.startsWith(prefix)) {
+				gauges.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Forgets every metric of a monitor instance: its counters and
+	 * recorders (monitor.&lt;source&gt;.*) and its device values
+	 *
+	 * @param source the name of the monitor instance
+	 */
+	public void remove(String source) {
+		String prefix = INSTANCE_PREFIX + source + ".";
+		for (String key : counters.keySet()) {
+			if (key.startsWith(prefix)) {
+				counters.remove(key);
+			}
+		}
+		for (String key : recorders.keySet()) {
+			if (key.startsWith(prefix)) {
+				recorders.remove(key);
+			}
+		}
+		removeGauges(source);
+	}
+
+	/**
+	 * @return every counter, sorted by name
+	 */
+	public SortedMap<String, Counter> getCounters() {
+		return new TreeMap<>(counters);
+	}
+
+	/**
+	 * @return every latency recorder, sorted by name
+	 */
+	public SortedMap<String, LatencyRecorder> getRecorders() {
+		return new TreeMap<>(recorders);
+	}
+
+	/**
+	 * @return every device value, sorted by &lt;source&gt;/&lt;name&gt;
+	 */
+	public SortedMap<String, Gauge> getGauges() {
+		return new TreeMap<>(gauges);
+	}
+
+	/**
+	 * Starts logging the metrics periodically
+	 */
+	public synchronized void start() {
+		interval = PropertyHandler.getInstance().getLong("monitor.main.metrics.report", 300) * 1000;
+		if (thread != null || interval <= 0) {
+			return;
+		}
+
+		thread = new Thread(this, "MetricsRegistry");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops logging the metrics
+	 */
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+
+		thread.interrupt();
+		thread = null;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Thread.sleep(interval);
+				report();
+			}
+
+		} catch (InterruptedException e) {
+			// stopped
+		}
+	}
+
+	/**
+	 * Logs the agent-wide metrics; counters that never counted are left out
+	 */
+	public void report() {
+		if (!logger.isInfoEnabled()) {
+			return;
+		}
+
+		StringBuilder sb = new StringBuilder("Agent metrics:");
+		for (Map.Entry<String, Counter> entry : getCounters().entrySet()) {
+			long value = entry.getValue().get();
+			if (value != 0 && !entry.getKey().startsWith(INSTANCE_PREFIX)) {
+				sb.append("\n  ").append(entry.getKey()).append(' ').append(value);
+			}
+		}
+		for (Map.Entry<String, LatencyRecorder> entry : getRecorders().entrySet()) {
+			if (entry.getKey().startsWith(INSTANCE_PREFIX)) {
+				continue;
+			}
+			LatencyRecorder.Snapshot s = entry.getValue().getSnapshot();
+			sb.append(String.format("%n  %s count=%d mean=%.2fms p50=%.2fms p99=%.2fms max=%.2fms",
+					entry.getKey(), s.getCount(), s.getMean(), s.getPercentile(50),
+					s.getPercentile(99), s.getMax()));
+		}
+		logger.info(sb.toString());
+	}
+}
@@ -0,0 +1,279 @@
+package com.opsvision.monitoring.metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Gauge32;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+
+import com.opsvision.monitoring.alarms.StateStore;
+
+/**
+ * An immutable copy of everything the agent exports, rendered once for
+ * both the Prometheus text format and SNMP so that serving a request is
+ * only a lookup. The SNMP objects live under 1.3.6.1.4.1.44132.4.2:
+ *
+ * <pre>
+ * .1.1.0          snapshot time, seconds since the epoch (Gauge32)
+ * .2.1.c.i        counters: name(1), value(2, Counter64)
+ * .3.1.c.i        latencies: name(1), count(2, Counter64) and mean(3),
+ *                 p50(4), p90(5), p99(6), max(7) in microseconds (Gauge32)
+ * .4.1.c.i        device values: source(1), name(2), value(3, text),
+ *                 value(4, Integer32, rounded)
+ * .5.1.c.i        alarms: source(1), alarm(2), value(3, Integer32)
+ * </pre>
+ *
+ * Rows are numbered from 1 in name order. A metric or monitor added later
+ * moves the rows after it, so managers should read rows by name.
+ */
+public class MetricsSnapshot {
+	public static final OID ROOT = new OID("1.3.6.1.4.1.44132.4.2");
+	private static final String PREFIX = "opsvision_";
+	private static final String INSTANCE_PREFIX = "monitor.";
+	private static final double[] QUANTILES = { 50, 90, 99 };
+	private final long time;
+	private final OID[] oids;
+	private final Variable[] values;
+	private final byte[] text;
+	private final byte[] gzip;
+
+	private MetricsSnapshot(long time, OID[] oids, Variable[] values, byte[] text, byte[] gzip) {
+		this.time = time;
+		this.oids = oids;
+		this.values = values;
+		this.text = text;
+		this.gzip = gzip;
+	}
+
+	/**
+	 * Copies the current metrics, device values and alarm states
+	 *
+	 * @param registry the metrics and device values
+	 * @param alarms the alarm states
+	 * @return the snapshot
+	 */
+	public static MetricsSnapshot capture(MetricsRegistry registry, StateStore alarms) {
+		long now = System.currentTimeMillis();
+		TreeMap<OID, Variable> mib = new TreeMap<>();
+		TreeMap<String, StringBuilder> families = new TreeMap<>();
+
+		mib.put(oid(1, 1, 0), new Gauge32(now / 1000));
+		sample(families, "snapshot_timestamp_seconds", "gauge", null, format(now / 1000.0));
+
+		int row = 0;
+		for (Map.Entry<String, Counter> entry : registry.getCounters().entrySet()) {
+			long value = entry.getValue().get();
+			row++;
+			mib.put(oid(2, 1, 1, row), new OctetString(entry.getKey()));
+			mib.put(oid(2, 1, 2, row), new Counter64(value));
+
+			String[] name = split(entry.getKey());
+			sample(families, name[0] + "_total", "counter", name[1], Long.toString(value));
+		}
+
+		row = 0;
+		for (Map.Entry<String, LatencyRecorder> entry : registry.getRecorders().entrySet()) {
+			LatencyRecorder.Snapshot s = entry.getValue().getSnapshot();
+			row++;
+			mib.put(oid(3, 1, 1, row), new OctetString(entry.getKey()));
+			mib.put(oid(3, 1, 2, row), new Counter64(s.getCount()));
+			mib.put(oid(3, 1, 3, row), micros(s.getMean()));
+			for (int q = 0; q < QUANTILES.length; q++) {
+				mib.put(oid(3, 1, 4 + q, row), micros(s.getPercentile(QUANTILES[q])));
+			}
+			mib.put(oid(3, 1, 7, row), micros(s.getMax()));
+
+			String[] name = split(entry.getKey());
+			String family = name[0] + "_seconds";
+			String labels = (name[1] == null) ? "" : name[1] + ",";
+			for (double q : QUANTILES) {
+				sample(families, family, "summary", labels + "quantile=\"" + (q / 100) + "\"",
+						seconds(s.getPercentile(q)));
+			}
+			sample(families, family + "_sum", null, name[1], seconds(s.getSum()));
+			sample(families, family + "_count", null, name[1], Long.toString(s.getCount()));
+		}
+
+		// Values never polled yet have no row
+		row = 0;
+		for (Map.Entry<String, Gauge> entry : registry.getGauges().entrySet()) {
+			double value = entry.getValue().get();
+			if (Double.isNaN(value)) {
+				continue;
+			}
+			String[] key = entry.getKey().split("/", 2);
+			row++;
+			mib.put(oid(4, 1, 1, row), new OctetString(key[0]));
+			mib.put(oid(4, 1, 2, row), new OctetString(key[1]));
+			mib.put(oid(4, 1, 3, row), new OctetString(format(value)));
+			mib.put(oid(4, 1, 4, row), new Integer32((int) Math.max(Integer.MIN_VALUE,
+					Math.min(Integer.MAX_VALUE, Math.round(value)))));
+
+			sample(families, "device_value", "gauge", "source=\"" + escape(key[0])
+					+ "\",name=\"" + escape(key[1]) + "\"", format(value));
+		}
+
+		List<String> keys = alarms.getKeys();
+		String[] sorted = keys.toArray(new String[keys.size()]);
+		Arrays.sort(sorted);
+		row = 0;
+		for (String alarm : sorted) {
+			int slot = alarms.lookup(alarm);
+			if (slot < 0) {
+				continue;
+			}
+			int value = alarms.getValue(slot);
+			String[] key = alarm.split("/", 2);
+			row++;
+			mib.put(oid(5, 1, 1, row), new OctetString(key[0]));
+			mib.put(oid(5, 1, 2, row), new OctetString(key[1]));
+			mib.put(oid(5, 1, 3, row), new Integer32(value));
+
+			sample(families, "alarm_value", "gauge", "source=\"" + escape(key[0])
+					+ "\",alarm=\"" + escape(key[1]) + "\"", Integer.toString(value));
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (StringBuilder family : families.values()) {
+			sb.append(family);
+		}
+		byte[] text = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+		return new MetricsSnapshot(now, mib.keySet().toArray(new OID[mib.size()]),
+				mib.values().toArray(new Variable[mib.size()]), text, compress(text));
+	}
+
+	/**
+	 * @return the time the snapshot was taken, in milliseconds
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the snapshot in the Prometheus text format, UTF-8 encoded
+	 */
+	public byte[] getText() {
+		return text;
+	}
+
+	/**
+	 * @return getText() gzip compressed
+	 */
+	public byte[] getGzip() {
+		return gzip;
+	}
+
+	/**
+	 * @param oid the OID of an object
+	 * @return the value of the object, null if there is none
+	 */
+	public Variable get(OID oid) {
+		int i = Arrays.binarySearch(oids, oid);
+		return (i < 0) ? null : values[i];
+	}
+
+	/**
+	 * @param oid any OID
+	 * @return the first object after the OID, null if there is none
+	 */
+	public VariableBinding next(OID oid) {
+		int i = Arrays.binarySearch(oids, oid);
+		i = (i < 0) ? -i - 1 : i + 1;
+		return (i < oids.length) ? new VariableBinding(oids[i], values[i]) : null;
+	}
+
+	/**
+	 * @return the number of SNMP objects
+	 */
+	public int size() {
+		return oids.length;
+	}
+
+	private static OID oid(int... suffix) {
+		OID oid = new OID(ROOT);
+		oid.append(new OID(suffix));
+		return oid;
+	}
+
+	// Latencies are kept in whole microseconds
+	private static String seconds(double millis) {
+		return format(Math.round(millis * 1000) / 1e6);
+	}
+
+	private static Gauge32 micros(double millis) {
+		return new Gauge32(Math.max(0, Math.min(4294967295L, Math.round(millis * 1000))));
+	}
+
+	// Samples of one family must be contiguous and follow its TYPE line
+	private static void sample(Map<String, StringBuilder> families, String name, String type,
+			String labels, String value) {
+		String family = (type == null) ? name.substring(0, name.lastIndexOf('_')) : name;
+		StringBuilder sb = families.get(family);
+		if (sb == null) {
+			sb = new StringBuilder();
+			families.put(family, sb);
+		}
+		if (type != null && sb.length() == 0) {
+			sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+		}
+		sb.append(PREFIX).append(name);
+		if (labels != null && !labels.isEmpty()) {
+			sb.append('{').append(labels).append('}');
+		}
+		sb.append(' ').append(value).append('\n');
+	}
+
+	// monitor.<instance>.<metric> becomes monitor_<metric>{monitor="<instance>"}
+	private static String[] split(String name) {
+		int last = name.lastIndexOf('.');
+		if (name.startsWith(INSTANCE_PREFIX) && last > INSTANCE_PREFIX.length()) {
+			return new String[] { "monitor_" + sanitize(name.substring(last + 1)),
+					"monitor=\"" + escape(name.substring(INSTANCE_PREFIX.length(), last)) + "\"" };
+		}
+		return new String[] { sanitize(name), null };
+	}
+
+	private static String sanitize(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			sb.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ? c : '_');
+		}
+		return sb.toString();
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static String format(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return Double.toString(value);
+	}
+
+	private static byte[] compress(byte[] text) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(text.length / 4 + 64);
+		try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+			gz.write(text);
+
+		} catch (IOException e) {
+			// Cannot happen writing to memory
+			throw new IllegalStateException(e);
+		}
+		return out.toByteArray();
+	}
+}
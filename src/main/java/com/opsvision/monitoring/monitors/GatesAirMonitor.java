@@ -1,33 +1,46 @@
 package com.opsvision.monitoring.monitors;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.log4j.Logger;
 import org.quartz.DisallowConcurrentExecution;
-import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
-import org.quartz.PersistJobDataAfterExecution;
-import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.smi.Integer32;
 import org.snmp4j.smi.OID;
+import org.snmp4j.smi.Variable;
 import org.snmp4j.smi.VariableBinding;
 
-import com.opsvision.monitoring.utils.PropertyHandler;
-import com.opsvision.monitoring.utils.SnmpGet;
+import com.opsvision.monitoring.metrics.Gauge;
+import com.opsvision.monitoring.utils.SnmpBatchGet;
+import com.opsvision.monitoring.utils.SnmpGetTemplate;
+import com.opsvision.monitoring.utils.SnmpSession;
 import com.opsvision.monitoring.utils.SnmpTrap;
 
-@PersistJobDataAfterExecution
 @DisallowConcurrentExecution
 public class GatesAirMonitor extends Monitor {
 	private static final Logger logger = Logger.getLogger(GatesAirMonitor.class);
-	private static PropertyHandler props = PropertyHandler.getInstance();
-	private String healthStatusOID = "1.3.6.1.4.1.37504.3.2.1.3.4.1.2.1";
-	private String rfPowerOID = "1.3.6.1.4.1.37504.3.2.4.3.1.1.1.1";
+	private static final OID healthStatusOID = new OID("1.3.6.1.4.1.37504.3.2.1.3.4.1.2.1");
+	private static final OID rfPowerOID = new OID("1.3.6.1.4.1.37504.3.2.4.3.1.1.1.1");
+	private static final List<OID> oids = Arrays.asList(healthStatusOID, rfPowerOID);
+	private static final OID rfTrapOID = new OID("1.3.6.1.4.1.44132.4.1.7");
+	private static final OID healthTrapOID = new OID("1.3.6.1.4.1.44132.4.1.8");
 	private String host = "localhost";
 	private int port = 161;
 	private String snmpcomm = "public";
-
-	public GatesAirMonitor() {
-		super(MonitorType.GatesAir);
+	private int timeout = 3000;
+	private int retries = 3;
+	private SnmpGetTemplate request;
+	private int healthAlarm;
+	private int rfAlarm;
+	private Gauge healthValue;
+	private Gauge rfValue;
+
+	public GatesAirMonitor(String id) {
+		super(MonitorType.GatesAir, id);
 	}
 	
 	// Internal Enum for health status
@@ -36,18 +49,25 @@ public class GatesAirMonitor extends Monitor {
 		OPERATIVE(5), ALARM(6), WARNING(7), FACTORY(8),
 		UPGRADING(9), RF_DOWN(10), RF_OFF(11);
 
-		@SuppressWarnings("unused")
 		private int value;
 		HealthStatus(int value) {
 			this.value = value;
 		}
+
+		static HealthStatus fromValue(int value) {
+			for (HealthStatus status : values()) {
+				if (status.value == value) {
+					return status;
+				}
+			}
+			return null;
+		}
 	}
 	
 	// Internal Enum for power status
 	private enum PowerStatus {
 		UP(1), DOWN(2);
 
-		@SuppressWarnings("unused")
 		private int value;
 		PowerStatus(int value) {
 			this.value = value;
@@ -56,18 +76,30 @@ public class GatesAirMonitor extends Monitor {
 
 	@Override
 	public void init() {
-		rate = Integer.parseInt(props.getValue(
-				"monitor.gatesair.polling.rate", "60"));
+		rate = getProperty("polling.rate", 60);
 
-		enabled = Boolean.parseBoolean(props.getValue(
-				"monitor.gatesair.enabled", "false"));
+		enabled = getProperty("enabled", false);
 		
-		host = props.getValue("monitor.gatesair.host", "localhost");
+		host = getProperty("host", "localhost");
 		
-		port = Integer.parseInt(props.getValue(
-				"monitor.gatesair.port", "161"));
+		port = getProperty("port", 161);
 		
-		snmpcomm = props.getValue("monitor.gatesair.snmpcomm", "public");
+		snmpcomm = getProperty("snmpcomm", "public");
+
+		timeout = getProperty("snmp.timeout", getConfig().getInt("monitor.main.snmp.timeout", 3000));
+
+		retries = getProperty("snmp.retries", getConfig().getInt("monitor.main.snmp.retries", 3));
+
+		// Resolve the agent and pack the request once, not on every poll
+		if (enabled) {
+			request = new SnmpGetTemplate(SnmpSession.getInstance().getTarget(
+					host, Integer.toString(port), snmpcomm, SnmpConstants.version1, timeout, retries), oids);
+		}
+
+		healthAlarm = registerAlarm(healthTrapOID, HealthStatus.OPERATIVE.value);
+		rfAlarm = registerAlarm(rfTrapOID, PowerStatus.UP.value);
+		healthValue = registerValue("health");
+		rfValue = registerValue("rfpower");
 	}
 	
 	@Override
@@ -81,181 +113,96 @@ public class GatesAirMonitor extends Monitor {
 	}
 
 	public void execute(JobExecutionContext context) throws JobExecutionException {
+		// Fetch both values in a single round trip
+		Map<OID, Variable> values = SnmpBatchGet.doGet(request);
+		if (values == null) {
+			logger.error("Failed to get a response from the GatesAir system " + getName());
+			setStatus(PollStatus.UNREACHABLE);
+			return;
+		}
+
 		// Perform checks
-		checkHealthStatus(context);
-		checkRFPowerStatus(context);
+		Variable health = values.get(healthStatusOID);
+		Variable power = values.get(rfPowerOID);
+		boolean healthy = checkHealthStatus(health);
+		boolean powered = checkRFPowerStatus(power);
+
+		// A value missing from the response leaves the device state unknown
+		if (health == null || power == null) {
+			setStatus(PollStatus.UNREACHABLE);
+		} else {
+			setStatus(healthy && powered ? PollStatus.NORMAL : PollStatus.ABNORMAL);
+		}
 	}
 
 	/**
+	 * Evaluates the health status. A trap is only sent when the status
+	 * differs from the last one reported (or is due for re-notification).
 	 *
-	 * @param context the context for the Quartz job
+	 * @param statusValue the healthStatus value returned by the device
+	 * @return false if the transmitter reports a non-operative health status
+	 *         or the value is missing
 	 */
-	private void checkHealthStatus(JobExecutionContext context) {
+	private boolean checkHealthStatus(Variable statusValue) {
 		logger.debug("Performing GatesAir Health Status Check");
 
-		// Default to an operative(5) state
-		HealthStatus healthStatus = HealthStatus.OPERATIVE;
-
-		// Fetch the health status and make sure we get a value
-		ResponseEvent statusEvent = SnmpGet.doGet(host, Integer.toString(port), snmpcomm, healthStatusOID);
-		if (statusEvent == null) {
+		// Make sure we got a value for the health status
+		if (statusValue == null) {
 			logger.error("Failed to get a response from the GatesAir system for HS");
-			return;
-		}
-
-		// Retrieve the previous health status if known
-		JobDataMap jobDataMap = context.getJobDetail().getJobDataMap();
-		if (jobDataMap.containsKey("GatesAirHealthStatus")) {
-			try {
-				healthStatus = (HealthStatus)jobDataMap.get("GatesAirHealthStatus");
-
-			} catch (ClassCastException e) {
-				logger.error("Failed to cast the job data properly");
-			}
+			return false;
 		}
 
-		try {
-			int status = statusEvent.getResponse().get(0).getVariable().toInt();
-
-			// The following switch/class block will (order is important)...
-			//  (1) evaluate the current status
-			//  (2) take appropriate action
-			//  (3) capture the value for storage
-			switch (status) {
-				case 1: // Not Present
-					logger.warn("Health Status reports NOT PRESENT - sending warning notification");
-					sendHealthTrap(status);
-					healthStatus = HealthStatus.NOT_PRESENT;
-					break;
-
-				case 2: // Error
-					logger.warn("Health Status reports ERROR - sending warning notification");
-					sendHealthTrap(status);
-					healthStatus = HealthStatus.ERROR;
-					break;
-
-				case 3: // Initializing
-					logger.warn("Health Status reports INITIALIZING - sending warning notification");
-					sendHealthTrap(status);
-					healthStatus = HealthStatus.INITIALIZING;
-					break;
-
-				case 4:  // Idle
-					logger.warn("Health Status reports IDLE - sending warning notification");
-					sendHealthTrap(status);
-					healthStatus = HealthStatus.IDLE;
-					break;
-
-				case 5:  // Operative
-					// If the previous state (healthStatus) is not operative, then send a clear
-					if (healthStatus != HealthStatus.OPERATIVE) {
-						logger.warn("Health Status reports OPERATIVE - sending clear");
-						sendHealthTrap(status);
-					}
-					healthStatus = HealthStatus.OPERATIVE;
-					break;
-
-				case 6:  // Alarm
-					logger.warn("Health Status reports ALARM - sending notification");
-					sendHealthTrap(status);
-					healthStatus = HealthStatus.ALARM;
-					break;
-
-				case 7:  // Warning
-					logger.warn("Health Status reports WARNING - sending notification");
-					sendHealthTrap(status);
-					healthStatus = HealthStatus.WARNING;
-					break;
-
-				case 8: // Factory
-					logger.warn("Health Status reports FACTORY - sending warning notification");
-					sendHealthTrap(status);
-					healthStatus = HealthStatus.FACTORY;
-					break;
-
-				case 9: // Upgrading
-					logger.warn("Health Status reports UPGRADING - sending warning notification");
-					sendHealthTrap(status);
-					healthStatus = HealthStatus.UPGRADING;
-					break;
-
-				case 10: // rfDown
-					logger.warn("Health Status reports RF_DOWN - sending warning notification");
-					sendHealthTrap(status);
-					healthStatus = HealthStatus.RF_DOWN;
-					break;
-
-				case 11: // rfOff
-					logger.warn("Health Status reports RF_OFF - sending warning notification");
-					sendHealthTrap(status);
-					healthStatus = HealthStatus.RF_OFF;
-					break;
-
-				default:  // Unknown
-					logger.warn("Failed to properly determine health state: " + status);
-					sendHealthTrap(status);
-					healthStatus = HealthStatus.WARNING;
-					break;
+		int status = statusValue.toInt();
+		healthValue.set(status);
+		HealthStatus healthStatus = HealthStatus.fromValue(status);
+
+		if (shouldNotify(healthAlarm, status, HealthStatus.OPERATIVE.value)) {
+			if (healthStatus == HealthStatus.OPERATIVE) {
+				logger.warn("Health Status reports OPERATIVE - sending clear");
+			} else if (healthStatus == null) {
+				logger.warn("Failed to properly determine health state: " + status);
+			} else {
+				logger.warn("Health Status reports " + healthStatus + " - sending notification");
 			}
-
-		} catch (NullPointerException e) {
-			logger.error("Failed to get the Health Status value from the response");
-			return;
+			sendHealthTrap(status);
 		}
 
-		// Store the job data for persistence
-		context.getJobDetail().getJobDataMap().put("GatesAirHealthStatus", healthStatus);
 		logger.debug("GatesAir Health Status Check Completed");
+		return healthStatus == HealthStatus.OPERATIVE;
 	}
 
 	/**
+	 * Evaluates the RF power status. A trap is only sent when the power
+	 * state differs from the last one reported (or is due for re-notification).
 	 *
-	 * @param context the context for the Quartz job
+	 * @param statusValue the RF power value returned by the device
+	 * @return false if the RF power is down or the value is missing
 	 */
-	private void checkRFPowerStatus(JobExecutionContext context) {
+	private boolean checkRFPowerStatus(Variable statusValue) {
 		logger.debug("Performing GatesAir RF Power Status Check");
 
-		// Set the default power state
-		PowerStatus powerStatus = PowerStatus.UP;
-
-		ResponseEvent statusEvent = SnmpGet.doGet(host, Integer.toString(port), snmpcomm, rfPowerOID);
-		if (statusEvent == null) {
+		if (statusValue == null) {
 			logger.error("Failed to get a response from the GatesAir system for RF");
-			return;
-		}
-
-		JobDataMap jobDataMap = context.getJobDetail().getJobDataMap();
-		if (jobDataMap.containsKey("GatesAirRunningState")) {
-			powerStatus = (PowerStatus)jobDataMap.get("GatesAirRunningState");
+			return false;
 		}
 
-		try {
-			int status = statusEvent.getResponse().get(0).getVariable().toInt();
+		rfValue.set(statusValue.toInt());
 
-			switch(status) {
-				case 2: // Down
-					logger.warn("The GatesAir RF Power state appears to be off, sending notification");
-					sendRFTrap(status);
-					powerStatus = PowerStatus.DOWN;
-					break;
+		// Anything but down(2) counts as up(1)
+		PowerStatus powerStatus = (statusValue.toInt() == PowerStatus.DOWN.value)
+				? PowerStatus.DOWN : PowerStatus.UP;
 
-				default:
-					if (powerStatus != PowerStatus.UP) {
-						logger.info("The GatesAir RF Power state has returned to normal, sending clear notification");
-						sendRFTrap(1);
-					}
-					powerStatus = PowerStatus.UP;
-					break;
+		if (shouldNotify(rfAlarm, powerStatus.value, PowerStatus.UP.value)) {
+			if (powerStatus == PowerStatus.DOWN) {
+				logger.warn("The GatesAir RF Power state appears to be off, sending notification");
+			} else {
+				logger.info("The GatesAir RF Power state has returned to normal, sending clear notification");
 			}
-
-		} catch (NullPointerException e) {
-			logger.error("Failed to retrieve the RF power status");
-			return;
+			sendRFTrap(powerStatus.value);
 		}
 
-		// Store the job data for persistence
-		context.getJobDetail().getJobDataMap().put("GatesAirRunningState", powerStatus);
 		logger.debug("GatesAir RF Power Status Check Completed");
+		return powerStatus == PowerStatus.UP;
 	}
 
 	/**
@@ -265,8 +212,8 @@ public class GatesAirMonitor extends Monitor {
 	 */
 	private void sendRFTrap(int status) {
 		VariableBinding variableBinding = new VariableBinding(
-				new OID("1.3.6.1.4.1.44132.4.1.7"),new Integer32(status));
-		SnmpTrap.sendTrap(6, new VariableBinding[]{variableBinding});
+				rfTrapOID, new Integer32(status));
+		SnmpTrap.sendTrap(getName(), 6, new VariableBinding[]{variableBinding});
 	}
 
 	/**
@@ -276,8 +223,8 @@ public class GatesAirMonitor extends Monitor {
 	 */
 	private void sendHealthTrap(int status) {
 		VariableBinding variableBinding = new VariableBinding(
-				new OID("1.3.6.1.4.1.44132.4.1.8"),new Integer32(status));
-		SnmpTrap.sendTrap(7, new VariableBinding[]{variableBinding});
+				healthTrapOID, new Integer32(status));
+		SnmpTrap.sendTrap(getName(), 7, new VariableBinding[]{variableBinding});
 	}
 
 }
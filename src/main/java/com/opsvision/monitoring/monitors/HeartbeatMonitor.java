@@ -4,31 +4,29 @@ import org.apache.log4j.Logger;
 import org.quartz.DisallowConcurrentExecution;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
-import org.quartz.PersistJobDataAfterExecution;
 import org.snmp4j.smi.OID;
 import org.snmp4j.smi.OctetString;
 import org.snmp4j.smi.VariableBinding;
 
-import com.opsvision.monitoring.utils.PropertyHandler;
 import com.opsvision.monitoring.utils.SnmpTrap;
 
-@PersistJobDataAfterExecution
 @DisallowConcurrentExecution
 public class HeartbeatMonitor extends Monitor {
 	private static final Logger logger = Logger.getLogger(HeartbeatMonitor.class);
-	private static PropertyHandler props = PropertyHandler.getInstance();
+	private static final OID heartbeatTrapOID = new OID("1.3.6.1.4.1.44132.4.1.1");
+	// Every heartbeat is the same trap; the varbinds are never modified once sent
+	private static final VariableBinding[] varbinds = {
+			new VariableBinding(heartbeatTrapOID, new OctetString("Heartbeat")) };
 	
-	public HeartbeatMonitor() {
-		super(MonitorType.Heartbeat);
+	public HeartbeatMonitor(String id) {
+		super(MonitorType.Heartbeat, id);
 	}
 
 	@Override
 	public void init() {
-		rate = Integer.parseInt(props.getValue(
-				"monitor.heartbeat.polling.rate", "60"));
+		rate = getProperty("polling.rate", 60);
 		
-		enabled = Boolean.parseBoolean(props.getValue(
-				"monitor.heartbeat.enabled", "false"));
+		enabled = getProperty("enabled", false);
 	}
 	
 	@Override
@@ -44,9 +42,7 @@ public class HeartbeatMonitor extends Monitor {
 	public void execute(JobExecutionContext context) throws JobExecutionException {
 		logger.debug("Sending Heartbeat");
 		
-		VariableBinding variableBinding = new VariableBinding(
-				new OID("1.3.6.1.4.1.44132.4.1.1"), new OctetString("Heartbeat"));
-		SnmpTrap.sendTrap(1, new VariableBinding[]{variableBinding});
-
+		// Sent without a source so repeated heartbeats are never coalesced
+		SnmpTrap.sendTrap(1, varbinds);
 	}
 }
@@ -0,0 +1,256 @@
+package com.opsvision.monitoring.monitors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.VariableBinding;
+
+import com.opsvision.monitoring.metrics.Gauge;
+import com.opsvision.monitoring.utils.HtmlExtractor;
+import com.opsvision.monitoring.utils.SnmpTrap;
+import com.opsvision.monitoring.utils.WebSessionCache;
+
+/**
+ * Generic monitor for values scraped from device web pages. Every page
+ * listed in monitor.http.pages is fetched once per poll and any number of
+ * metrics are extracted from it by label; each metric is checked against
+ * its low/high thresholds and traps its state (normal(1), high(2) or
+ * low(3)) and value when the state changes. The pages, extraction rules
+ * and thresholds are compiled in init(), so a poll is the fetches plus a
+ * loop over primitive comparisons.
+ */
+@DisallowConcurrentExecution
+public class HttpMonitor extends Monitor {
+	private static final Logger logger = Logger.getLogger(HttpMonitor.class);
+	private String baseUrl = null;
+	private String loginUrl = null;
+	private Map<String, String> credentials = null;
+	private int timeout = 30000;
+	private Page[] pages = new Page[0];
+	private ThresholdPlan plan = null;
+	private String[] metricNames = new String[0];
+	private int[] alarms = new int[0];
+	private Gauge[] gauges = new Gauge[0];
+	private int[] traps = new int[0];
+	private OID[] stateOIDs = new OID[0];
+	private OID[] valueOIDs = new OID[0];
+
+	public HttpMonitor(String id) {
+		super(MonitorType.Http, id);
+	}
+
+	// A page and the metrics extracted from it
+	private static class Page {
+		String url;
+		HtmlExtractor extractor;
+		int[] metrics;
+		String[] values;
+	}
+
+	@Override
+	public void init() {
+		rate = getProperty("polling.rate", 60);
+
+		enabled = getProperty("enabled", false);
+
+		baseUrl = "http://" + getProperty("host", "localhost") + ":" + getProperty("port", "80");
+
+		timeout = getProperty("timeout", 30) * 1000;
+
+		// Log in only if a login page is configured
+		String login = getProperty("login.path", "");
+		if (!login.isEmpty()) {
+			loginUrl = baseUrl + login;
+			credentials = new HashMap<>();
+			credentials.put("username", getProperty("username", "admin"));
+			credentials.put("password", getProperty("password", "password"));
+			for (String field : getProperty("login.fields", "").split("&")) {
+				int eq = field.indexOf('=');
+				if (eq > 0) {
+					credentials.put(field.substring(0, eq), field.substring(eq + 1));
+				}
+			}
+		}
+
+		compile();
+	}
+
+	/**
+	 * Compiles the pages, metrics and thresholds from the properties:
+	 *
+	 * <pre>
+	 * pages=status
+	 * page.status.path=/status.html
+	 * page.status.metrics=rflevel
+	 * metric.rflevel.label=Forward RF Level
+	 * metric.rflevel.low / .high / .hysteresis
+	 * metric.rflevel.trap / .oid / .valueoid
+	 * </pre>
+	 */
+	private void compile() {
+		plan = new ThresholdPlan();
+		List<Page> pageList = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		List<int[]> slots = new ArrayList<>();
+		List<OID[]> oids = new ArrayList<>();
+
+		for (String pageName : split(getProperty("pages", ""))) {
+			String prefix = "page." + pageName + ".";
+			Map<String, String> rules = new LinkedHashMap<>();
+			List<String> metrics = split(getProperty(prefix + "metrics", ""));
+
+			Page page = new Page();
+			page.url = baseUrl + getProperty(prefix + "path", "/");
+			page.metrics = new int[metrics.size()];
+			page.values = new String[metrics.size()];
+
+			for (int i = 0; i < metrics.size(); i++) {
+				String name = metrics.get(i);
+				String metric = "metric." + name + ".";
+				rules.put(name, getProperty(metric + "label", name));
+
+				int index = plan.add(
+						getProperty(metric + "low", Double.NaN),
+						getProperty(metric + "high", Double.NaN),
+						getProperty(metric + "hysteresis", 0.0));
+				page.metrics[i] = index;
+
+				// Metrics share the trap OIDs by default, so alarms are keyed by name
+				int alarm = registerAlarm("metric." + name, ThresholdPlan.NORMAL);
+				if (enabled) {
+					plan.setState(index, getAlarmValue(alarm));
+				}
+
+				names.add(name);
+				slots.add(new int[] { alarm, getProperty(metric + "trap", 5) });
+				oids.add(new OID[] {
+						new OID(getProperty(metric + "oid", "1.3.6.1.4.1.44132.4.1.5")),
+						new OID(getProperty(metric + "valueoid", "1.3.6.1.4.1.44132.4.1.6")) });
+			}
+
+			page.extractor = new HtmlExtractor(rules);
+			pageList.add(page);
+		}
+
+		pages = pageList.toArray(new Page[pageList.size()]);
+		metricNames = names.toArray(new String[names.size()]);
+		alarms = new int[names.size()];
+		gauges = new Gauge[names.size()];
+		traps = new int[names.size()];
+		stateOIDs = new OID[names.size()];
+		valueOIDs = new OID[names.size()];
+		for (int i = 0; i < names.size(); i++) {
+			alarms[i] = slots.get(i)[0];
+			gauges[i] = registerValue("metric." + metricNames[i]);
+			traps[i] = slots.get(i)[1];
+			stateOIDs[i] = oids.get(i)[0];
+			valueOIDs[i] = oids.get(i)[1];
+		}
+
+		logger.debug(getName() + " compiled " + pages.length + " page(s) and "
+				+ metricNames.length + " metric(s)");
+	}
+
+	@Override
+	public int getRate() {
+		return rate;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void execute(JobExecutionContext context) throws JobExecutionException {
+		logger.debug("Starting HTTP metric checks for " + getName());
+		boolean normal = true;
+		boolean reachable = true;
+
+		// Every page is checked, even after one fails to load
+		for (Page page : pages) {
+			byte[] body;
+			try {
+				body = (credentials == null)
+						? WebSessionCache.getInstance().fetch(page.url, timeout)
+						: WebSessionCache.getInstance().fetch(page.url, loginUrl, credentials, timeout);
+
+			} catch (IOException e) {
+				logger.error("Failed to fetch " + page.url + ": " + e.getMessage());
+				body = null;
+			}
+
+			if (body == null) {
+				reachable = false;
+				continue;
+			}
+
+			page.extractor.extract(body, page.values);
+			for (int i = 0; i < page.metrics.length; i++) {
+				normal &= check(page.metrics[i], page.values[i]);
+			}
+		}
+
+		if (!reachable) {
+			setStatus(PollStatus.UNREACHABLE);
+		} else {
+			setStatus(normal ? PollStatus.NORMAL : PollStatus.ABNORMAL);
+		}
+		logger.debug("HTTP metric checks completed for " + getName());
+	}
+
+	/**
+	 * Evaluates one metric and traps its state when it changed.
+	 *
+	 * @param metric the index of the metric in the plan
+	 * @param text the extracted value, or null if it was not found
+	 * @return false if the metric is outside its thresholds
+	 */
+	private boolean check(int metric, String text) {
+		if (text == null) {
+			logger.error("Failed to extract " + metricNames[metric] + " for " + getName());
+			return plan.getState(metric) == ThresholdPlan.NORMAL;
+		}
+
+		double value;
+		try {
+			value = Double.parseDouble(text);
+
+		} catch (NumberFormatException e) {
+			logger.error("Value of " + metricNames[metric] + " is not a number: " + text);
+			return plan.getState(metric) == ThresholdPlan.NORMAL;
+		}
+
+		gauges[metric].set(value);
+		int state = plan.evaluate(metric, value);
+		if (shouldNotify(alarms[metric], state, ThresholdPlan.NORMAL)) {
+			logger.info(getName() + " " + metricNames[metric] + " is " + text
+					+ ", state " + state + ", sending trap");
+			SnmpTrap.sendTrap(getName(), traps[metric], new VariableBinding[] {
+					new VariableBinding(stateOIDs[metric], new Integer32(state)),
+					new VariableBinding(valueOIDs[metric], new OctetString(text)) });
+		}
+
+		return state == ThresholdPlan.NORMAL;
+	}
+
+	private static List<String> split(String list) {
+		List<String> items = new ArrayList<>();
+		for (String item : list.trim().split("\\s*,\\s*")) {
+			if (!item.isEmpty()) {
+				items.add(item);
+			}
+		}
+		return items;
+	}
+}
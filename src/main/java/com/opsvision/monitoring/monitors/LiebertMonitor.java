@@ -1,48 +1,74 @@
 package com.opsvision.monitoring.monitors;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.log4j.Logger;
 import org.quartz.DisallowConcurrentExecution;
-import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
-import org.quartz.PersistJobDataAfterExecution;
-import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.smi.Integer32;
 import org.snmp4j.smi.OID;
+import org.snmp4j.smi.Variable;
 import org.snmp4j.smi.VariableBinding;
 
-import com.opsvision.monitoring.utils.PropertyHandler;
-import com.opsvision.monitoring.utils.SnmpGet;
+import com.opsvision.monitoring.metrics.Gauge;
+import com.opsvision.monitoring.utils.SnmpBatchGet;
+import com.opsvision.monitoring.utils.SnmpGetTemplate;
+import com.opsvision.monitoring.utils.SnmpSession;
 import com.opsvision.monitoring.utils.SnmpTrap;
 
-@PersistJobDataAfterExecution
 @DisallowConcurrentExecution
 public class LiebertMonitor extends Monitor {
 	private static final Logger logger = Logger.getLogger(LiebertMonitor.class);
-	private static PropertyHandler props = PropertyHandler.getInstance();
-	private JobDataMap map = null;
+	private static final OID upsBatteryStatusOID = new OID("1.3.6.1.2.1.33.1.2.1.0");
+	private static final OID upsOutputSourceOID = new OID("1.3.6.1.2.1.33.1.4.1.0");
+	private static final List<OID> oids = Arrays.asList(upsBatteryStatusOID, upsOutputSourceOID);
+	private static final OID batteryTrapOID = new OID("1.3.6.1.4.1.44132.4.1.3");
+	private static final OID outputTrapOID = new OID("1.3.6.1.4.1.44132.4.1.4");
 	private String host = "localhost";
 	private int port = 3027;
 	private String snmpcomm = "LiebertEM";
-
-	public LiebertMonitor() {
-		super(MonitorType.Liebert);
+	private int timeout = 3000;
+	private int retries = 3;
+	private SnmpGetTemplate request;
+	private int batteryAlarm;
+	private int outputAlarm;
+	private Gauge batteryValue;
+	private Gauge outputValue;
+
+	public LiebertMonitor(String id) {
+		super(MonitorType.Liebert, id);
 	}
 
 	@Override
 	public void init() {
-		rate = Integer.parseInt(props.getValue(
-				"monitor.liebert.polling.rate", "60"));
+		rate = getProperty("polling.rate", 60);
 
-		enabled = Boolean.parseBoolean(props.getValue(
-				"monitor.liebert.enabled", "false"));
+		enabled = getProperty("enabled", false);
 		
-		host = props.getValue("monitor.liebert.host", "localhost");
+		host = getProperty("host", "localhost");
 		
-		port = Integer.parseInt(props.getValue(
-				"monitor.liebert.port", "3027"));
+		port = getProperty("port", 3027);
 		
-		snmpcomm = props.getValue("monitor.liebert.snmpcomm", "LiebertEM");
+		snmpcomm = getProperty("snmpcomm", "LiebertEM");
+
+		timeout = getProperty("snmp.timeout", getConfig().getInt("monitor.main.snmp.timeout", 3000));
+
+		retries = getProperty("snmp.retries", getConfig().getInt("monitor.main.snmp.retries", 3));
+
+		// Resolve the agent and pack the request once, not on every poll
+		if (enabled) {
+			request = new SnmpGetTemplate(SnmpSession.getInstance().getTarget(
+					host, Integer.toString(port), snmpcomm, SnmpConstants.version1, timeout, retries), oids);
+		}
+
+		batteryAlarm = registerAlarm(batteryTrapOID, 2);
+		outputAlarm = registerAlarm(outputTrapOID, 3);
+		batteryValue = registerValue("battery");
+		outputValue = registerValue("output");
 	}
 	
 	@Override
@@ -56,95 +82,88 @@ public class LiebertMonitor extends Monitor {
 	}
 
 	public void execute(JobExecutionContext context) throws JobExecutionException {
-		// Fetch the persistent job data
-		map = context.getJobDetail().getJobDataMap();
+		// Fetch every value we need in a single round trip
+		Map<OID, Variable> values = SnmpBatchGet.doGet(request);
+		if (values == null) {
+			logger.error("Failed to get a response from the Liebert UPS " + getName());
+			setStatus(PollStatus.UNREACHABLE);
+			return;
+		}
 
-		// Check the upsBatteryStatus and save the state
-		int batteryStatus = checkBatteryStatus(map);
-		context.getJobDetail().getJobDataMap().put("LiebertBatteryStatus", batteryStatus);
+		// Check the upsBatteryStatus and upsOutputSource
+		Variable battery = values.get(upsBatteryStatusOID);
+		Variable output = values.get(upsOutputSourceOID);
+		boolean batteryNormal = checkBatteryStatus(battery);
+		boolean outputNormal = checkOutputSource(output);
 
-		// Check the upsOutputSource
-		int outputSource = checkOutputSource(map);
-		context.getJobDetail().getJobDataMap().put("LiebertOutputSource", outputSource);
+		// Record the outcome so the polling rate can adapt; a value missing
+		// from the response leaves the UPS state unknown
+		if (battery == null || output == null) {
+			setStatus(PollStatus.UNREACHABLE);
+		} else {
+			setStatus(batteryNormal && outputNormal ? PollStatus.NORMAL : PollStatus.ABNORMAL);
+		}
 	}
 
 	/**
-	 * Method for performing an SNMP get for the battery status
+	 * Method for evaluating the battery status; normal(2) is the clear state
+	 *
+	 * @param upsBatteryStatus the upsBatteryStatus value returned by the device
+	 * @return false if the battery status is not normal or is missing
 	 */
-	private int checkBatteryStatus(JobDataMap map) {
+	private boolean checkBatteryStatus(Variable upsBatteryStatus) {
 		logger.debug("Performing Liebert UPS battery status check");
 
-		// Get the previous battery status value from the job details
-		int previousBatteryStatus = 2 ;  // start off normal
-		if (map.containsKey("LiebertBatteryStatus")) {
-			previousBatteryStatus = map.getIntValue("LiebertBatteryStatus");
-		}
-
-		ResponseEvent upsBatteryStatusEvent = SnmpGet.doGet(host, Integer.toString(port), snmpcomm, "1.3.6.1.2.1.33.1.2.1.0");
-		if (upsBatteryStatusEvent == null) {
+		if (upsBatteryStatus == null) {
 			logger.error("Failed to retrieve the Liebert UPS battery status");
-			return 1; // unknown
+			return false;
 		}
 
-		int batteryStatus = upsBatteryStatusEvent.getResponse().get(0).getVariable().toInt();
-		if (batteryStatus != 2) {
-			// Send the status value
-			logger.warn("Detected non-normal battery status, sending notification");
-			VariableBinding variableBinding = new VariableBinding(
-					new OID("1.3.6.1.4.1.44132.4.1.3"),new Integer32(batteryStatus));
-			SnmpTrap.sendTrap(3, new VariableBinding[]{variableBinding});
-
-		} else {
-			if (previousBatteryStatus != 2) {
-				// Clear Trap
+		int batteryStatus = upsBatteryStatus.toInt();
+		batteryValue.set(batteryStatus);
+		if (shouldNotify(batteryAlarm, batteryStatus, 2)) {
+			if (batteryStatus != 2) {
+				logger.warn("Detected non-normal battery status, sending notification");
+			} else {
 				logger.info("Battery status return to normal, sending clear notification");
-				VariableBinding variableBinding = new VariableBinding(
-						new OID("1.3.6.1.4.1.44132.4.1.3"),new Integer32(2));
-				SnmpTrap.sendTrap(3, new VariableBinding[]{variableBinding});
 			}
+			VariableBinding variableBinding = new VariableBinding(
+					batteryTrapOID, new Integer32(batteryStatus));
+			SnmpTrap.sendTrap(getName(), 3, new VariableBinding[]{variableBinding});
 		}
 
 		logger.debug("Liebert UPS battery status check completed");
-		return batteryStatus;
+		return batteryStatus == 2;
 	}
 
 	/**
-	 * Method for performing an SNMP get for the output source
+	 * Method for evaluating the output source; normal(3) is the clear state
+	 *
+	 * @param upsOutputSource the upsOutputSource value returned by the device
+	 * @return false if the output source is not normal or is missing
 	 */
-	private int checkOutputSource(JobDataMap map) {
+	private boolean checkOutputSource(Variable upsOutputSource) {
 		logger.debug("Performing Liebert UPS output source check");
 
-		// Get the previous output source value from the job details
-		int previousOutputSource = 3; // start off normal
-		if (map.containsKey("LiebertOutputSource")) {
-			previousOutputSource = map.getIntValue("LiebertOutputSource");
-		}
-
-		// upsOutputSource
-		ResponseEvent upsOutputSourceEvent = SnmpGet.doGet(host, Integer.toString(port), snmpcomm, "1.3.6.1.2.1.33.1.4.1.0");
-		if (upsOutputSourceEvent == null) {
+		if (upsOutputSource == null) {
 			logger.error("Failed to retrieve the Liebert UPS output status");
-			return 1; // other
+			return false;
 		}
 
-		int outputSource = upsOutputSourceEvent.getResponse().get(0).getVariable().toInt();
-		if (outputSource != 3) {
-			logger.warn("Detected non-normal output source, sending notification");
-			VariableBinding variableBinding = new VariableBinding(
-					new OID("1.3.6.1.4.1.44132.4.1.4"),new Integer32(outputSource));
-			SnmpTrap.sendTrap(4, new VariableBinding[]{variableBinding});
-
-		} else {
-			if (previousOutputSource != 3) {
-				// Clear
+		int outputSource = upsOutputSource.toInt();
+		outputValue.set(outputSource);
+		if (shouldNotify(outputAlarm, outputSource, 3)) {
+			if (outputSource != 3) {
+				logger.warn("Detected non-normal output source, sending notification");
+			} else {
 				logger.info("Output source return to normal, sending clear notification");
-				VariableBinding variableBinding = new VariableBinding(
-						new OID("1.3.6.1.4.1.44132.4.1.4"), new Integer32(3));
-				SnmpTrap.sendTrap(4, new VariableBinding[]{variableBinding});
 			}
+			VariableBinding variableBinding = new VariableBinding(
+					outputTrapOID, new Integer32(outputSource));
+			SnmpTrap.sendTrap(getName(), 4, new VariableBinding[]{variableBinding});
 		}
 
 		logger.debug("Liebert UPS output source check completed");
-		return outputSource;
+		return outputSource == 3;
 	}
 }
@@ -1,21 +1,57 @@
 package com.opsvision.monitoring.monitors;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 import org.quartz.Job;
+import org.snmp4j.smi.OID;
+
+import com.opsvision.monitoring.alarms.AlarmEngine;
+import com.opsvision.monitoring.metrics.Gauge;
+import com.opsvision.monitoring.metrics.MetricsRegistry;
+import com.opsvision.monitoring.utils.ConfigSnapshot;
+import com.opsvision.monitoring.utils.PropertyHandler;
 
 public abstract class Monitor implements Job {
+	private final ConfigSnapshot config = PropertyHandler.getInstance().getSnapshot();
 	private MonitorType monitor = null;
+	private String id = null;
 	protected int rate = 60;
 	protected boolean enabled = false;
+	private volatile PollStatus status = PollStatus.NORMAL;
+	private volatile int failures = 0;
+	// Read on first use; not in the constructor, before the subclass is built
+	private long renotify = -1;
+	private final Set<Integer> alarms = new HashSet<>();
+	// The slot handed to a disabled instance, which never polls
+	private static final int NO_ALARM = -1;
 	
-	public Monitor(MonitorType monitor) {
+	/**
+	 * Creates a monitor instance. The instance id selects the per-device
+	 * properties (monitor.&lt;type&gt;.&lt;id&gt;.*); a null id is the single
+	 * legacy instance configured directly under monitor.&lt;type&gt;.*
+	 * 
+	 * @param monitor the type of monitor
+	 * @param id the instance id, or null for the default instance
+	 */
+	public Monitor(MonitorType monitor, String id) {
 		this.monitor = monitor;
-		init();
+		this.id = id;
 	}
 	
 	public abstract void init();
 	public abstract int getRate();
 	public abstract boolean isEnabled();
 	
+	/**
+	 * Releases what init() acquired outside the instance, such as watched
+	 * streams. Called once the instance has been unscheduled for good,
+	 * when it is removed or replaced on a config reload.
+	 */
+	public void close() {
+	}
+	
 	public MonitorType getMonitor() {
 		return monitor;
 	}
@@ -23,4 +59,192 @@ public abstract class Monitor implements Job {
 	public void setMonitor(MonitorType monitor) {
 		this.monitor = monitor;
 	}
+	
+	/**
+	 * @return the outcome of the most recent poll
+	 */
+	public PollStatus getStatus() {
+		return status;
+	}
+	
+	/**
+	 * @return the number of consecutive polls that found the device unreachable
+	 */
+	public int getFailures() {
+		return failures;
+	}
+	
+	/**
+	 * Method for recording the outcome of a poll; monitors call this once
+	 * at the end of every execution.
+	 * 
+	 * @param status the outcome of the poll
+	 */
+	protected void setStatus(PollStatus status) {
+		this.status = status;
+		failures = (status == PollStatus.UNREACHABLE) ? failures + 1 : 0;
+	}
+	
+	/**
+	 * Method for registering an alarm of this instance with the AlarmEngine.
+	 * Monitors call this from init(), once enabled is set, and keep the
+	 * returned slot. A disabled instance registers nothing, so it holds no
+	 * alarm state.
+	 * 
+	 * @param oid the trap OID identifying the alarm
+	 * @param normalValue the value meaning "no fault"
+	 * @return the slot to pass to shouldNotify, -1 if the instance is disabled
+	 */
+	protected int registerAlarm(OID oid, int normalValue) {
+		if (!isEnabled()) {
+			return NO_ALARM;
+		}
+
+		int slot = AlarmEngine.getInstance().register(getName(), oid, normalValue);
+		alarms.add(slot);
+		return slot;
+	}
+	
+	/**
+	 * Method for registering a named alarm of this instance, for alarms that
+	 * do not have a trap OID of their own.
+	 * 
+	 * @param alarm the name of the alarm, unique within the instance
+	 * @param normalValue the value meaning "no fault"
+	 * @return the slot to pass to shouldNotify, -1 if the instance is disabled
+	 */
+	protected int registerAlarm(String alarm, int normalValue) {
+		if (!isEnabled()) {
+			return NO_ALARM;
+		}
+
+		int slot = AlarmEngine.getInstance().register(getName(), alarm, normalValue);
+		alarms.add(slot);
+		return slot;
+	}
+	
+	/**
+	 * @return the slots of every alarm this instance registered
+	 */
+	public Set<Integer> getAlarms() {
+		return Collections.unmodifiableSet(alarms);
+	}
+	
+	/**
+	 * Method for registering a device value of this instance, so it can be
+	 * read through the agent's SNMP and HTTP exports. Monitors call this
+	 * from init() and set the returned gauge on every poll.
+	 * 
+	 * @param name the name of the value, unique within the instance
+	 * @return the gauge to set
+	 */
+	protected Gauge registerValue(String name) {
+		return MetricsRegistry.getInstance().gauge(getName(), name);
+	}
+	
+	/**
+	 * @param alarm the slot returned by registerAlarm
+	 * @return the last value recorded for the alarm, possibly by a previous run
+	 */
+	protected int getAlarmValue(int alarm) {
+		return AlarmEngine.getInstance().getStore().getValue(alarm);
+	}
+	
+	/**
+	 * Method for recording an alarm value with the AlarmEngine. A trap is due
+	 * when the value differs from the last one recorded for this instance,
+	 * or when a fault persists past monitor.&lt;type&gt;.alarm.renotify seconds.
+	 * 
+	 * @param alarm the slot returned by registerAlarm
+	 * @param value the current value
+	 * @param normalValue the value meaning "no fault"
+	 * @return true if a trap should be sent for the value
+	 */
+	protected boolean shouldNotify(int alarm, int value, int normalValue) {
+		if (renotify < 0) {
+			renotify = Math.max(0, getProperty("alarm.renotify",
+					config.getLong("monitor.main.alarm.renotify", 0)) * 1000L);
+		}
+		return AlarmEngine.getInstance().update(alarm, value, normalValue, renotify);
+	}
+	
+	public String getId() {
+		return id;
+	}
+	
+	/**
+	 * @return a name unique to this monitor instance, e.g. GatesAir.tx1
+	 */
+	public String getName() {
+		return getName(monitor, id);
+	}
+	
+	/**
+	 * @param monitor the type of monitor
+	 * @param id the instance id, or null for the default instance
+	 * @return the name of the monitor instance
+	 */
+	public static String getName(MonitorType monitor, String id) {
+		return (id == null) ? monitor.toString() : monitor + "." + id;
+	}
+	
+	/**
+	 * @return the configuration this instance was created from; init() and
+	 *         every property lookup of the instance read this one snapshot
+	 */
+	protected ConfigSnapshot getConfig() {
+		return config;
+	}
+	
+	/**
+	 * Method for returning an instance property. The instance specific key
+	 * monitor.&lt;type&gt;.&lt;id&gt;.&lt;key&gt; wins over the type wide key
+	 * monitor.&lt;type&gt;.&lt;key&gt;, so shared settings only need to be given once.
+	 * 
+	 * @param key the property key relative to the monitor type
+	 * @param defaultValue the value to use if neither key is found
+	 * @return the Property value
+	 */
+	protected String getProperty(String key, String defaultValue) {
+		return config.getString(resolve(key), defaultValue);
+	}
+	
+	/**
+	 * @see #getProperty(String, String)
+	 */
+	protected int getProperty(String key, int defaultValue) {
+		return config.getInt(resolve(key), defaultValue);
+	}
+	
+	/**
+	 * @see #getProperty(String, String)
+	 */
+	protected long getProperty(String key, long defaultValue) {
+		return config.getLong(resolve(key), defaultValue);
+	}
+	
+	/**
+	 * @see #getProperty(String, String)
+	 */
+	protected double getProperty(String key, double defaultValue) {
+		return config.getDouble(resolve(key), defaultValue);
+	}
+	
+	/**
+	 * @see #getProperty(String, String)
+	 */
+	protected boolean getProperty(String key, boolean defaultValue) {
+		return config.getBoolean(resolve(key), defaultValue);
+	}
+	
+	// The full key of an instance property: the instance key if it is set
+	private String resolve(String key) {
+		String typeKey = "monitor." + monitor.getPrefix() + "." + key;
+		if (id == null) {
+			return typeKey;
+		}
+		
+		String instanceKey = "monitor." + monitor.getPrefix() + "." + id + "." + key;
+		return config.contains(instanceKey) ? instanceKey : typeKey;
+	}
 }
@@ -1,31 +1,89 @@
 package com.opsvision.monitoring.monitors;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import com.opsvision.monitoring.utils.PropertyHandler;
+
 public class MonitorFactory {
 	public static Monitor getMonitor(MonitorType type) {
+		return getMonitor(type, null);
+	}
+	
+	public static Monitor getMonitor(MonitorType type, String id) {
 		Monitor monitor = null;
 		
 		switch(type) {
 		case Heartbeat:
-			monitor = new HeartbeatMonitor();
+			monitor = new HeartbeatMonitor(id);
 			break;
 			
 		case GatesAir:
-			monitor = new GatesAirMonitor();
+			monitor = new GatesAirMonitor(id);
 			break;
 			
 		case Liebert:
-			monitor = new LiebertMonitor();
+			monitor = new LiebertMonitor(id);
 			break;
 			
 		case StreamValve:
-			monitor = new StreamValveMonitor();
+			monitor = new StreamValveMonitor(id);
 			break;
 			
 		case Web:
-			monitor = new WebMonitor();
+			monitor = new WebMonitor(id);
+			break;
+			
+		case Http:
+			monitor = new HttpMonitor(id);
 			break;
 		}
 		
+		monitor.init();
 		return monitor;
 	}
+	
+	/**
+	 * Method for creating every configured instance of a monitor type. The
+	 * instances are listed in monitor.&lt;type&gt;.instances (comma separated);
+	 * without that key the single legacy instance is returned.
+	 * 
+	 * @param type the type of monitor
+	 * @return one initialized monitor per configured instance
+	 */
+	public static List<Monitor> getMonitors(MonitorType type) {
+		List<Monitor> monitors = new ArrayList<>();
+		
+		String instances = PropertyHandler.getInstance().getValue(
+				"monitor." + type.getPrefix() + ".instances");
+		
+		for (String id : getInstanceIds(instances)) {
+			monitors.add(getMonitor(type, id));
+		}
+		
+		return monitors;
+	}
+	
+	/**
+	 * Method for parsing the instance ids of a monitor type
+	 * 
+	 * @param instances the value of monitor.&lt;type&gt;.instances, or null
+	 * @return the ids; a single null id for the legacy instance
+	 */
+	public static List<String> getInstanceIds(String instances) {
+		List<String> ids = new ArrayList<>();
+		
+		if (instances == null || instances.trim().isEmpty()) {
+			ids.add(null);
+			return ids;
+		}
+		
+		for (String id : instances.trim().split("\\s*,\\s*")) {
+			if (!id.isEmpty()) {
+				ids.add(id);
+			}
+		}
+		
+		return ids;
+	}
 }
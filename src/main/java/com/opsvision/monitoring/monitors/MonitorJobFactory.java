@@ -0,0 +1,61 @@
+package com.opsvision.monitoring.monitors;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.quartz.Job;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.spi.JobFactory;
+import org.quartz.spi.TriggerFiredBundle;
+
+/**
+ * Quartz JobFactory handing out the long-lived monitor instances. Quartz
+ * would otherwise construct (and re-initialize from the properties) a new
+ * monitor object on every firing; here each device is built once at
+ * startup and keeps its own state for the life of the agent.
+ */
+public class MonitorJobFactory implements JobFactory {
+	private final ConcurrentMap<JobKey, Monitor> monitors = new ConcurrentHashMap<>();
+
+	/**
+	 * Registers the monitor instance to run for a job
+	 *
+	 * @param key the key of the JobDetail scheduled for the monitor
+	 * @param monitor the monitor instance
+	 */
+	public void register(JobKey key, Monitor monitor) {
+		monitors.put(key, monitor);
+	}
+
+	/**
+	 * Removes the monitor instance for a job
+	 *
+	 * @param key the key of the JobDetail scheduled for the monitor
+	 * @return the removed monitor, or null if none was registered
+	 */
+	public Monitor unregister(JobKey key) {
+		return monitors.remove(key);
+	}
+
+	/**
+	 * @param key the key of the JobDetail scheduled for the monitor
+	 * @return the monitor instance registered for the job, or null if none
+	 */
+	public Monitor get(JobKey key) {
+		return monitors.get(key);
+	}
+
+	@Override
+	public Job newJob(TriggerFiredBundle bundle, Scheduler scheduler) throws SchedulerException {
+		JobKey key = bundle.getJobDetail().getKey();
+
+		Monitor monitor = monitors.get(key);
+		if (monitor == null) {
+			throw new SchedulerException("No monitor registered for job " + key);
+		}
+
+		return monitor;
+	}
+}
@@ -1,5 +1,18 @@
 package com.opsvision.monitoring.monitors;
 
 public enum MonitorType {
-	Heartbeat, GatesAir, Liebert, Web, StreamValve
+	Heartbeat("heartbeat"), GatesAir("gatesair"), Liebert("liebert"),
+	Web("web.om"), StreamValve("streamvalve"), Http("http");
+	
+	private String prefix;
+	MonitorType(String prefix) {
+		this.prefix = prefix;
+	}
+	
+	/**
+	 * @return the property prefix following "monitor." for this type
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
 }
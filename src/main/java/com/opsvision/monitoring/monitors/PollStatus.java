@@ -0,0 +1,13 @@
+package com.opsvision.monitoring.monitors;
+
+/**
+ * The outcome of a monitor's most recent poll
+ */
+public enum PollStatus {
+	// The device answered and everything is nominal
+	NORMAL,
+	// The device answered but reports a fault
+	ABNORMAL,
+	// The device could not be reached or did not answer
+	UNREACHABLE
+}
@@ -1,51 +1,138 @@
 package com.opsvision.monitoring.monitors;
 
-import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.quartz.DisallowConcurrentExecution;
-import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
-import org.quartz.PersistJobDataAfterExecution;
 import org.snmp4j.smi.Integer32;
 import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
 import org.snmp4j.smi.VariableBinding;
 
-import com.opsvision.monitoring.utils.PropertyHandler;
+import com.opsvision.monitoring.metrics.Gauge;
 import com.opsvision.monitoring.utils.SnmpTrap;
+import com.opsvision.monitoring.utils.StreamReceiver;
+import com.opsvision.monitoring.utils.StreamStats;
+import com.opsvision.monitoring.utils.TsAnalyzer;
 
-@PersistJobDataAfterExecution
+/**
+ * Checks that UDP video streams are arriving. The streams are watched
+ * continuously by the {@link StreamReceiver}; a poll only reads their
+ * counters and reports a stream that has been silent for longer than
+ * monitor.streamvalve.timeout milliseconds. monitor.streamvalve.streams
+ * lists the streams as [address:]port (multicast groups included); without
+ * it the single unicast stream on monitor.streamvalve.port is watched.
+ *
+ * With monitor.streamvalve.analyze=true the streams are also analyzed as
+ * MPEG transport streams, and continuity errors per poll, PCR jitter and
+ * bitrate are checked against their thresholds. Each crossing sends
+ * specific trap 8 with the stream name, the metric (cc(1), pcrJitter(2),
+ * bitrate(3)), its state (normal(1), fault(2)) and its value. The bitrate
+ * of every PID is published as stream.&lt;stream&gt;.pid.&lt;pid&gt;.bitrate.
+ */
 @DisallowConcurrentExecution
 public class StreamValveMonitor extends Monitor {
 	private static final Logger logger = Logger.getLogger(StreamValveMonitor.class);
-	private static PropertyHandler props = PropertyHandler.getInstance();
 	private int port = 5003;
 	private int timeout = 15000;
 	private int specificTrap = 2;
-	private int maxsize  = 1024;
-	private boolean isRunning = true;
+	private static final OID streamOID = new OID("1.3.6.1.4.1.44132.4.1.2");
+	private static final OID streamNameOID = new OID("1.3.6.1.4.1.44132.4.1.9");
+	private static final OID qualityMetricOID = new OID("1.3.6.1.4.1.44132.4.1.10");
+	private static final OID qualityStateOID = new OID("1.3.6.1.4.1.44132.4.1.11");
+	private static final OID qualityValueOID = new OID("1.3.6.1.4.1.44132.4.1.12");
+	private static final int qualityTrap = 8;
+	private static final int CC = 0;
+	private static final int PCR_JITTER = 1;
+	private static final int BITRATE = 2;
+	private static final String[] qualityNames = { "cc", "pcrjitter", "bitrate" };
+	private boolean analyze = false;
+	private long maxCcErrors = 0;
+	private double maxPcrJitter = 0;
+	private double minBitrate = 0;
+	private long[] ccErrors = new long[0];
+	private int[][] qualityAlarms = new int[0][];
+	private StreamStats[] streams = new StreamStats[0];
+	private int[] streamAlarms = new int[0];
+	private Gauge[][] streamValues = new Gauge[0][];
+	private List<Map<Integer, Gauge>> pidValues = new ArrayList<>();
+	private boolean named = false;
+	private long started = 0;
 
-	public StreamValveMonitor() {
-		super(MonitorType.StreamValve);
+	public StreamValveMonitor(String id) {
+		super(MonitorType.StreamValve, id);
 	}
 
 	@Override
 	public void init() {
-		rate = Integer.parseInt(props.getValue(
-				"monitor.streamvalve.polling.rate", "60"));
+		rate = getProperty("polling.rate", 60);
 
-		enabled = Boolean.parseBoolean(props.getValue(
-				"monitor.streamvalve.enabled", "false"));
+		enabled = getProperty("enabled", false);
 		
-		port = Integer.parseInt(props.getValue(
-				"monitor.streamvalve.port", "5003"));
+		port = getProperty("port", 5003);
 		
-		timeout = Integer.parseInt(props.getValue(
-				"monitor.streamvalve.timeout", "3000"));	
+		timeout = getProperty("timeout", 3000);	
+
+		analyze = getProperty("analyze", false);
+
+		maxCcErrors = getProperty("cc.max", 0L);
+
+		maxPcrJitter = getProperty("pcr.jitter.max", 0.0);
+
+		minBitrate = getProperty("bitrate.min", 0.0);
+
+		List<String> list = new ArrayList<>();
+		for (String stream : getProperty("streams", "").trim().split("\\s*,\\s*")) {
+			if (!stream.isEmpty()) {
+				list.add(stream);
+			}
+		}
+
+		// The legacy single stream keeps its unnamed trap and alarm
+		named = !list.isEmpty();
+		if (!named) {
+			list.add(Integer.toString(port));
+		}
+
+		streams = new StreamStats[list.size()];
+		streamAlarms = new int[list.size()];
+		ccErrors = new long[list.size()];
+		qualityAlarms = new int[list.size()][qualityNames.length];
+		streamValues = new Gauge[list.size()][];
+		pidValues = new ArrayList<>();
+		for (int i = 0; i < list.size(); i++) {
+			pidValues.add(new HashMap<Integer, Gauge>());
+			streamAlarms[i] = named ? registerAlarm("stream." + list.get(i), 1)
+					: registerAlarm(streamOID, 1);
+			for (int q = 0; q < qualityNames.length; q++) {
+				qualityAlarms[i][q] = registerAlarm("stream." + list.get(i) + "." + qualityNames[q], 1);
+			}
+			streamValues[i] = new Gauge[] {
+					registerValue("stream." + list.get(i) + ".packetrate"),
+					registerValue("stream." + list.get(i) + ".bitrate"),
+					registerValue("stream." + list.get(i) + ".cc"),
+					registerValue("stream." + list.get(i) + ".pcrjitter") };
+			if (enabled) {
+				streams[i] = StreamReceiver.getInstance().watch(list.get(i), analyze);
+			}
+		}
+		started = System.currentTimeMillis();
+	}
+	
+	@Override
+	public void close() {
+		for (int i = 0; i < streams.length; i++) {
+			if (streams[i] != null) {
+				StreamReceiver.getInstance().unwatch(streams[i].getName(), analyze);
+				streams[i] = null;
+			}
+		}
 	}
 	
 	@Override
@@ -59,53 +146,145 @@ public class StreamValveMonitor extends Monitor {
 	}
 
 	public void execute(JobExecutionContext context) throws JobExecutionException {
-		JobDataMap map = context.getJobDetail().getJobDataMap();
+		long now = System.currentTimeMillis();
+		boolean running = true;
 
-		if (map.containsKey("StreamValveRunningState")) {
-			isRunning = map.getBooleanFromString("StreamValveRunningState");
-		}
-		
-		// Get a Datagram Socket and attempt to listen for a data stream
-		try (DatagramSocket socket = new DatagramSocket(port)) {
-			socket.setSoTimeout(timeout);
-
-			byte[] buffer = new byte[maxsize];
-			DatagramPacket packet = new DatagramPacket(buffer, maxsize);
-
-			try {
-				socket.receive(packet);
-
-				// If the previous state is false, then we need to send a clear
-				if (!isRunning) {
-					logger.info("StreamValve return to normal, sending clear notification");
-					VariableBinding variableBinding = new VariableBinding(
-							new OID("1.3.6.1.4.1.44132.4.1.2"), new Integer32(1));
-					SnmpTrap.sendTrap(specificTrap, new VariableBinding[]{variableBinding});
-				}
+		for (int i = 0; i < streams.length; i++) {
+			StreamStats stats = streams[i];
+			if (stats == null) {
+				continue;
+			}
 
-				// Set the state
-				context.getJobDetail().getJobDataMap().putAsString("StreamValveRunningState", true);
+			// Give a new stream one timeout to deliver its first packet
+			long lastSeen = stats.getLastSeen();
+			if (lastSeen == 0 && now - started < timeout && stats.getError() == null) {
+				continue;
+			}
 
-			} catch (IOException e) {
+			boolean alive = (lastSeen != 0 && now - lastSeen <= timeout);
+			streamValues[i][0].set(stats.getPacketRate());
+			streamValues[i][1].set(stats.getByteRate() * 8);
+			logger.debug("Stream " + stats.getName() + ": " + (long) stats.getPacketRate()
+					+ " pkt/s, " + (long) (stats.getByteRate() * 8) + " bit/s, last seen "
+					+ ((lastSeen == 0) ? "never" : (now - lastSeen) + " ms ago"));
+
+			if (alive) {
+				// If the previous state was not running, then we need to send a clear
+				if (shouldNotify(streamAlarms[i], 1, 1)) {
+					logger.info("StreamValve " + stats.getName() + " return to normal, sending clear notification");
+					sendTrap(stats, 1);
+				}
+
+			} else {
 				// If we get here, we were unable to detect a video stream
-				// so we will send a trap to inform the NMS system. First
-				// We create the appropriate VariableBinding and then pass
-				// that to the SnmpTrap wrapper for submission.
-				logger.warn("Unable to detect video stream, sending notification");
-				VariableBinding variableBinding = new VariableBinding(
-						new OID("1.3.6.1.4.1.44132.4.1.2"),new Integer32(2));
-				SnmpTrap.sendTrap(specificTrap, new VariableBinding[]{variableBinding});
-
-				// Set the state
-				context.getJobDetail().getJobDataMap().putAsString("StreamValveRunningState", false);
+				// so we will send a trap to inform the NMS system, unless
+				// it already knows.
+				if (shouldNotify(streamAlarms[i], 2, 1)) {
+					logger.warn("Unable to detect video stream " + stats.getName() + ", sending notification");
+					sendTrap(stats, 2);
+				}
+				running = false;
 			}
 
-		} catch (SocketException e) {
-			logger.error(e.getMessage());
-			return;
+			TsAnalyzer ts = stats.getAnalyzer();
+			if (ts != null) {
+				setPidValues(i, stats, ts);
+				if (alive) {
+					running &= checkQuality(i, stats, ts);
+				}
+			}
 		}
 
+		setStatus(running ? PollStatus.NORMAL : PollStatus.ABNORMAL);
 		logger.debug("StreamValve video check completed");
 	}
 
+	/**
+	 * Checks the transport stream metrics of a stream against their
+	 * thresholds; a threshold of 0 disables its check.
+	 *
+	 * @param i the index of the stream
+	 * @param stats the stream
+	 * @param ts the analysis of the stream
+	 * @return false if any metric is outside its threshold
+	 */
+	private boolean checkQuality(int i, StreamStats stats, TsAnalyzer ts) {
+		long errors = ts.getContinuityErrors();
+		long newErrors = errors - ccErrors[i];
+		ccErrors[i] = errors;
+		double jitter = ts.getPcrJitter();
+		double bitrate = ts.getBitrate();
+		streamValues[i][2].set(errors);
+		streamValues[i][3].set(jitter);
+
+		logger.debug("Stream " + stats.getName() + ": " + newErrors + " CC error(s), PCR jitter "
+				+ jitter + " ms, " + (long) bitrate + " bit/s");
+
+		boolean cc = checkQuality(i, CC, stats, newErrors <= maxCcErrors, Long.toString(newErrors));
+		boolean pcr = checkQuality(i, PCR_JITTER, stats,
+				maxPcrJitter <= 0 || jitter <= maxPcrJitter, Double.toString(jitter));
+		boolean rate = checkQuality(i, BITRATE, stats,
+				minBitrate <= 0 || bitrate >= minBitrate, Long.toString((long) bitrate));
+		return cc && pcr && rate;
+	}
+
+	/**
+	 * Publishes the bitrate of every PID of a stream. The gauge of a PID is
+	 * registered when the PID first carries packets and drops to 0 once it
+	 * stops.
+	 *
+	 * @param i the index of the stream
+	 * @param stats the stream
+	 * @param ts the analysis of the stream
+	 */
+	private void setPidValues(int i, StreamStats stats, TsAnalyzer ts) {
+		Map<Integer, Gauge> values = pidValues.get(i);
+		int[] pids = ts.getPids();
+		for (Map.Entry<Integer, Gauge> entry : values.entrySet()) {
+			if (Arrays.binarySearch(pids, entry.getKey()) < 0) {
+				entry.getValue().set(0);
+			}
+		}
+
+		for (int pid : pids) {
+			Gauge gauge = values.get(pid);
+			if (gauge == null) {
+				gauge = registerValue("stream." + stats.getName() + ".pid." + pid + ".bitrate");
+				values.put(pid, gauge);
+			}
+			gauge.set(ts.getBitrate(pid));
+		}
+	}
+
+	private boolean checkQuality(int i, int metric, StreamStats stats, boolean normal, String value) {
+		int state = normal ? 1 : 2;
+		if (shouldNotify(qualityAlarms[i][metric], state, 1)) {
+			logger.warn("Stream " + stats.getName() + " " + qualityNames[metric] + " is "
+					+ (normal ? "normal" : "out of range") + " (" + value + "), sending notification");
+			SnmpTrap.sendTrap(getName(), qualityTrap, new VariableBinding[] {
+					new VariableBinding(streamNameOID, new OctetString(stats.getName())),
+					new VariableBinding(qualityMetricOID, new Integer32(metric + 1)),
+					new VariableBinding(qualityStateOID, new Integer32(state)),
+					new VariableBinding(qualityValueOID, new OctetString(value)) });
+		}
+		return normal;
+	}
+
+	/**
+	 * Creates the appropriate VariableBindings and passes them to the
+	 * SnmpTrap wrapper for submission.
+	 *
+	 * @param stats the stream
+	 * @param state running(1) or not running(2)
+	 */
+	private void sendTrap(StreamStats stats, int state) {
+		VariableBinding variableBinding = new VariableBinding(
+				streamOID, new Integer32(state));
+		VariableBinding[] variableBindings = named
+				? new VariableBinding[] { variableBinding,
+						new VariableBinding(streamNameOID, new OctetString(stats.getName())) }
+				: new VariableBinding[] { variableBinding };
+		SnmpTrap.sendTrap(getName(), specificTrap, variableBindings);
+	}
+
 }
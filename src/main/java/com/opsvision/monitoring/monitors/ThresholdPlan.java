@@ -0,0 +1,100 @@
+package com.opsvision.monitoring.monitors;
+
+import java.util.Arrays;
+
+/**
+ * Threshold rules compiled into flat primitive arrays. Each metric has a
+ * low and a high threshold and a hysteresis band: a metric that crossed a
+ * threshold only returns to normal once it is back inside the band by the
+ * hysteresis amount, so a value wobbling around a threshold does not flap.
+ * Evaluating a metric is a handful of double comparisons and touches no
+ * objects.
+ *
+ * A plan is evaluated by the single job of its monitor instance and is not
+ * thread-safe.
+ */
+public class ThresholdPlan {
+	public static final int NORMAL = 1;
+	public static final int HIGH = 2;
+	public static final int LOW = 3;
+	private double[] low = new double[0];
+	private double[] high = new double[0];
+	private double[] lowClear = new double[0];
+	private double[] highClear = new double[0];
+	private int[] state = new int[0];
+	private int size = 0;
+
+	/**
+	 * Adds a metric to the plan. A NaN threshold is never crossed.
+	 *
+	 * @param lowThreshold values at or below this are LOW
+	 * @param highThreshold values at or above this are HIGH
+	 * @param hysteresis how far back inside a threshold a value has to be to clear
+	 * @return the index of the metric
+	 */
+	public int add(double lowThreshold, double highThreshold, double hysteresis) {
+		if (size == low.length) {
+			int capacity = Math.max(4, size * 2);
+			low = Arrays.copyOf(low, capacity);
+			high = Arrays.copyOf(high, capacity);
+			lowClear = Arrays.copyOf(lowClear, capacity);
+			highClear = Arrays.copyOf(highClear, capacity);
+			state = Arrays.copyOf(state, capacity);
+		}
+
+		low[size] = Double.isNaN(lowThreshold) ? Double.NEGATIVE_INFINITY : lowThreshold;
+		high[size] = Double.isNaN(highThreshold) ? Double.POSITIVE_INFINITY : highThreshold;
+		lowClear[size] = low[size] + Math.abs(hysteresis);
+		highClear[size] = high[size] - Math.abs(hysteresis);
+		state[size] = NORMAL;
+		return size++;
+	}
+
+	/**
+	 * Evaluates a new value of a metric and remembers the resulting state.
+	 *
+	 * @param metric the index returned by add
+	 * @param value the polled value
+	 * @return NORMAL, HIGH or LOW
+	 */
+	public int evaluate(int metric, double value) {
+		int current = state[metric];
+		int next;
+
+		if (value <= low[metric] || (current == LOW && value < lowClear[metric])) {
+			next = LOW;
+		} else if (value >= high[metric] || (current == HIGH && value > highClear[metric])) {
+			next = HIGH;
+		} else {
+			next = NORMAL;
+		}
+
+		state[metric] = next;
+		return next;
+	}
+
+	/**
+	 * Method for seeding the state of a metric, e.g. with a restored alarm
+	 *
+	 * @param metric the index returned by add
+	 * @param value NORMAL, HIGH or LOW
+	 */
+	public void setState(int metric, int value) {
+		state[metric] = (value == HIGH || value == LOW) ? value : NORMAL;
+	}
+
+	/**
+	 * @param metric the index returned by add
+	 * @return the state of the last evaluation
+	 */
+	public int getState(int metric) {
+		return state[metric];
+	}
+
+	/**
+	 * @return the number of metrics in the plan
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,60 @@
+package com.opsvision.monitoring.scheduler;
+
+import com.opsvision.monitoring.monitors.Monitor;
+import com.opsvision.monitoring.utils.PropertyHandler;
+
+/**
+ * Decides how often a monitor should poll based on its last outcome.
+ * Unreachable devices back off exponentially (base rate doubled for every
+ * consecutive failure, capped at monitor.main.adaptive.maxrate seconds),
+ * devices reporting a fault are polled monitor.main.adaptive.fastfactor
+ * times faster (but not faster than monitor.main.adaptive.minrate seconds)
+ * and a normal device polls at its configured rate.
+ */
+public class AdaptiveRate {
+	private final boolean enabled;
+	private final long maxInterval;
+	private final long minInterval;
+	private final int fastFactor;
+
+	public AdaptiveRate() {
+		PropertyHandler props = PropertyHandler.getInstance();
+		enabled = props.getBoolean("monitor.main.adaptive.enabled", false);
+		maxInterval = props.getLong("monitor.main.adaptive.maxrate", 900) * 1000L;
+		minInterval = props.getLong("monitor.main.adaptive.minrate", 10) * 1000L;
+		fastFactor = Math.max(1, props.getInt("monitor.main.adaptive.fastfactor", 4));
+	}
+
+	/**
+	 * @return true if polling rates should adapt to the monitor status
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Method for computing the interval until the next poll of a monitor
+	 * 
+	 * @param monitor the monitor that has just run
+	 * @return the interval in milliseconds
+	 */
+	public long getInterval(Monitor monitor) {
+		long base = monitor.getRate() * 1000L;
+		if (!enabled) {
+			return base;
+		}
+
+		switch (monitor.getStatus()) {
+			case UNREACHABLE:
+				// Double per failure; the shift is bounded to avoid overflow
+				int shift = Math.min(monitor.getFailures(), 20);
+				return Math.max(base, Math.min(base << shift, maxInterval));
+
+			case ABNORMAL:
+				return Math.min(base, Math.max(base / fastFactor, minInterval));
+
+			default:
+				return base;
+		}
+	}
+}
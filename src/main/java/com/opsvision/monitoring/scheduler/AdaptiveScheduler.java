@@ -0,0 +1,85 @@
+package com.opsvision.monitoring.scheduler;
+
+import java.util.Date;
+
+import org.apache.log4j.Logger;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.JobListener;
+import org.quartz.SchedulerException;
+import org.quartz.SimpleScheduleBuilder;
+import org.quartz.SimpleTrigger;
+import org.quartz.Trigger;
+import org.quartz.TriggerBuilder;
+
+import com.opsvision.monitoring.monitors.Monitor;
+import com.opsvision.monitoring.monitors.MonitorJobFactory;
+
+/**
+ * Quartz JobListener that reschedules a monitor's trigger after every run
+ * when its {@link AdaptiveRate} interval differs from the current one.
+ * A run of an instance that has since been replaced or removed is left
+ * alone, so its status never sets the rate of its successor.
+ */
+public class AdaptiveScheduler implements JobListener {
+	private static final Logger logger = Logger.getLogger(AdaptiveScheduler.class);
+	private final AdaptiveRate rate;
+	private final MonitorJobFactory jobFactory;
+
+	public AdaptiveScheduler(AdaptiveRate rate, MonitorJobFactory jobFactory) {
+		this.rate = rate;
+		this.jobFactory = jobFactory;
+	}
+
+	@Override
+	public String getName() {
+		return "AdaptiveScheduler";
+	}
+
+	@Override
+	public void jobToBeExecuted(JobExecutionContext context) {
+	}
+
+	@Override
+	public void jobExecutionVetoed(JobExecutionContext context) {
+	}
+
+	@Override
+	public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException) {
+		if (!(context.getJobInstance() instanceof Monitor)
+				|| !(context.getTrigger() instanceof SimpleTrigger)) {
+			return;
+		}
+
+		Monitor monitor = (Monitor) context.getJobInstance();
+		SimpleTrigger current = (SimpleTrigger) context.getTrigger();
+		if (jobFactory.get(context.getJobDetail().getKey()) != monitor) {
+			return;
+		}
+
+		long interval = rate.getInterval(monitor);
+		if (interval == current.getRepeatInterval()) {
+			return;
+		}
+
+		logger.info(monitor.getName() + " is " + monitor.getStatus() + ", polling every "
+				+ (interval / 1000) + "s");
+
+		Trigger trigger = TriggerBuilder
+				.newTrigger()
+				.withIdentity(current.getKey())
+				.forJob(current.getJobKey())
+				.startAt(new Date(System.currentTimeMillis() + interval))
+				.withSchedule(
+						SimpleScheduleBuilder.simpleSchedule()
+								.withIntervalInMilliseconds(interval).repeatForever())
+				.build();
+
+		try {
+			context.getScheduler().rescheduleJob(current.getKey(), trigger);
+
+		} catch (SchedulerException e) {
+			logger.error("Failed to reschedule " + monitor.getName() + ": " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package com.opsvision.monitoring.scheduler;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.apache.log4j.Logger;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.JobListener;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.Trigger.CompletedExecutionInstruction;
+import org.quartz.TriggerListener;
+
+import com.opsvision.monitoring.metrics.Counter;
+import com.opsvision.monitoring.metrics.MetricsRegistry;
+import com.opsvision.monitoring.monitors.Monitor;
+import com.opsvision.monitoring.monitors.MonitorType;
+import com.opsvision.monitoring.utils.PropertyHandler;
+
+/**
+ * Bounds how many polls of each monitor type run at once, whichever
+ * scheduler and thread pool runs them. Quartz calls it as a listener; the
+ * {@link WheelMonitorScheduler} calls getPermits and acquire directly. A
+ * poll over the limit of its type waits for a permit before it starts.
+ * Permits are handed out in arrival order, so no device is starved. Polls
+ * still waiting when the scheduler is put in standby or shut down are
+ * vetoed rather than run. The limit of a type is
+ * monitor.&lt;type&gt;.concurrency, falling back to monitor.main.concurrency;
+ * 0 means no limit.
+ *
+ * The wait happens before any job listener runs, so it counts as
+ * scheduler.delay rather than as poll time.
+ */
+public class ConcurrencyLimiter implements TriggerListener, JobListener {
+	private static final Logger logger = Logger.getLogger(ConcurrencyLimiter.class);
+	private static final String PERMIT = "limiter.permit";
+	private final Map<MonitorType, Semaphore> limits = new EnumMap<>(MonitorType.class);
+	private final Counter waits = MetricsRegistry.getInstance().counter("scheduler.limited");
+
+	public ConcurrencyLimiter() {
+		PropertyHandler props = PropertyHandler.getInstance();
+		int defaultLimit = props.getInt("monitor.main.concurrency", 200);
+
+		for (MonitorType type : MonitorType.values()) {
+			int limit = props.getInt("monitor." + type.getPrefix() + ".concurrency", defaultLimit);
+			if (limit > 0) {
+				limits.put(type, new Semaphore(limit, true));
+				logger.debug("At most " + limit + " " + type + " poll(s) at once");
+			}
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "ConcurrencyLimiter";
+	}
+
+	@Override
+	public void triggerFired(Trigger trigger, JobExecutionContext context) {
+	}
+
+	@Override
+	public boolean vetoJobExecution(Trigger trigger, final JobExecutionContext context) {
+		if (!(context.getJobInstance() instanceof Monitor)) {
+			return false;
+		}
+
+		Semaphore permits = getPermits((Monitor) context.getJobInstance());
+		if (permits == null) {
+			return false;
+		}
+
+		if (!acquire(permits, new BooleanSupplier() {
+			@Override
+			public boolean getAsBoolean() {
+				return isShutdown(context);
+			}
+		})) {
+			return true;
+		}
+		context.put(PERMIT, permits);
+		return false;
+	}
+
+	/**
+	 * @param monitor the monitor about to poll
+	 * @return the permits of its type, null if its type is not limited
+	 */
+	public Semaphore getPermits(Monitor monitor) {
+		return limits.get(monitor.getMonitor());
+	}
+
+	/**
+	 * Waits for a permit; release it after the poll
+	 *
+	 * @param permits the permits returned by getPermits
+	 * @param stopped checked every second while waiting
+	 * @return true once a permit is held, false if stopped or interrupted first
+	 */
+	public boolean acquire(Semaphore permits, BooleanSupplier stopped) {
+		if (permits.tryAcquire()) {
+			return true;
+		}
+
+		waits.increment();
+		try {
+			while (!permits.tryAcquire(1, TimeUnit.SECONDS)) {
+				if (stopped.getAsBoolean()) {
+					return false;
+				}
+			}
+			return true;
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	@Override
+	public void triggerMisfired(Trigger trigger) {
+	}
+
+	@Override
+	public void triggerComplete(Trigger trigger, JobExecutionContext context,
+			CompletedExecutionInstruction triggerInstructionCode) {
+	}
+
+	@Override
+	public void jobToBeExecuted(JobExecutionContext context) {
+	}
+
+	@Override
+	public void jobExecutionVetoed(JobExecutionContext context) {
+	}
+
+	@Override
+	public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException) {
+		Object permits = context.get(PERMIT);
+		if (permits instanceof Semaphore) {
+			((Semaphore) permits).release();
+		}
+	}
+
+	// Quartz puts the scheduler in standby before it waits for running jobs
+	private static boolean isShutdown(JobExecutionContext context) {
+		try {
+			return context.getScheduler().isInStandbyMode() || context.getScheduler().isShutdown();
+
+		} catch (SchedulerException e) {
+			return true;
+		}
+	}
+}
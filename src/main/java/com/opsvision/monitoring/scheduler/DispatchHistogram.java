@@ -0,0 +1,127 @@
+package com.opsvision.monitoring.scheduler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+import org.quartz.JobExecutionContext;
+import org.quartz.Trigger;
+import org.quartz.Trigger.CompletedExecutionInstruction;
+import org.quartz.TriggerListener;
+
+/**
+ * Counts job dispatches per wall-clock second over a sliding window so the
+ * effect of phase spreading can be measured. A summary of the window is
+ * logged once per window; {@link #getCounts()} returns the raw histogram.
+ */
+public class DispatchHistogram implements TriggerListener {
+	private static final Logger logger = Logger.getLogger(DispatchHistogram.class);
+	private static final int COUNT_BITS = 32;
+	private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+	// Per slot the epoch second in the high bits and its count in the low
+	// bits, so a slot is reclaimed and counted in one CAS
+	private final AtomicLongArray slots;
+	private final AtomicLong lastReport = new AtomicLong();
+	private final int window;
+
+	/**
+	 * @param window the number of seconds to keep
+	 */
+	public DispatchHistogram(int window) {
+		this.window = Math.max(1, window);
+		slots = new AtomicLongArray(this.window);
+		lastReport.set(System.currentTimeMillis() / 1000);
+	}
+
+	@Override
+	public String getName() {
+		return "DispatchHistogram";
+	}
+
+	@Override
+	public void triggerFired(Trigger trigger, JobExecutionContext context) {
+		record(System.currentTimeMillis() / 1000);
+	}
+
+	@Override
+	public boolean vetoJobExecution(Trigger trigger, JobExecutionContext context) {
+		return false;
+	}
+
+	@Override
+	public void triggerMisfired(Trigger trigger) {
+	}
+
+	@Override
+	public void triggerComplete(Trigger trigger, JobExecutionContext context,
+			CompletedExecutionInstruction triggerInstructionCode) {
+	}
+
+	/**
+	 * Method for counting one dispatch
+	 * 
+	 * @param second the epoch second of the dispatch
+	 */
+	public void record(long second) {
+		int slot = (int) (second % window);
+
+		// Reclaim a slot still holding a count from an earlier window; a
+		// dispatch recorded after its slot moved on to a later second is dropped
+		while (true) {
+			long current = slots.get(slot);
+			long stamp = current >>> COUNT_BITS;
+			if (stamp > second) {
+				break;
+			}
+			long next = (stamp == second) ? current + 1 : (second << COUNT_BITS) | 1;
+			if (slots.compareAndSet(slot, current, next)) {
+				break;
+			}
+		}
+
+		long last = lastReport.get();
+		if (second - last >= window && lastReport.compareAndSet(last, second)) {
+			report(second);
+		}
+	}
+
+	/**
+	 * Method for returning the dispatch counts of the last complete seconds
+	 * 
+	 * @return the counts, oldest first; the current second is not included
+	 */
+	public int[] getCounts() {
+		return getCounts(System.currentTimeMillis() / 1000);
+	}
+
+	private int[] getCounts(long now) {
+		int[] histogram = new int[window];
+		for (int i = 0; i < window; i++) {
+			long second = now - window + i;
+			int slot = (int) (second % window);
+			long value = slots.get(slot);
+			histogram[i] = ((value >>> COUNT_BITS) == second) ? (int) (value & COUNT_MASK) : 0;
+		}
+		return histogram;
+	}
+
+	private void report(long now) {
+		if (!logger.isDebugEnabled()) {
+			return;
+		}
+
+		int[] histogram = getCounts(now);
+		int max = 0;
+		long total = 0;
+		StringBuilder sb = new StringBuilder();
+		for (int count : histogram) {
+			max = Math.max(max, count);
+			total += count;
+			sb.append(count).append(' ');
+		}
+
+		logger.debug("Dispatches over the last " + window + "s: total=" + total
+				+ " mean=" + String.format("%.2f", (double) total / window) + "/s peak=" + max
+				+ "/s [" + sb.toString().trim() + "]");
+	}
+}
@@ -0,0 +1,231 @@
+package com.opsvision.monitoring.scheduler;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+
+import com.opsvision.monitoring.alarms.AlarmEngine;
+import com.opsvision.monitoring.metrics.MetricsRegistry;
+import com.opsvision.monitoring.monitors.Monitor;
+import com.opsvision.monitoring.monitors.MonitorFactory;
+import com.opsvision.monitoring.monitors.MonitorType;
+import com.opsvision.monitoring.utils.ConfigListener;
+import com.opsvision.monitoring.utils.ConfigSnapshot;
+
+/**
+ * Keeps the scheduled monitors in line with the configuration. On a
+ * reload only the monitor instances whose properties changed are touched:
+ * a new instance is scheduled, a removed or disabled one is cancelled and
+ * its alarms, metrics and device values are forgotten, and a changed one is
+ * replaced by a new instance built from the new properties. The alarm
+ * states of a replaced instance are kept, so a fault already notified is
+ * not notified again; alarms the new instance does not register are
+ * forgotten. Every other instance keeps polling undisturbed.
+ * A removed or replaced instance is closed, releasing the streams it
+ * watched.
+ *
+ * An instance has changed when one of its own keys
+ * (monitor.&lt;type&gt;.&lt;id&gt;.*) or one of the keys shared by its
+ * type (monitor.&lt;type&gt;.*) has. Changes to monitor.main.* reach the
+ * running services only on a restart.
+ */
+public class MonitorReconciler implements ConfigListener {
+	private static final Logger logger = Logger.getLogger(MonitorReconciler.class);
+	private final MonitorScheduler scheduler;
+	private final Map<String, Monitor> scheduled = new HashMap<>();
+
+	/**
+	 * @param scheduler the scheduler running the monitors
+	 */
+	public MonitorReconciler(MonitorScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Schedules every enabled monitor instance of the configuration
+	 *
+	 * @return the number of monitor instances scheduled
+	 */
+	public synchronized int scheduleAll() {
+		for (MonitorType type : MonitorType.values()) {
+			for (Monitor m : MonitorFactory.getMonitors(type)) {
+				if (m.isEnabled()) {
+					logger.debug(m.getName() + " is enabled");
+					if (scheduler.schedule(m)) {
+						scheduled.put(m.getName(), m);
+					}
+				}
+			}
+		}
+		return scheduled.size();
+	}
+
+	@Override
+	public synchronized void configChanged(ConfigSnapshot previous, ConfigSnapshot current) {
+		SortedMap<String, String> before = previous.getPrefixed("monitor.main.");
+		SortedMap<String, String> after = current.getPrefixed("monitor.main.");
+		if (!before.equals(after)) {
+			Set<String> restart = new TreeSet<>();
+			for (String key : before.keySet()) {
+				if (!Objects.equals(before.get(key), after.get(key))) {
+					restart.add(key);
+				}
+			}
+			for (String key : after.keySet()) {
+				if (!before.containsKey(key)) {
+					restart.add(key);
+				}
+			}
+			logger.warn("Restart the agent to apply " + restart);
+		}
+
+		int added = 0;
+		int removed = 0;
+		int replaced = 0;
+		for (MonitorType type : MonitorType.values()) {
+			String prefix = "monitor." + type.getPrefix() + ".";
+			List<String> oldIds = MonitorFactory.getInstanceIds(previous.getString(prefix + "instances"));
+			List<String> newIds = MonitorFactory.getInstanceIds(current.getString(prefix + "instances"));
+
+			Set<String> kept = new HashSet<>(newIds);
+			Set<String> ids = new HashSet<>(oldIds);
+			kept.retainAll(ids);
+			ids.addAll(newIds);
+			Map<String, Map<String, String>> oldSettings = getSettings(previous, prefix, ids);
+			Map<String, Map<String, String>> newSettings = getSettings(current, prefix, ids);
+			boolean sharedChanged = !oldSettings.get(null).equals(newSettings.get(null));
+
+			for (String id : oldIds) {
+				if (!kept.contains(id) && remove(Monitor.getName(type, id))) {
+					removed++;
+				}
+			}
+
+			for (String id : newIds) {
+				if (kept.contains(id) && !sharedChanged && Objects.equals(oldSettings.get(id), newSettings.get(id))) {
+					continue;
+				}
+
+				String name = Monitor.getName(type, id);
+				Monitor old = scheduled.remove(name);
+				if (old != null) {
+					scheduler.cancel(name);
+				}
+
+				// The old instance's metrics go; the new one starts its own
+				MetricsRegistry.getInstance().remove(name);
+				Monitor monitor = MonitorFactory.getMonitor(type, id);
+
+				// Released only now, so streams both instances watch stay open
+				if (old != null) {
+					old.close();
+				}
+				if (monitor.isEnabled() && scheduler.schedule(monitor)) {
+					// Alarms the new instance no longer registers, e.g. of a
+					// dropped stream, must not be restored by the next start
+					AlarmEngine.getInstance().remove(name, monitor.getAlarms());
+					scheduled.put(name, monitor);
+					logger.debug(name + ((old == null) ? " added" : " replaced"));
+					if (old == null) {
+						added++;
+					} else {
+						replaced++;
+					}
+
+				} else {
+					AlarmEngine.getInstance().remove(name);
+					if (old != null) {
+						logger.debug(name + " removed");
+						removed++;
+					}
+				}
+			}
+		}
+
+		logger.info("Config applied: " + added + " monitor(s) added, " + removed + " removed, "
+				+ replaced + " replaced, " + scheduled.size() + " scheduled");
+	}
+
+	// Cancels an instance and forgets its alarms, metrics and device values
+	private boolean remove(String name) {
+		Monitor old = scheduled.remove(name);
+		if (old != null) {
+			scheduler.cancel(name);
+			old.close();
+		}
+
+		AlarmEngine.getInstance().remove(name);
+		MetricsRegistry.getInstance().remove(name);
+		logger.debug(name + " removed");
+		return old != null;
+	}
+
+	/**
+	 * Groups the keys of a monitor type by instance. A key that looks like
+	 * the setting of an instance that is not listed, &lt;id&gt;.&lt;name&gt;
+	 * where a listed instance sets &lt;name&gt; of its own, is left out and
+	 * logged rather than taken for a setting shared by every instance.
+	 *
+	 * @param config the configuration
+	 * @param prefix monitor.&lt;type&gt;.
+	 * @param ids every instance id of the type, before and after the change
+	 * @return the keys shared by the type under null, and the keys of each
+	 *         instance under its id
+	 */
+	private static Map<String, Map<String, String>> getSettings(ConfigSnapshot config,
+			String prefix, Set<String> ids) {
+		Map<String, Map<String, String>> settings = new HashMap<>();
+		settings.put(null, new HashMap<String, String>());
+
+		// The setting names configured per instance
+		Set<String> names = new HashSet<>();
+		for (String key : config.getPrefixed(prefix).keySet()) {
+			String rest = key.substring(prefix.length());
+			int dot = rest.indexOf('.');
+			if (dot > 0 && ids.contains(rest.substring(0, dot))) {
+				names.add(rest.substring(dot + 1));
+			}
+		}
+
+		// Ids configuring any of those names but missing from the instances list
+		Set<String> unlisted = new TreeSet<>();
+		for (String key : config.getPrefixed(prefix).keySet()) {
+			String rest = key.substring(prefix.length());
+			int dot = rest.indexOf('.');
+			if (dot > 0 && !ids.contains(rest.substring(0, dot)) && names.contains(rest.substring(dot + 1))) {
+				unlisted.add(rest.substring(0, dot));
+			}
+		}
+
+		for (Map.Entry<String, String> entry : config.getPrefixed(prefix).entrySet()) {
+			String key = entry.getKey();
+			String rest = key.substring(prefix.length());
+			int dot = rest.indexOf('.');
+			String first = dot > 0 ? rest.substring(0, dot) : null;
+			if ("instances".equals(rest) || (first != null && unlisted.contains(first))) {
+				continue;
+			}
+
+			String id = (first != null && ids.contains(first)) ? first : null;
+			Map<String, String> group = settings.get(id);
+			if (group == null) {
+				group = new HashMap<>();
+				settings.put(id, group);
+			}
+			group.put(key, entry.getValue());
+		}
+
+		if (!unlisted.isEmpty()) {
+			logger.debug("Ignoring the keys of " + prefix + unlisted
+					+ ", not listed in " + prefix + "instances");
+		}
+		return settings;
+	}
+}
@@ -0,0 +1,47 @@
+package com.opsvision.monitoring.scheduler;
+
+import org.quartz.SchedulerException;
+
+import com.opsvision.monitoring.monitors.Monitor;
+
+/**
+ * Runs the monitor instances on their polling rates. The agent selects
+ * the implementation with monitor.main.scheduler: quartz (the default) for
+ * {@link QuartzMonitorScheduler}, wheel for {@link WheelMonitorScheduler}.
+ * Both spread the first polls with the {@link PhaseSpreader}, adapt the
+ * rates with the {@link AdaptiveRate}, bound the polls per type with the
+ * {@link ConcurrencyLimiter} and record the {@link SchedulerMetrics}.
+ */
+public interface MonitorScheduler {
+
+	/**
+	 * Starts running the scheduled monitors
+	 *
+	 * @throws SchedulerException if the scheduler could not be started
+	 */
+	void start() throws SchedulerException;
+
+	/**
+	 * Schedules a monitor instance; its first poll is spread across its
+	 * polling interval
+	 *
+	 * @param monitor the monitor instance
+	 * @return true if the monitor was scheduled
+	 */
+	boolean schedule(Monitor monitor);
+
+	/**
+	 * Stops polling a monitor instance; a poll in progress completes
+	 *
+	 * @param name the name of the monitor instance
+	 * @return true if the monitor was scheduled
+	 */
+	boolean cancel(String name);
+
+	/**
+	 * Stops the scheduler
+	 *
+	 * @param waitForPolls true to wait for the polls in progress to complete
+	 */
+	void shutdown(boolean waitForPolls);
+}
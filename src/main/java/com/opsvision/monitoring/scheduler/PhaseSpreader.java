@@ -0,0 +1,60 @@
+package com.opsvision.monitoring.scheduler;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.opsvision.monitoring.utils.PropertyHandler;
+
+/**
+ * Spreads the first firing of each job across its polling interval so
+ * jobs sharing a rate do not all fire in the same second. The phase is a
+ * deterministic hash of the job name, so a device keeps its slot across
+ * restarts, plus an optional random jitter of up to
+ * monitor.main.schedule.jitter seconds.
+ *
+ * With monitor.main.schedule.mode=immediate every job starts right away,
+ * which was the behaviour before spreading was added.
+ */
+public class PhaseSpreader {
+	private final boolean spread;
+	private final long jitter;
+
+	public PhaseSpreader() {
+		PropertyHandler props = PropertyHandler.getInstance();
+		spread = "spread".equalsIgnoreCase(props.getValue(
+				"monitor.main.schedule.mode", "immediate"));
+		jitter = props.getLong("monitor.main.schedule.jitter", 0) * 1000L;
+	}
+
+	/**
+	 * Method for computing how long to wait before the first firing of a job
+	 * 
+	 * @param name the unique name of the job
+	 * @param interval the polling interval in milliseconds
+	 * @return the start delay in milliseconds, always less than the interval
+	 */
+	public long getStartDelay(String name, long interval) {
+		if (!spread || interval <= 0) {
+			return 0;
+		}
+
+		long delay = (mix(name.hashCode()) & Long.MAX_VALUE) % interval;
+		if (jitter > 0) {
+			delay += ThreadLocalRandom.current().nextLong(jitter);
+		}
+
+		return delay % interval;
+	}
+
+	/**
+	 * Finalizer from MurmurHash3; similar names (tx1, tx2, ...) have similar
+	 * String hash codes which would otherwise land in neighbouring slots.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
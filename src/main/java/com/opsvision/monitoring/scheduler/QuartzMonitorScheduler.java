@@ -0,0 +1,156 @@
+package com.opsvision.monitoring.scheduler;
+
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.quartz.JobBuilder;
+import org.quartz.JobDetail;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.SimpleScheduleBuilder;
+import org.quartz.Trigger;
+import org.quartz.TriggerBuilder;
+import org.quartz.impl.StdSchedulerFactory;
+
+import com.opsvision.monitoring.monitors.Monitor;
+import com.opsvision.monitoring.monitors.MonitorJobFactory;
+import com.opsvision.monitoring.utils.PropertyHandler;
+
+/**
+ * Runs the monitors as Quartz jobs, one JobDetail and SimpleTrigger per
+ * monitor instance. The adaptive rates, the concurrency limit and the
+ * metrics hook in as Quartz listeners.
+ */
+public class QuartzMonitorScheduler implements MonitorScheduler {
+	private static final Logger logger = Logger.getLogger(QuartzMonitorScheduler.class);
+	private static final String GROUP = "modeo";
+	private final MonitorJobFactory jobFactory = new MonitorJobFactory();
+	private final PhaseSpreader spreader = new PhaseSpreader();
+	private final SchedulerMetrics metrics = new SchedulerMetrics();
+	private final AtomicLong triggers = new AtomicLong();
+	private Scheduler scheduler = null;
+
+	@Override
+	public void start() throws SchedulerException {
+		// Jobs run our long-lived monitor instances
+		scheduler = new StdSchedulerFactory(getSchedulerProperties()).getScheduler();
+		scheduler.setJobFactory(jobFactory);
+		scheduler.getListenerManager().addTriggerListener(new DispatchHistogram(60));
+		scheduler.getListenerManager().addTriggerListener(metrics);
+		scheduler.getListenerManager().addJobListener(metrics);
+
+		// Bound the polls per monitor type
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter();
+		scheduler.getListenerManager().addTriggerListener(limiter);
+		scheduler.getListenerManager().addJobListener(limiter);
+
+		// Let polling rates follow the health of each device
+		AdaptiveRate adaptiveRate = new AdaptiveRate();
+		if (adaptiveRate.isEnabled()) {
+			scheduler.getListenerManager().addJobListener(new AdaptiveScheduler(adaptiveRate, jobFactory));
+		}
+
+		scheduler.start();
+	}
+
+	/**
+	 * Creates both a JobDetail and Trigger for a monitor instance. The
+	 * instance is registered with our JobFactory before the JobDetail and
+	 * Trigger are added to the Scheduler. The first firing is offset by the
+	 * PhaseSpreader. Every instance gets a trigger key of its own, so a late
+	 * reschedule by an instance already replaced finds no trigger to change.
+	 */
+	@Override
+	public boolean schedule(Monitor monitor) {
+		JobKey key = new JobKey(monitor.getName(), GROUP);
+
+		// Create a job detail
+		JobDetail job = JobBuilder.newJob(monitor.getClass())
+				.withIdentity(key).build();
+
+		// Create the trigger; the first firing is spread across the interval
+		long interval = monitor.getRate() * 1000L;
+		Trigger trigger = TriggerBuilder
+				.newTrigger()
+				.withIdentity(monitor.getName() + "Trigger" + triggers.incrementAndGet(), GROUP)
+				.startAt(new Date(System.currentTimeMillis()
+						+ spreader.getStartDelay(monitor.getName(), interval)))
+				.withSchedule(
+						SimpleScheduleBuilder.simpleSchedule()
+								.withIntervalInSeconds(monitor.getRate()).repeatForever())
+				.build();
+
+		try {
+			jobFactory.register(key, monitor);
+			metrics.add(monitor.getName());
+			scheduler.scheduleJob(job, trigger);
+			return true;
+
+		} catch (SchedulerException e) {
+			jobFactory.unregister(key);
+			metrics.remove(monitor.getName());
+			logger.error(e.getMessage());
+			return false;
+		}
+	}
+
+	@Override
+	public boolean cancel(String name) {
+		JobKey key = new JobKey(name, GROUP);
+		try {
+			return scheduler.deleteJob(key);
+
+		} catch (SchedulerException e) {
+			logger.error("Failed to cancel " + name + ": " + e.getMessage());
+			return false;
+
+		} finally {
+			jobFactory.unregister(key);
+			metrics.remove(name);
+		}
+	}
+
+	@Override
+	public void shutdown(boolean waitForPolls) {
+		if (scheduler == null) {
+			return;
+		}
+
+		try {
+			scheduler.shutdown(waitForPolls);
+
+		} catch (SchedulerException e) {
+			logger.warn(e.getMessage());
+		}
+	}
+
+	/**
+	 * Builds the Quartz configuration. With monitor.main.executor=virtual
+	 * every poll runs on a virtual thread of its own; with =pool the polls
+	 * share a fixed worker pool sized from monitor.main.threads, which must
+	 * cover every poll that may block at once.
+	 * 
+	 * @return the properties for the StdSchedulerFactory
+	 */
+	private static Properties getSchedulerProperties() {
+		PropertyHandler props = PropertyHandler.getInstance();
+
+		Properties quartz = new Properties();
+		quartz.setProperty("org.quartz.scheduler.instanceName", "MonitoringAgent");
+		quartz.setProperty("org.quartz.scheduler.skipUpdateCheck", "true");
+		if ("virtual".equals(props.getValue("monitor.main.executor", "virtual"))) {
+			quartz.setProperty("org.quartz.threadPool.class", VirtualThreadPool.class.getName());
+		} else {
+			quartz.setProperty("org.quartz.threadPool.class", "org.quartz.simpl.SimpleThreadPool");
+			quartz.setProperty("org.quartz.threadPool.threadCount",
+					props.getValue("monitor.main.threads", "10"));
+		}
+		quartz.setProperty("org.quartz.jobStore.class", "org.quartz.simpl.RAMJobStore");
+		quartz.setProperty("org.quartz.jobStore.misfireThreshold", "60000");
+
+		return quartz;
+	}
+}
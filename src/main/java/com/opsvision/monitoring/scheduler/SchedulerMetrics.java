@@ -0,0 +1,170 @@
+package com.opsvision.monitoring.scheduler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.JobListener;
+import org.quartz.Trigger;
+import org.quartz.Trigger.CompletedExecutionInstruction;
+import org.quartz.TriggerListener;
+
+import com.opsvision.monitoring.metrics.Counter;
+import com.opsvision.monitoring.metrics.LatencyRecorder;
+import com.opsvision.monitoring.metrics.MetricsRegistry;
+import com.opsvision.monitoring.monitors.Monitor;
+import com.opsvision.monitoring.monitors.PollStatus;
+
+/**
+ * Records scheduler and monitor metrics, from Quartz callbacks or from the
+ * {@link WheelMonitorScheduler}:
+ *
+ * <ul>
+ * <li>scheduler.delay: from the scheduled fire time until a worker thread
+ * starts the job, i.e. time spent waiting for a free thread</li>
+ * <li>scheduler.misfires: triggers that missed their fire time</li>
+ * <li>poll.time and monitor.&lt;name&gt;.execute: run time of every poll,
+ * over all monitors and per monitor instance</li>
+ * <li>monitor.&lt;name&gt;.errors and .unreachable: polls that threw or
+ * could not reach their device</li>
+ * </ul>
+ *
+ * The per-instance metrics are kept from {@link #add(String)} until
+ * {@link #remove(String)}, which the schedulers call when they schedule
+ * and cancel an instance; a poll that ends after its instance was
+ * cancelled only counts towards poll.time.
+ */
+public class SchedulerMetrics implements JobListener, TriggerListener {
+	private static final String START = "metrics.start";
+	private final MetricsRegistry registry = MetricsRegistry.getInstance();
+	private final LatencyRecorder delay = registry.recorder("scheduler.delay");
+	private final LatencyRecorder execute = registry.recorder("poll.time");
+	private final Counter misfires = registry.counter("scheduler.misfires");
+	private final ConcurrentMap<String, JobMetrics> jobs = new ConcurrentHashMap<>();
+
+	// The metrics of one monitor instance, looked up once
+	private static class JobMetrics {
+		final LatencyRecorder execute;
+		final Counter errors;
+		final Counter unreachable;
+
+		JobMetrics(MetricsRegistry registry, String name) {
+			execute = registry.recorder("monitor." + name + ".execute");
+			errors = registry.counter("monitor." + name + ".errors");
+			unreachable = registry.counter("monitor." + name + ".unreachable");
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "SchedulerMetrics";
+	}
+
+	@Override
+	public void jobToBeExecuted(JobExecutionContext context) {
+		long scheduled = (context.getScheduledFireTime() == null) ? 0
+				: context.getScheduledFireTime().getTime();
+		context.put(START, started(scheduled));
+	}
+
+	@Override
+	public void jobExecutionVetoed(JobExecutionContext context) {
+	}
+
+	@Override
+	public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException) {
+		Object start = context.get(START);
+		if (!(start instanceof Long)) {
+			return;
+		}
+
+		PollStatus status = (context.getJobInstance() instanceof Monitor)
+				? ((Monitor) context.getJobInstance()).getStatus() : null;
+		finished(context.getJobDetail().getKey().getName(), status, (Long) start, jobException != null);
+	}
+
+	/**
+	 * Records the start of a poll
+	 *
+	 * @param scheduled the time the poll was due, in milliseconds; 0 if unknown
+	 * @return the start time to pass to finished
+	 */
+	public long started(long scheduled) {
+		if (scheduled > 0) {
+			delay.record((System.currentTimeMillis() - scheduled) * 1000000L);
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the end of a poll
+	 *
+	 * @param name the name of the monitor instance
+	 * @param status the outcome of the poll, null if unknown
+	 * @param start the start time returned by started
+	 * @param failed true if the poll threw
+	 */
+	public void finished(String name, PollStatus status, long start, boolean failed) {
+		long elapsed = System.nanoTime() - start;
+		execute.record(elapsed);
+
+		JobMetrics metrics = jobs.get(name);
+		if (metrics == null) {
+			return;
+		}
+		metrics.execute.record(elapsed);
+
+		if (failed) {
+			metrics.errors.increment();
+		}
+		if (status == PollStatus.UNREACHABLE) {
+			metrics.unreachable.increment();
+		}
+	}
+
+	/**
+	 * Starts keeping the metrics of a monitor instance
+	 *
+	 * @param name the name of the monitor instance
+	 */
+	public void add(String name) {
+		jobs.putIfAbsent(name, new JobMetrics(registry, name));
+	}
+
+	/**
+	 * Stops keeping the metrics of a monitor instance. The recorders stay
+	 * in the MetricsRegistry until {@link MetricsRegistry#remove(String)}.
+	 *
+	 * @param name the name of the monitor instance
+	 */
+	public void remove(String name) {
+		jobs.remove(name);
+	}
+
+	/**
+	 * Records a poll that missed its fire time
+	 */
+	public void misfired() {
+		misfires.increment();
+	}
+
+	@Override
+	public void triggerFired(Trigger trigger, JobExecutionContext context) {
+	}
+
+	@Override
+	public boolean vetoJobExecution(Trigger trigger, JobExecutionContext context) {
+		return false;
+	}
+
+	@Override
+	public void triggerMisfired(Trigger trigger) {
+		misfired();
+	}
+
+	@Override
+	public void triggerComplete(Trigger trigger, JobExecutionContext context,
+			CompletedExecutionInstruction triggerInstructionCode) {
+	}
+}
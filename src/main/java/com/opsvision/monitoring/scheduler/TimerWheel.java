@@ -0,0 +1,237 @@
+package com.opsvision.monitoring.scheduler;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A hashed timer wheel (Varghese and Lauck). Time is cut into ticks, and
+ * the wheel is a ring of buckets, one per tick. A timeout goes into the
+ * bucket its deadline falls on, along with the number of full turns of
+ * the wheel still to wait. One thread advances the wheel a bucket per tick
+ * and hands the due tasks to an executor. Nothing runs on the tick thread.
+ *
+ * Scheduling and cancelling are O(1) and lock-free: both only enqueue the
+ * timeout, and the tick thread links or unlinks it on its next tick. A
+ * task runs within one tick after its deadline.
+ */
+public class TimerWheel implements Runnable {
+	private static final Logger logger = Logger.getLogger(TimerWheel.class);
+	private final Timeout[] buckets;
+	private final int mask;
+	private final long tick;
+	private final Executor executor;
+	private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+	private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private volatile Thread thread = null;
+	private final long start = System.nanoTime();
+	private long current = 0;
+
+	/**
+	 * A scheduled task, to cancel it with
+	 */
+	public static class Timeout {
+		private static final int WAITING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+		private final TimerWheel wheel;
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+		// Owned by the tick thread
+		private long rounds;
+		private int bucket = -1;
+		private Timeout prev;
+		private Timeout next;
+
+		private Timeout(TimerWheel wheel, Runnable task, long deadline) {
+			this.wheel = wheel;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancels the task if it has not been handed to the executor yet
+		 *
+		 * @return true if the task will not run
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(WAITING, CANCELLED)) {
+				return false;
+			}
+			wheel.cancelled.add(this);
+			return true;
+		}
+
+		/**
+		 * @return true if the task was cancelled
+		 */
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+	}
+
+	/**
+	 * @param tick the length of a tick in milliseconds
+	 * @param size the number of buckets, rounded up to a power of two
+	 * @param executor runs the tasks that are due
+	 */
+	public TimerWheel(long tick, int size, Executor executor) {
+		int n = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+		this.buckets = new Timeout[n];
+		this.mask = n - 1;
+		this.tick = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tick));
+		this.executor = executor;
+	}
+
+	/**
+	 * Starts the tick thread
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+
+		thread = new Thread(this, "TimerWheel");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the tick thread; tasks not yet due never run
+	 */
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+
+		thread.interrupt();
+		try {
+			thread.join();
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+
+	/**
+	 * Schedules a task
+	 *
+	 * @param task the task to run
+	 * @param delay the delay in milliseconds
+	 * @return the timeout to cancel the task with
+	 */
+	public Timeout schedule(Runnable task, long delay) {
+		Timeout timeout = new Timeout(this, task,
+				System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay)));
+		pending.incrementAndGet();
+		added.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * @return the number of tasks waiting to become due
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				long wait = start + (current + 1) * tick - System.nanoTime();
+				if (wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+
+				removeCancelled();
+				addScheduled();
+				expire(current & mask);
+				current++;
+			}
+
+		} catch (InterruptedException e) {
+			// stopped
+		}
+	}
+
+	// Links the new timeouts into their buckets
+	private void addScheduled() {
+		Timeout timeout;
+		while ((timeout = added.poll()) != null) {
+			if (timeout.state.get() != Timeout.WAITING) {
+				continue;
+			}
+
+			// A bucket expires once its tick has passed; a deadline already
+			// passed is due on this tick
+			long due = Math.max(current, (timeout.deadline - start) / tick);
+			timeout.rounds = (due - current) >> Integer.numberOfTrailingZeros(buckets.length);
+			link(timeout, (int) (due & mask));
+		}
+	}
+
+	private void removeCancelled() {
+		Timeout timeout;
+		while ((timeout = cancelled.poll()) != null) {
+			if (timeout.bucket >= 0) {
+				unlink(timeout);
+			}
+			pending.decrementAndGet();
+		}
+	}
+
+	// Hands every timeout of the bucket that is due to the executor
+	private void expire(long index) {
+		Timeout timeout = buckets[(int) index];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.rounds > 0) {
+				timeout.rounds--;
+
+			} else if (timeout.state.compareAndSet(Timeout.WAITING, Timeout.EXPIRED)) {
+				unlink(timeout);
+				pending.decrementAndGet();
+				try {
+					executor.execute(timeout.task);
+
+				} catch (RejectedExecutionException e) {
+					logger.warn("Executor rejected a task: " + e.getMessage());
+				}
+			}
+			timeout = next;
+		}
+	}
+
+	private void link(Timeout timeout, int bucket) {
+		timeout.bucket = bucket;
+		timeout.prev = null;
+		timeout.next = buckets[bucket];
+		if (timeout.next != null) {
+			timeout.next.prev = timeout;
+		}
+		buckets[bucket] = timeout;
+	}
+
+	private void unlink(Timeout timeout) {
+		if (timeout.prev != null) {
+			timeout.prev.next = timeout.next;
+		} else {
+			buckets[timeout.bucket] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.bucket = -1;
+		timeout.prev = null;
+		timeout.next = null;
+	}
+}
@@ -0,0 +1,96 @@
+package com.opsvision.monitoring.scheduler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.quartz.SchedulerConfigException;
+import org.quartz.spi.ThreadPool;
+
+/**
+ * Quartz ThreadPool that runs every job on a virtual thread of its own.
+ * Monitors spend nearly all of a poll blocked on network I/O, and a
+ * blocked virtual thread costs little more than its stack. Thousands of
+ * polls can therefore wait at once without sizing a pool of platform
+ * threads for the worst case. How many polls of one monitor type run at
+ * once is left to the {@link ConcurrencyLimiter}.
+ *
+ * Selected with monitor.main.executor=virtual.
+ */
+public class VirtualThreadPool implements ThreadPool {
+	private static final Logger logger = Logger.getLogger(VirtualThreadPool.class);
+	private String instanceName = "MonitoringAgent";
+	private ExecutorService executor = null;
+	private volatile boolean shutdown = false;
+
+	@Override
+	public boolean runInThread(Runnable runnable) {
+		if (runnable == null || shutdown) {
+			return false;
+		}
+
+		try {
+			executor.execute(runnable);
+			return true;
+
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Never blocks; there is no fixed number of threads to wait for
+	 */
+	@Override
+	public int blockForAvailableThreads() {
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public void initialize() throws SchedulerConfigException {
+		executor = Executors.newThreadPerTaskExecutor(
+				Thread.ofVirtual().name(instanceName + "-", 1).factory());
+		logger.debug("Running jobs on virtual threads");
+	}
+
+	@Override
+	public void shutdown(boolean waitForJobsToComplete) {
+		shutdown = true;
+		if (executor == null) {
+			return;
+		}
+
+		executor.shutdown();
+		if (!waitForJobsToComplete) {
+			return;
+		}
+
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				logger.debug("Waiting for running jobs to complete");
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return -1, the pool has no fixed size
+	 */
+	@Override
+	public int getPoolSize() {
+		return -1;
+	}
+
+	@Override
+	public void setInstanceId(String schedInstId) {
+	}
+
+	@Override
+	public void setInstanceName(String schedName) {
+		instanceName = schedName;
+	}
+}
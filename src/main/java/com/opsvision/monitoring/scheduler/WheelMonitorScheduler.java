@@ -0,0 +1,205 @@
+package com.opsvision.monitoring.scheduler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.apache.log4j.Logger;
+import org.quartz.JobExecutionException;
+
+import com.opsvision.monitoring.monitors.Monitor;
+import com.opsvision.monitoring.utils.PropertyHandler;
+
+/**
+ * Runs the monitors from a {@link TimerWheel} instead of Quartz. Every
+ * poll is one timeout on the wheel; when it is due the tick thread hands
+ * it to the executor, and once it has run it puts its next poll on the
+ * wheel. Scheduling and cancelling a monitor are O(1), with no trigger
+ * store, no listener chain and no lock around the whole schedule, which
+ * keeps the dispatch cost flat with tens of thousands of monitors.
+ *
+ * The tick length (monitor.main.wheel.tick, in milliseconds) bounds how
+ * late a poll starts; monitor.main.wheel.size buckets cover one turn of
+ * the wheel. Polls run on virtual threads or on a fixed pool, as chosen
+ * by monitor.main.executor. A monitor never runs concurrently with
+ * itself. A poll that overruns its next fire time skips the missed ones
+ * and counts a misfire. Monitors are executed with a null
+ * JobExecutionContext.
+ */
+public class WheelMonitorScheduler implements MonitorScheduler {
+	private static final Logger logger = Logger.getLogger(WheelMonitorScheduler.class);
+	private final ConcurrentMap<String, Poll> polls = new ConcurrentHashMap<>();
+	private final DispatchHistogram histogram = new DispatchHistogram(60);
+	private final SchedulerMetrics metrics = new SchedulerMetrics();
+	private final ConcurrencyLimiter limiter = new ConcurrencyLimiter();
+	private final AdaptiveRate adaptiveRate = new AdaptiveRate();
+	private final PhaseSpreader spreader = new PhaseSpreader();
+	private final ExecutorService executor;
+	private final TimerWheel wheel;
+	private volatile boolean stopped = false;
+
+	private final BooleanSupplier isStopped = new BooleanSupplier() {
+		@Override
+		public boolean getAsBoolean() {
+			return stopped;
+		}
+	};
+
+	// One scheduled monitor instance
+	private class Poll implements Runnable {
+		private final Monitor monitor;
+		private long interval;
+		private volatile long scheduled;
+		private volatile TimerWheel.Timeout timeout = null;
+		private volatile boolean cancelled = false;
+
+		Poll(Monitor monitor) {
+			this.monitor = monitor;
+			this.interval = monitor.getRate() * 1000L;
+		}
+
+		void schedule(long at) {
+			scheduled = at;
+			timeout = wheel.schedule(this, at - System.currentTimeMillis());
+
+			// cancel() may have missed the new timeout
+			if (cancelled) {
+				timeout.cancel();
+			}
+		}
+
+		void cancel() {
+			cancelled = true;
+			TimerWheel.Timeout current = timeout;
+			if (current != null) {
+				current.cancel();
+			}
+		}
+
+		@Override
+		public void run() {
+			histogram.record(System.currentTimeMillis() / 1000);
+
+			Semaphore permits = limiter.getPermits(monitor);
+			if (permits != null && !limiter.acquire(permits, isStopped)) {
+				return;
+			}
+
+			boolean failed = false;
+			long start = metrics.started(scheduled);
+			try {
+				monitor.execute(null);
+
+			} catch (JobExecutionException | RuntimeException e) {
+				failed = true;
+				logger.error(monitor.getName() + " failed: " + e.getMessage());
+
+			} finally {
+				if (permits != null) {
+					permits.release();
+				}
+			}
+			metrics.finished(monitor.getName(), monitor.getStatus(), start, failed);
+
+			if (!cancelled && !stopped) {
+				next();
+			}
+		}
+
+		// Puts the next poll on the wheel
+		private void next() {
+			long now = System.currentTimeMillis();
+
+			long rate = adaptiveRate.getInterval(monitor);
+			if (rate != interval) {
+				logger.info(monitor.getName() + " is " + monitor.getStatus() + ", polling every "
+						+ (rate / 1000) + "s");
+				interval = rate;
+				schedule(now + interval);
+				return;
+			}
+
+			long at = scheduled + interval;
+			if (at <= now) {
+				metrics.misfired();
+				at += ((now - at) / interval + 1) * interval;
+			}
+			schedule(at);
+		}
+	}
+
+	public WheelMonitorScheduler() {
+		PropertyHandler props = PropertyHandler.getInstance();
+
+		if ("virtual".equals(props.getValue("monitor.main.executor", "virtual"))) {
+			executor = Executors.newThreadPerTaskExecutor(
+					Thread.ofVirtual().name("MonitoringAgent-", 1).factory());
+		} else {
+			executor = Executors.newFixedThreadPool(
+					props.getInt("monitor.main.threads", 10));
+		}
+
+		wheel = new TimerWheel(
+				props.getLong("monitor.main.wheel.tick", 100),
+				props.getInt("monitor.main.wheel.size", 512),
+				executor);
+	}
+
+	@Override
+	public void start() {
+		wheel.start();
+	}
+
+	@Override
+	public boolean schedule(Monitor monitor) {
+		if (stopped) {
+			return false;
+		}
+
+		Poll poll = new Poll(monitor);
+		if (polls.putIfAbsent(monitor.getName(), poll) != null) {
+			logger.error(monitor.getName() + " is already scheduled");
+			return false;
+		}
+
+		metrics.add(monitor.getName());
+		poll.schedule(System.currentTimeMillis()
+				+ spreader.getStartDelay(monitor.getName(), poll.interval));
+		return true;
+	}
+
+	@Override
+	public boolean cancel(String name) {
+		Poll poll = polls.remove(name);
+		if (poll == null) {
+			return false;
+		}
+
+		poll.cancel();
+		metrics.remove(name);
+		return true;
+	}
+
+	@Override
+	public void shutdown(boolean waitForPolls) {
+		stopped = true;
+		wheel.stop();
+		executor.shutdown();
+		if (!waitForPolls) {
+			return;
+		}
+
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				logger.debug("Waiting for running polls to complete");
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package com.opsvision.monitoring.utils;
+
+/**
+ * Receives the changes of the config file picked up by the
+ * {@link ConfigWatcher}.
+ */
+public interface ConfigListener {
+
+	/**
+	 * Called on the watcher thread after the config file was reloaded and
+	 * the PropertyHandler already returns the new values.
+	 *
+	 * @param previous the configuration before the reload
+	 * @param current the configuration now in effect
+	 */
+	void configChanged(ConfigSnapshot previous, ConfigSnapshot current);
+}
@@ -0,0 +1,182 @@
+package com.opsvision.monitoring.utils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An immutable copy of the configuration. Exact keys are looked up in a
+ * hash map; key prefixes such as monitor.gatesair.tx1. in a map sorted by
+ * key, so the keys below a prefix are one range lookup instead of a scan
+ * of every key. Nothing changes after construction, so reads take no lock;
+ * a reload builds a new snapshot and the {@link PropertyHandler} swaps it
+ * in at once. Code that reads several keys should keep one snapshot, so
+ * they all come from the same version of the file.
+ *
+ * The typed accessors return the default for a missing or blank key, and
+ * log and return the default for a value that does not parse.
+ */
+public final class ConfigSnapshot {
+	private static final Logger logger = Logger.getLogger(ConfigSnapshot.class);
+	private final Map<String, String> values;
+	private final NavigableMap<String, String> sorted;
+
+	/**
+	 * @param props the properties to copy
+	 */
+	public ConfigSnapshot(Properties props) {
+		Map<String, String> map = new HashMap<>();
+		for (String key : props.stringPropertyNames()) {
+			map.put(key, props.getProperty(key));
+		}
+		values = map;
+		sorted = new TreeMap<>(map);
+	}
+
+	/**
+	 * @param key the property key
+	 * @return true if the key is set
+	 */
+	public boolean contains(String key) {
+		return values.containsKey(key);
+	}
+
+	/**
+	 * @param key the property key
+	 * @return the value, null if the key is not set
+	 */
+	public String getString(String key) {
+		return values.get(key);
+	}
+
+	/**
+	 * @param key the property key
+	 * @param defaultValue the value to use if the key is not set
+	 * @return the value
+	 */
+	public String getString(String key, String defaultValue) {
+		String value = values.get(key);
+		return (value == null) ? defaultValue : value;
+	}
+
+	/**
+	 * @param key the property key
+	 * @param defaultValue the value to use if the key is not set or not a number
+	 * @return the value
+	 */
+	public int getInt(String key, int defaultValue) {
+		String value = values.get(key);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+
+		try {
+			return Integer.parseInt(value.trim());
+
+		} catch (NumberFormatException e) {
+			return invalid(key, value, defaultValue);
+		}
+	}
+
+	/**
+	 * @param key the property key
+	 * @param defaultValue the value to use if the key is not set or not a number
+	 * @return the value
+	 */
+	public long getLong(String key, long defaultValue) {
+		String value = values.get(key);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+
+		try {
+			return Long.parseLong(value.trim());
+
+		} catch (NumberFormatException e) {
+			return invalid(key, value, defaultValue);
+		}
+	}
+
+	/**
+	 * @param key the property key
+	 * @param defaultValue the value to use if the key is not set or not a number
+	 * @return the value
+	 */
+	public double getDouble(String key, double defaultValue) {
+		String value = values.get(key);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+
+		try {
+			return Double.parseDouble(value.trim());
+
+		} catch (NumberFormatException e) {
+			return invalid(key, value, defaultValue);
+		}
+	}
+
+	/**
+	 * @param key the property key
+	 * @param defaultValue the value to use if the key is not set
+	 * @return true if the value is "true", ignoring case
+	 */
+	public boolean getBoolean(String key, boolean defaultValue) {
+		String value = values.get(key);
+		return (value == null) ? defaultValue : Boolean.parseBoolean(value.trim());
+	}
+
+	/**
+	 * @param prefix the key prefix, e.g. monitor.gatesair.
+	 * @return every key starting with the prefix and its value, sorted by key
+	 */
+	public SortedMap<String, String> getPrefixed(String prefix) {
+		return Collections.unmodifiableSortedMap(
+				sorted.subMap(prefix, true, prefix + Character.MAX_VALUE, false));
+	}
+
+	/**
+	 * @param prefix the key prefix, e.g. monitor.web.om.extract.
+	 * @return the value of every key &lt;prefix&gt;&lt;name&gt; where name
+	 *         has no further dot, keyed by name in key order
+	 */
+	public Map<String, String> getChildren(String prefix) {
+		Map<String, String> children = new LinkedHashMap<>();
+		for (Map.Entry<String, String> entry : getPrefixed(prefix).entrySet()) {
+			String name = entry.getKey().substring(prefix.length());
+			if (!name.isEmpty() && name.indexOf('.') < 0) {
+				children.put(name, entry.getValue());
+			}
+		}
+		return children;
+	}
+
+	/**
+	 * @return the number of keys
+	 */
+	public int size() {
+		return values.size();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return (other instanceof ConfigSnapshot) && values.equals(((ConfigSnapshot) other).values);
+	}
+
+	@Override
+	public int hashCode() {
+		return values.hashCode();
+	}
+
+	private static <T> T invalid(String key, String value, T defaultValue) {
+		logger.warn("Invalid value " + key + "=" + value + ", using " + defaultValue);
+		return defaultValue;
+	}
+}
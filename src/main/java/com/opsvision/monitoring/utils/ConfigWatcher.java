@@ -0,0 +1,207 @@
+package com.opsvision.monitoring.utils;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Watches the config file named by the monitor.config system property and
+ * reloads the PropertyHandler when it changes, so monitors can be added,
+ * removed or changed without restarting the agent. The directory of the
+ * file is watched, which also catches editors that save by replacing the
+ * file. A change is reloaded once the file has been quiet for
+ * monitor.main.config.reload milliseconds (0 = never reload), and only
+ * then passed to the {@link ConfigListener}s. A file that cannot be read
+ * leaves the current configuration in effect.
+ *
+ * config.properties on the classpath is never watched.
+ */
+public class ConfigWatcher implements Runnable {
+	final static Logger logger = Logger.getLogger(ConfigWatcher.class);
+	private static ConfigWatcher _instance = null;
+	private final List<ConfigListener> listeners = new CopyOnWriteArrayList<>();
+	private WatchService watcher = null;
+	private Path file = null;
+	private long settle = 0;
+	private volatile Thread thread = null;
+
+	/**
+	 * Singleton constructor
+	 */
+	private ConfigWatcher() {
+	}
+
+	/**
+	 * Method to return an instance of the ConfigWatcher
+	 *
+	 * @return an instance of the ConfigWatcher
+	 */
+	public static synchronized ConfigWatcher getInstance() {
+		if (_instance == null)
+			_instance = new ConfigWatcher();
+		return _instance;
+	}
+
+	/**
+	 * @param listener called after every reload that changed the config
+	 */
+	public void addListener(ConfigListener listener) {
+		if (!listeners.contains(listener)) {
+			listeners.add(listener);
+		}
+	}
+
+	/**
+	 * Starts watching the config file. Failing to watch it is logged; the
+	 * agent keeps running on the configuration it has.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+
+		String name = PropertyHandler.getFile();
+		settle = PropertyHandler.getInstance().getLong("monitor.main.config.reload", 1000);
+		if (name == null || settle <= 0) {
+			logger.debug("Config reloading is disabled");
+			return;
+		}
+
+		try {
+			file = Paths.get(name).toAbsolutePath();
+			watcher = FileSystems.getDefault().newWatchService();
+			file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+
+		} catch (IOException e) {
+			logger.error("Failed to watch " + name + ": " + e.getMessage());
+			close();
+			return;
+		}
+
+		thread = new Thread(this, "ConfigWatcher");
+		thread.setDaemon(true);
+		thread.start();
+		logger.debug("Watching " + file + " for changes");
+	}
+
+	/**
+	 * Stops watching; a reload in progress completes first
+	 */
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+
+		close();
+		try {
+			thread.join(5000);
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		thread = null;
+		logger.debug("Config watcher stopped");
+	}
+
+	@Override
+	public void run() {
+		WatchService service = watcher;
+		try {
+			while (true) {
+				WatchKey key = service.take();
+				boolean changed = isChanged(key);
+				key.reset();
+				if (!changed) {
+					continue;
+				}
+
+				// Editors save in several steps; wait until the file is quiet.
+				// Other files of the directory may keep changing meanwhile.
+				long quiet = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settle);
+				long wait;
+				while ((wait = quiet - System.nanoTime()) > 0) {
+					key = service.poll(wait, TimeUnit.NANOSECONDS);
+					if (key != null) {
+						if (isChanged(key)) {
+							quiet = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settle);
+						}
+						key.reset();
+					}
+				}
+
+				reload();
+			}
+
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// stopped
+		}
+	}
+
+	// Drains the events of a key; true if any of them may be our file
+	private boolean isChanged(WatchKey key) {
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW
+					|| file.getFileName().equals(event.context())) {
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private void reload() {
+		PropertyHandler props = PropertyHandler.getInstance();
+		ConfigSnapshot previous;
+		try {
+			previous = props.reload();
+
+		} catch (IOException | IllegalArgumentException e) {
+			logger.error("Failed to reload " + file + ", keeping the current config: "
+					+ e.getMessage());
+			return;
+		}
+
+		if (previous == null) {
+			logger.debug(file + " is unchanged");
+			return;
+		}
+
+		logger.info("Reloaded " + file);
+		ConfigSnapshot current = props.getSnapshot();
+		for (ConfigListener listener : listeners) {
+			try {
+				listener.configChanged(previous, current);
+
+			} catch (RuntimeException e) {
+				logger.error("Failed to apply the reloaded config: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	private void close() {
+		if (watcher == null) {
+			return;
+		}
+
+		try {
+			watcher.close();
+
+		} catch (IOException e) {
+			logger.warn(e.getMessage());
+		}
+		watcher = null;
+	}
+}
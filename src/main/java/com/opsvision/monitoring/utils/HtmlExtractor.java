@@ -0,0 +1,296 @@
+package com.opsvision.monitoring.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pulls labelled values out of an HTML status page without building a DOM.
+ * Each rule names a label, e.g. "Forward RF Level"; its value is the first
+ * word of the table cell that follows the cell holding the label, which is
+ * how the device web pages lay out their readings:
+ *
+ * <pre>
+ * &lt;td&gt;Forward RF Level&lt;/td&gt;&lt;td&gt;52.3 dBm&lt;/td&gt;  -&gt;  52.3
+ * </pre>
+ *
+ * The extractor tokenizes the raw response bytes in a single pass and
+ * stops as soon as every rule has a value. Labels are matched byte for
+ * byte in the page encoding (UTF-8 or any ASCII superset), with any run of
+ * white space in the page matching a single space in the label.
+ *
+ * An extractor is immutable and can be shared between threads.
+ */
+public class HtmlExtractor {
+	private static final int SEARCHING = 0;
+	private static final int LABELLED = 1;
+	private static final int IN_CELL = 2;
+	private final String[] names;
+	private final byte[][] labels;
+
+	/**
+	 * Creates an extractor for a set of rules
+	 *
+	 * @param rules the labels to look for, keyed by the name of the value
+	 */
+	public HtmlExtractor(Map<String, String> rules) {
+		names = new String[rules.size()];
+		labels = new byte[rules.size()][];
+
+		int i = 0;
+		for (Map.Entry<String, String> rule : rules.entrySet()) {
+			names[i] = rule.getKey();
+			labels[i] = rule.getValue().trim().replaceAll("\\s+", " ")
+					.getBytes(StandardCharsets.UTF_8);
+			i++;
+		}
+	}
+
+	/**
+	 * Method for building the rules of a monitor from its properties; every
+	 * key &lt;prefix&gt;&lt;name&gt;=&lt;label&gt; is one rule.
+	 *
+	 * @param prefix the property key prefix, e.g. monitor.web.om.extract.
+	 * @return the rules keyed by name, empty if none are configured
+	 */
+	public static Map<String, String> getRules(String prefix) {
+		return PropertyHandler.getInstance().getSnapshot().getChildren(prefix);
+	}
+
+	/**
+	 * @return the names of the values this extractor looks for
+	 */
+	public List<String> getNames() {
+		List<String> list = new ArrayList<>(names.length);
+		for (String name : names) {
+			list.add(name);
+		}
+		return list;
+	}
+
+	/**
+	 * Extracts the values of every rule from a page
+	 *
+	 * @param html the raw bytes of the page
+	 * @return the values found, keyed by rule name; rules whose label or
+	 *         value was not found are missing from the map
+	 */
+	public Map<String, String> extract(byte[] html) {
+		String[] found = new String[names.length];
+		extract(html, found);
+
+		Map<String, String> values = new HashMap<>();
+		for (int r = 0; r < names.length; r++) {
+			if (found[r] != null) {
+				values.put(names[r], found[r]);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Extracts the values of every rule from a page into an array indexed
+	 * like the rules (the iteration order of the map given to the
+	 * constructor).
+	 *
+	 * @param html the raw bytes of the page
+	 * @param values receives the values; entries of rules whose label or
+	 *        value was not found are set to null
+	 * @return the number of values found
+	 */
+	public int extract(byte[] html, String[] values) {
+		int[] state = new int[names.length];
+		int pending = names.length;
+		for (int r = 0; r < names.length; r++) {
+			values[r] = null;
+		}
+
+		int i = 0;
+		while (i < html.length && pending > 0) {
+			if (html[i] == '<') {
+				int end = skipTag(html, i);
+
+				// Entering the next cell arms the rules that saw their label
+				if (isCellStart(html, i)) {
+					for (int r = 0; r < state.length; r++) {
+						if (state[r] == LABELLED) {
+							state[r] = IN_CELL;
+						}
+					}
+				}
+
+				i = end;
+				continue;
+			}
+
+			// A run of text up to the next tag
+			int start = i;
+			while (i < html.length && html[i] != '<') {
+				i++;
+			}
+
+			String word = null;
+			for (int r = 0; r < state.length; r++) {
+				if (state[r] == SEARCHING && contains(html, start, i, labels[r])) {
+					state[r] = LABELLED;
+
+				} else if (state[r] == IN_CELL) {
+					if (word == null) {
+						word = firstWord(html, start, i);
+					}
+					if (word != null) {
+						values[r] = word;
+						state[r] = -1;
+						pending--;
+					}
+				}
+			}
+		}
+
+		return names.length - pending;
+	}
+
+	// Returns the index just past the tag, comment or raw text element at i
+	private static int skipTag(byte[] html, int i) {
+		if (startsWith(html, i, "<!--")) {
+			int end = indexOf(html, i + 4, "-->");
+			return (end < 0) ? html.length : end + 3;
+		}
+
+		boolean script = startsWith(html, i, "<script");
+		boolean style = startsWith(html, i, "<style");
+
+		byte quote = 0;
+		int j = i + 1;
+		for (; j < html.length; j++) {
+			byte b = html[j];
+			if (quote != 0) {
+				if (b == quote) {
+					quote = 0;
+				}
+			} else if (b == '"' || b == '\'') {
+				quote = b;
+			} else if (b == '>') {
+				break;
+			}
+		}
+		j++;
+
+		// Script and style content is not page text
+		if (script || style) {
+			int end = indexOf(html, j, script ? "</script" : "</style");
+			return (end < 0) ? html.length : skipTag(html, end);
+		}
+
+		return Math.min(j, html.length);
+	}
+
+	private static boolean isCellStart(byte[] html, int i) {
+		if (!startsWith(html, i, "<td") && !startsWith(html, i, "<th")) {
+			return false;
+		}
+		if (i + 3 >= html.length) {
+			return false;
+		}
+		byte b = html[i + 3];
+		return b == '>' || b == '/' || isSpace(b);
+	}
+
+	// Label match where a run of page white space matches one label space
+	private static boolean contains(byte[] html, int from, int to, byte[] label) {
+		if (label.length == 0) {
+			return false;
+		}
+
+		for (int s = from; s < to; s++) {
+			int h = s;
+			int l = 0;
+			while (l < label.length && h < to) {
+				if (label[l] == ' ') {
+					if (!isSpace(html[h])) {
+						break;
+					}
+					while (h < to && isSpace(html[h])) {
+						h++;
+					}
+					l++;
+
+				} else if (html[h] == label[l]) {
+					h++;
+					l++;
+
+				} else {
+					break;
+				}
+			}
+
+			if (l == label.length) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	// The first word of a text run, skipping white space and entities
+	private static String firstWord(byte[] html, int from, int to) {
+		int i = from;
+		while (i < to) {
+			if (isSpace(html[i])) {
+				i++;
+			} else if (html[i] == '&') {
+				int end = indexOf(html, i, ";");
+				i = (end < 0 || end >= to) ? to : end + 1;
+			} else {
+				break;
+			}
+		}
+
+		int start = i;
+		while (i < to && !isSpace(html[i]) && html[i] != '&') {
+			i++;
+		}
+
+		return (i > start) ? new String(html, start, i - start, StandardCharsets.UTF_8) : null;
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+	}
+
+	// Case insensitive for ASCII; text must be lower case
+	private static boolean startsWith(byte[] html, int i, String text) {
+		if (i + text.length() > html.length) {
+			return false;
+		}
+		for (int k = 0; k < text.length(); k++) {
+			int b = html[i + k];
+			if (b >= 'A' && b <= 'Z') {
+				b += 'a' - 'A';
+			}
+			if (b != text.charAt(k)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds text in a page, ignoring the case of ASCII letters
+	 *
+	 * @param html the raw bytes of the page
+	 * @param from the index to start searching at
+	 * @param text the lower case text to look for
+	 * @return the index of the text, or -1 if it was not found
+	 */
+	public static int indexOf(byte[] html, int from, String text) {
+		for (int i = Math.max(0, from); i + text.length() <= html.length; i++) {
+			if (startsWith(html, i, text)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
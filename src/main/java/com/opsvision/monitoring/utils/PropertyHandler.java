@@ -1,40 +1,37 @@
 package com.opsvision.monitoring.utils;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 
-
+/**
+ * Holds the agent configuration as a {@link ConfigSnapshot}. Reads go to
+ * the current snapshot without taking a lock; a reload replaces the whole
+ * snapshot at once, so a reader sees either the old or the new file, never
+ * a mix of both.
+ */
 public class PropertyHandler {
 	final static Logger logger = Logger.getLogger(PropertyHandler.class);
-	private static PropertyHandler _instance = null;
-	private Properties props = new Properties();
+	private static volatile PropertyHandler _instance = null;
+	private volatile ConfigSnapshot config = null;
 
 	/**
-	 * Singleton constructor
+	 * Singleton constructor; the properties are read from the file named by
+	 * the monitor.config system property, or else from config.properties on
+	 * the classpath
 	 */
 	private PropertyHandler() {
 		logger.debug("Loading application properties");
 		try {
-			InputStream config = PropertyHandler.class.getClassLoader().getResourceAsStream("config.properties");
-
-			if (config == null) {
-				logger.error("Failed to locate the config file (config.properties)");
-				System.exit(-1);
-			}
-
-			// load the properties
-			props.load(config);
-
-			// close the stream
-			config.close();
-
-			logger.debug("Loaded " + props.size() + " application properties");
+			config = load();
+			logger.debug("Loaded " + config.size() + " application properties");
 
 		} catch (IOException e) {
 			logger.error("Failed to load config file: " + e.getMessage());
@@ -43,14 +40,29 @@ public class PropertyHandler {
 	}
 
 	/**
-	 * Method to return an instance of the PropertyHandler
+	 * Method to return an instance of the PropertyHandler; only the first
+	 * call locks, as every property read goes through here
 	 *
 	 * @return an instance of the PropertyHandler
 	 */
-	public static synchronized PropertyHandler getInstance() {
-		if (_instance == null)
-			_instance = new PropertyHandler();
-		return _instance;
+	public static PropertyHandler getInstance() {
+		PropertyHandler instance = _instance;
+		if (instance == null) {
+			synchronized (PropertyHandler.class) {
+				if (_instance == null)
+					_instance = new PropertyHandler();
+				instance = _instance;
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @return the configuration in effect; keep it to read several keys
+	 *         from the same version of the file
+	 */
+	public ConfigSnapshot getSnapshot() {
+		return config;
 	}
 
 	/**
@@ -60,7 +72,7 @@ public class PropertyHandler {
 	 * @return The value of the Property requested
 	 */
 	public String getValue(String propKey) {
-		return props.getProperty(propKey);
+		return config.getString(propKey);
 	}
 
 	/**
@@ -71,26 +83,103 @@ public class PropertyHandler {
 	 * @return The Property value
 	 */
 	public String getValue(String propKey, String defaultValue) {
-		return props.getProperty(propKey, defaultValue);
+		return config.getString(propKey, defaultValue);
 	}
 
 	/**
-	 * Method for returning multiple Properties using a regular expression
+	 * @param propKey The Property key
+	 * @param defaultValue The value to use if the key is not found or not a number
+	 * @return The Property value
+	 */
+	public int getInt(String propKey, int defaultValue) {
+		return config.getInt(propKey, defaultValue);
+	}
+
+	/**
+	 * @param propKey The Property key
+	 * @param defaultValue The value to use if the key is not found or not a number
+	 * @return The Property value
+	 */
+	public long getLong(String propKey, long defaultValue) {
+		return config.getLong(propKey, defaultValue);
+	}
+
+	/**
+	 * @param propKey The Property key
+	 * @param defaultValue The value to use if the key is not found
+	 * @return The Property value
+	 */
+	public boolean getBoolean(String propKey, boolean defaultValue) {
+		return config.getBoolean(propKey, defaultValue);
+	}
+
+	/**
+	 * Method for returning multiple Properties using a regular expression.
+	 * The keys below a known prefix are found faster with
+	 * {@link ConfigSnapshot#getPrefixed(String)}.
 	 *
 	 * @param regex A regular expression to use when searching for Property keys
 	 * @return The Properties found using the key regular expression
 	 */
 	public Map<String, String> getProperties(String regex) {
 		Map<String, String> properties = new HashMap<String, String>();
+		Matcher matcher = Pattern.compile(regex).matcher("");
 
-		Enumeration<Object> enumeration = props.keys();
-		while(enumeration.hasMoreElements()) {
-			String key = (String)enumeration.nextElement();
-			if (key.matches(regex)) {
-				properties.put(key, props.getProperty(key));
+		for (Map.Entry<String, String> entry : config.getPrefixed("").entrySet()) {
+			if (matcher.reset(entry.getKey()).matches()) {
+				properties.put(entry.getKey(), entry.getValue());
 			}
 		}
 
 		return properties;
 	}
+
+	/**
+	 * @return the config file named by the monitor.config system property,
+	 *         null if config.properties is read from the classpath
+	 */
+	public static String getFile() {
+		return System.getProperty("monitor.config");
+	}
+
+	/**
+	 * Method for reading the config file again. The new snapshot replaces
+	 * the old one at once; if the file cannot be read the old one stays.
+	 *
+	 * @return the replaced snapshot, null if nothing changed
+	 * @throws IOException if the file could not be read
+	 */
+	public synchronized ConfigSnapshot reload() throws IOException {
+		ConfigSnapshot loaded = load();
+		if (loaded.equals(config)) {
+			return null;
+		}
+
+		ConfigSnapshot previous = config;
+		config = loaded;
+		logger.debug("Reloaded " + loaded.size() + " application properties");
+		return previous;
+	}
+
+	private static ConfigSnapshot load() throws IOException {
+		String file = getFile();
+		InputStream config = (file != null) ? new FileInputStream(file)
+				: PropertyHandler.class.getClassLoader().getResourceAsStream("config.properties");
+
+		if (config == null) {
+			logger.error("Failed to locate the config file (config.properties)");
+			System.exit(-1);
+		}
+
+		// load the properties
+		Properties loaded = new Properties();
+		try {
+			loaded.load(config);
+
+		} finally {
+			config.close();
+		}
+
+		return new ConfigSnapshot(loaded);
+	}
 }
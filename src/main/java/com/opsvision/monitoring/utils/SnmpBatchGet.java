@@ -0,0 +1,236 @@
+package com.opsvision.monitoring.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.snmp4j.PDU;
+import org.snmp4j.Target;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+
+import com.opsvision.monitoring.metrics.Counter;
+import com.opsvision.monitoring.metrics.LatencyRecorder;
+import com.opsvision.monitoring.metrics.MetricsRegistry;
+
+/**
+ * Fetches several OIDs from one agent with as few GET requests as possible.
+ * The OIDs are packed into a single PDU and only split when the encoded
+ * request would exceed the target's maximum PDU size, or when the agent
+ * answers with a tooBig error. Requests go through the {@link SnmpPoller}
+ * so no thread is held while the agent answers. A monitor that polls the
+ * same OIDs every time builds a {@link SnmpGetTemplate} once and passes it
+ * here, so the packing is not redone on each poll.
+ */
+public class SnmpBatchGet {
+	final static Logger logger = Logger.getLogger(SnmpBatchGet.class);
+	private static final LatencyRecorder latency = MetricsRegistry.getInstance().recorder("snmp.batchget");
+	private static final Counter failures = MetricsRegistry.getInstance().counter("snmp.batchget.failures");
+
+	/**
+	 * Performs a batched GET and waits for the result. OIDs the agent does not
+	 * know (noSuchName, noSuchObject, noSuchInstance) are left out of the result.
+	 *
+	 * @param host the agent host name or address
+	 * @param port the agent UDP port
+	 * @param communityString the community string
+	 * @param oids the OIDs to fetch
+	 * @return the values keyed by OID, or null if the agent did not respond
+	 */
+	public static Map<OID, Variable> doGet(String host, String port, String communityString, List<OID> oids) {
+		return doGet(SnmpSession.getInstance().getTarget(
+				host, port, communityString, SnmpConstants.version1), oids);
+	}
+
+	/**
+	 * Performs a batched GET against a target and waits for the result.
+	 *
+	 * @param target the agent, including its timeout and retry policy
+	 * @param oids the OIDs to fetch
+	 * @return the values keyed by OID, or null if the agent did not respond
+	 */
+	public static Map<OID, Variable> doGet(Target target, List<OID> oids) {
+		return doGet(new SnmpGetTemplate(target, oids));
+	}
+
+	/**
+	 * Performs a prepared GET and waits for the result.
+	 *
+	 * @param template the agent and OIDs, packed into request PDUs
+	 * @return the values keyed by OID, or null if the agent did not respond
+	 */
+	public static Map<OID, Variable> doGet(SnmpGetTemplate template) {
+		long start = System.nanoTime();
+		Map<OID, Variable> values = null;
+		try {
+			values = doGetAsync(template).get();
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		latency.recordSince(start);
+		if (values == null) {
+			failures.increment();
+		}
+		return values;
+	}
+
+	/**
+	 * Starts a batched GET against a target without waiting. When the OIDs
+	 * need several PDUs they are all in flight at the same time.
+	 *
+	 * @param target the agent, including its timeout and retry policy
+	 * @param oids the OIDs to fetch
+	 * @return a future for the values keyed by OID, completed with null if the
+	 *         agent did not respond
+	 */
+	public static SnmpFuture<Map<OID, Variable>> doGetAsync(Target target, List<OID> oids) {
+		return doGetAsync(new SnmpGetTemplate(target, oids));
+	}
+
+	/**
+	 * Starts a prepared GET without waiting. When the OIDs need several PDUs
+	 * they are all in flight at the same time.
+	 *
+	 * @param template the agent and OIDs, packed into request PDUs
+	 * @return a future for the values keyed by OID, completed with null if the
+	 *         agent did not respond
+	 */
+	public static SnmpFuture<Map<OID, Variable>> doGetAsync(SnmpGetTemplate template) {
+		List<List<VariableBinding>> chunks = template.getChunks();
+		Batch batch = new Batch(template, chunks.size());
+		if (chunks.isEmpty()) {
+			batch.future.complete(Collections.<OID, Variable>emptyMap());
+			return batch.future;
+		}
+
+		PDU[] pdus = template.acquire();
+		for (int i = 0; i < pdus.length; i++) {
+			batch.send(pdus[i], chunks.get(i));
+		}
+
+		return batch.future;
+	}
+
+	/**
+	 * Tracks the PDUs of one batched GET until all of them are answered.
+	 */
+	private static class Batch {
+		private final SnmpFuture<Map<OID, Variable>> future = new SnmpFuture<>();
+		private final Map<OID, Variable> values = new LinkedHashMap<>();
+		private final SnmpGetTemplate template;
+		private final Target target;
+		private int pending;
+		private boolean failed = false;
+
+		Batch(SnmpGetTemplate template, int pending) {
+			this.template = template;
+			this.target = template.getTarget();
+			this.pending = pending;
+		}
+
+		void send(List<VariableBinding> chunk) {
+			PDU pdu = new PDU();
+			pdu.setType(PDU.GET);
+			for (VariableBinding variableBinding : chunk) {
+				pdu.add(variableBinding);
+			}
+
+			send(pdu, chunk);
+		}
+
+		void send(final PDU pdu, final List<VariableBinding> chunk) {
+			SnmpPoller.getInstance().send(pdu, target).addListener(
+					new SnmpFutureListener<ResponseEvent>() {
+						@Override
+						public void onComplete(ResponseEvent event) {
+							template.release(pdu);
+							handle(chunk, event);
+						}
+					});
+		}
+
+		private void handle(List<VariableBinding> chunk, ResponseEvent event) {
+			PDU response = (event == null) ? null : event.getResponse();
+			if (response == null) {
+				fail("No response from " + target.getAddress());
+				return;
+			}
+
+			switch (response.getErrorStatus()) {
+				case PDU.noError:
+					synchronized (this) {
+						for (Object o : response.getVariableBindings()) {
+							VariableBinding variableBinding = (VariableBinding) o;
+							if (!variableBinding.isException()) {
+								values.put(variableBinding.getOid(), variableBinding.getVariable());
+							}
+						}
+					}
+					done();
+					return;
+
+				case PDU.tooBig:
+					// Let the agent tell us its real limit; halve until it fits
+					if (chunk.size() > 1) {
+						synchronized (this) {
+							pending++;
+						}
+						int half = chunk.size() / 2;
+						send(chunk.subList(0, half));
+						send(chunk.subList(half, chunk.size()));
+						return;
+					}
+					break;
+
+				case PDU.noSuchName:
+					// SNMPv1 rejects the whole PDU; drop the offending OID and retry the rest
+					int index = response.getErrorIndex() - 1;
+					if (index >= 0 && index < chunk.size()) {
+						logger.debug("No such name: " + chunk.get(index).getOid());
+						List<VariableBinding> remaining = new ArrayList<>(chunk);
+						remaining.remove(index);
+						if (remaining.isEmpty()) {
+							done();
+						} else {
+							send(remaining);
+						}
+						return;
+					}
+					break;
+			}
+
+			fail("Error response from " + target.getAddress() + ": "
+					+ response.getErrorStatusText());
+		}
+
+		private void done() {
+			Map<OID, Variable> result = null;
+			synchronized (this) {
+				if (--pending > 0 || failed) {
+					return;
+				}
+				result = values;
+			}
+			future.complete(result);
+		}
+
+		private void fail(String message) {
+			synchronized (this) {
+				if (failed) {
+					return;
+				}
+				failed = true;
+			}
+			logger.error(message);
+			future.complete(null);
+		}
+	}
+}
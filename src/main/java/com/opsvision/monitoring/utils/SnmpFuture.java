@@ -0,0 +1,105 @@
+package com.opsvision.monitoring.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The pending result of an asynchronous SNMP operation. Following the rest
+ * of the SNMP utilities a failed operation completes with a null value
+ * rather than an exception, so {@link #get()} only ever waits.
+ *
+ * @param <T> the type of the completed value
+ */
+public class SnmpFuture<T> implements Future<T> {
+	final static Logger logger = Logger.getLogger(SnmpFuture.class);
+	private final CountDownLatch latch = new CountDownLatch(1);
+	private List<SnmpFutureListener<T>> listeners = new ArrayList<>();
+	private volatile boolean completed = false;
+	private T value = null;
+
+	/**
+	 * Completes the future and notifies the listeners on the calling thread.
+	 * Only the first call has any effect.
+	 *
+	 * @param value the result, null if the operation failed
+	 */
+	public void complete(T value) {
+		List<SnmpFutureListener<T>> notify;
+		synchronized (this) {
+			if (completed) {
+				return;
+			}
+
+			this.value = value;
+			completed = true;
+			notify = listeners;
+			listeners = null;
+		}
+
+		latch.countDown();
+		for (SnmpFutureListener<T> listener : notify) {
+			fire(listener, value);
+		}
+	}
+
+	/**
+	 * Registers a listener; if the future has already completed the listener
+	 * is called immediately on the calling thread.
+	 *
+	 * @param listener the listener to call on completion
+	 */
+	public void addListener(SnmpFutureListener<T> listener) {
+		synchronized (this) {
+			if (!completed) {
+				listeners.add(listener);
+				return;
+			}
+		}
+
+		fire(listener, value);
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		return completed;
+	}
+
+	@Override
+	public T get() throws InterruptedException {
+		latch.await();
+		return value;
+	}
+
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		if (!latch.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return value;
+	}
+
+	private void fire(SnmpFutureListener<T> listener, T result) {
+		try {
+			listener.onComplete(result);
+
+		} catch (RuntimeException e) {
+			logger.error("SNMP completion listener failed: " + e.getMessage());
+		}
+	}
+}
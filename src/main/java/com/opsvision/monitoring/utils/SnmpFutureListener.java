@@ -0,0 +1,17 @@
+package com.opsvision.monitoring.utils;
+
+/**
+ * Callback for the completion of an {@link SnmpFuture}.
+ *
+ * @param <T> the type of the completed value
+ */
+public interface SnmpFutureListener<T> {
+
+	/**
+	 * Called once when the future completes. Listeners usually run on the
+	 * SNMP transport thread, so they must not block.
+	 *
+	 * @param result the completed value, null if the request failed
+	 */
+	void onComplete(T result);
+}
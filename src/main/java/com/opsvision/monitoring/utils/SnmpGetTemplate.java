@@ -0,0 +1,144 @@
+package com.opsvision.monitoring.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.snmp4j.CommunityTarget;
+import org.snmp4j.PDU;
+import org.snmp4j.Target;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * A GET of a fixed set of OIDs from one agent, prepared once and sent on
+ * every poll. The target address is parsed and the OIDs are packed into
+ * request PDUs when the template is built; a poll only resets the request
+ * ID of each PDU, so snmp4j assigns a fresh one, and sends it again.
+ *
+ * The PDUs are reused while no earlier request of the template is still
+ * waiting for its response. A monitor never polls concurrently with itself,
+ * so that is every poll but one that follows a timed out wait; then the
+ * poll sends copies and leaves the originals to the pending request.
+ */
+public class SnmpGetTemplate {
+	// Rough BER size of the message and PDU headers around the varbinds
+	private static final int MESSAGE_OVERHEAD = 32;
+
+	private final Target target;
+	private final List<OID> oids;
+	private final List<List<VariableBinding>> chunks;
+	private final PDU[] pdus;
+	private final AtomicInteger pending = new AtomicInteger();
+
+	/**
+	 * @param target the agent, including its timeout and retry policy
+	 * @param oids the OIDs to fetch
+	 */
+	public SnmpGetTemplate(Target target, List<OID> oids) {
+		this.target = target;
+		this.oids = Collections.unmodifiableList(new ArrayList<>(oids));
+		this.chunks = pack(target, this.oids);
+
+		pdus = new PDU[chunks.size()];
+		for (int i = 0; i < pdus.length; i++) {
+			pdus[i] = new PDU();
+			pdus[i].setType(PDU.GET);
+			for (VariableBinding variableBinding : chunks.get(i)) {
+				pdus[i].add(variableBinding);
+			}
+		}
+	}
+
+	/**
+	 * @return the agent, including its timeout and retry policy
+	 */
+	public Target getTarget() {
+		return target;
+	}
+
+	/**
+	 * @return the OIDs fetched, in the order given
+	 */
+	public List<OID> getOids() {
+		return oids;
+	}
+
+	/**
+	 * @return the varbinds of each request PDU
+	 */
+	List<List<VariableBinding>> getChunks() {
+		return chunks;
+	}
+
+	/**
+	 * Claims the request PDUs for one GET. Every PDU claimed must be handed
+	 * back with {@link #release(PDU)} once its response or timeout has arrived.
+	 *
+	 * @return the PDUs ready to send, or copies if the previous GET still
+	 *         holds them
+	 */
+	PDU[] acquire() {
+		if (pending.compareAndSet(0, pdus.length)) {
+			for (PDU pdu : pdus) {
+				pdu.setRequestID(new Integer32(0));
+			}
+			return pdus;
+		}
+
+		PDU[] copies = new PDU[pdus.length];
+		for (int i = 0; i < copies.length; i++) {
+			copies[i] = (PDU) pdus[i].clone();
+			copies[i].setRequestID(new Integer32(0));
+		}
+		return copies;
+	}
+
+	/**
+	 * Hands back one PDU returned by {@link #acquire()}
+	 *
+	 * @param pdu the PDU whose request has completed
+	 */
+	void release(PDU pdu) {
+		for (PDU own : pdus) {
+			if (own == pdu) {
+				pending.decrementAndGet();
+				return;
+			}
+		}
+	}
+
+	// Packs the varbinds into as few PDUs as the target's size limit allows
+	private static List<List<VariableBinding>> pack(Target target, List<OID> oids) {
+		int overhead = MESSAGE_OVERHEAD;
+		if (target instanceof CommunityTarget) {
+			overhead += ((CommunityTarget) target).getCommunity().length();
+		}
+
+		List<List<VariableBinding>> chunks = new ArrayList<>();
+		List<VariableBinding> chunk = new ArrayList<>();
+		int size = overhead;
+
+		for (OID oid : oids) {
+			VariableBinding variableBinding = new VariableBinding(oid);
+			int length = variableBinding.getBERLength();
+
+			if (!chunk.isEmpty() && size + length > target.getMaxSizeRequestPDU()) {
+				chunks.add(Collections.unmodifiableList(chunk));
+				chunk = new ArrayList<>();
+				size = overhead;
+			}
+
+			chunk.add(variableBinding);
+			size += length;
+		}
+
+		if (!chunk.isEmpty()) {
+			chunks.add(Collections.unmodifiableList(chunk));
+		}
+
+		return Collections.unmodifiableList(chunks);
+	}
+}
@@ -0,0 +1,167 @@
+package com.opsvision.monitoring.utils;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+
+import com.opsvision.monitoring.metrics.Counter;
+import com.opsvision.monitoring.metrics.LatencyRecorder;
+import com.opsvision.monitoring.metrics.MetricsRegistry;
+
+/**
+ * Non-blocking request engine on top of the shared {@link SnmpSession}.
+ * Requests are handed to snmp4j with a {@link ResponseListener} so no
+ * thread waits for the agent; timeouts and retries come from each request's
+ * target. At most {@code monitor.main.snmp.maxoutstanding} requests are on
+ * the wire at once, the rest wait in a queue and are sent as responses (or
+ * timeouts) free the window. Every request's round trip is recorded as
+ * snmp.request, and timeouts, error responses and send failures are counted.
+ */
+public class SnmpPoller {
+	final static Logger logger = Logger.getLogger(SnmpPoller.class);
+	private static SnmpPoller _instance = null;
+	private final Queue<Request> backlog = new ConcurrentLinkedQueue<>();
+	private final Semaphore window;
+	private final int maxOutstanding;
+	private final LatencyRecorder latency = MetricsRegistry.getInstance().recorder("snmp.request");
+	private final Counter timeouts = MetricsRegistry.getInstance().counter("snmp.timeouts");
+	private final Counter errors = MetricsRegistry.getInstance().counter("snmp.errors");
+	private final Counter sendErrors = MetricsRegistry.getInstance().counter("snmp.send.errors");
+
+	/**
+	 * Singleton constructor
+	 */
+	private SnmpPoller() {
+		PropertyHandler props = PropertyHandler.getInstance();
+		maxOutstanding = Math.max(1, props.getInt("monitor.main.snmp.maxoutstanding", 1000));
+		window = new Semaphore(maxOutstanding);
+	}
+
+	/**
+	 * Method to return an instance of the SnmpPoller
+	 *
+	 * @return an instance of the SnmpPoller
+	 */
+	public static synchronized SnmpPoller getInstance() {
+		if (_instance == null)
+			_instance = new SnmpPoller();
+		return _instance;
+	}
+
+	/**
+	 * Sends a request without waiting for the response. The returned future
+	 * completes with the snmp4j response event (whose response PDU is null on
+	 * timeout), or with null if the request could not be sent.
+	 *
+	 * @param pdu the request PDU; it must not be modified until completion
+	 * @param target the agent, including its timeout and retry policy
+	 * @return the pending response
+	 */
+	public SnmpFuture<ResponseEvent> send(PDU pdu, Target target) {
+		Request request = new Request(pdu, target);
+
+		backlog.add(request);
+		drain();
+
+		return request.future;
+	}
+
+	/**
+	 * @return the number of requests currently waiting for a response
+	 */
+	public int getOutstanding() {
+		return maxOutstanding - window.availablePermits();
+	}
+
+	/**
+	 * @return the number of requests queued behind the in-flight window
+	 */
+	public int getQueued() {
+		return backlog.size();
+	}
+
+	/**
+	 * Moves queued requests onto the wire while the window has room. This is
+	 * called after every enqueue and every completion, so a request can never
+	 * be stranded in the queue while a slot is free.
+	 */
+	private void drain() {
+		while (!backlog.isEmpty() && window.tryAcquire()) {
+			Request request = backlog.poll();
+			if (request == null) {
+				window.release();
+				return;
+			}
+
+			request.dispatch();
+		}
+	}
+
+	private void release() {
+		window.release();
+		drain();
+	}
+
+	private class Request implements ResponseListener {
+		private final SnmpFuture<ResponseEvent> future = new SnmpFuture<>();
+		private final AtomicBoolean answered = new AtomicBoolean();
+		private final PDU pdu;
+		private final Target target;
+		private long sentAt;
+
+		Request(PDU pdu, Target target) {
+			this.pdu = pdu;
+			this.target = target;
+		}
+
+		void dispatch() {
+			Snmp snmp = SnmpSession.getInstance().getSnmp();
+			if (snmp == null) {
+				release();
+				future.complete(null);
+				return;
+			}
+
+			try {
+				sentAt = System.nanoTime();
+				snmp.send(pdu, target, null, this);
+
+			} catch (IOException e) {
+				logger.error("Error sending request to " + target.getAddress() + ": " + e.getMessage());
+				sendErrors.increment();
+				release();
+				future.complete(null);
+			}
+		}
+
+		@Override
+		public void onResponse(ResponseEvent event) {
+			// Stop snmp4j from retrying a request that has been answered
+			((Snmp) event.getSource()).cancel(event.getRequest(), this);
+
+			// A late duplicate must not give back the window slot twice
+			if (!answered.compareAndSet(false, true)) {
+				return;
+			}
+
+			latency.recordSince(sentAt);
+			if (event.getResponse() == null) {
+				timeouts.increment();
+			} else if (event.getResponse().getErrorStatus() != PDU.noError) {
+				errors.increment();
+			}
+
+			release();
+			future.complete(event);
+		}
+	}
+}
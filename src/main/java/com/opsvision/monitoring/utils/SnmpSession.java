@@ -0,0 +1,184 @@
+package com.opsvision.monitoring.utils;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.snmp4j.CommunityTarget;
+import org.snmp4j.Snmp;
+import org.snmp4j.smi.GenericAddress;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+/**
+ * Long-lived SNMP sessions shared by every monitor. The agent starts the
+ * sessions once in {@code MonitoringAgent.start} and closes them in
+ * {@code MonitoringAgent.stop}; in between, all gets, walks and traps are
+ * multiplexed over a small, fixed set of UDP transports instead of binding
+ * a new socket (and listen thread) for every request.
+ */
+public class SnmpSession {
+	final static Logger logger = Logger.getLogger(SnmpSession.class);
+	private static SnmpSession _instance = null;
+	private final ConcurrentMap<String, CommunityTarget> targets = new ConcurrentHashMap<>();
+	private final AtomicInteger next = new AtomicInteger();
+	private volatile Snmp[] sessions = null;
+	private int retries = 3;
+	private int timeout = 3000;
+	private int maxPduSize = 1400;
+
+	/**
+	 * Singleton constructor
+	 */
+	private SnmpSession() {
+	}
+
+	/**
+	 * Method to return an instance of the SnmpSession
+	 *
+	 * @return an instance of the SnmpSession
+	 */
+	public static synchronized SnmpSession getInstance() {
+		if (_instance == null)
+			_instance = new SnmpSession();
+		return _instance;
+	}
+
+	/**
+	 * Binds the shared transports and starts listening for responses. Calling
+	 * this method on a running session has no effect.
+	 *
+	 * @throws IOException if a transport could not be bound
+	 */
+	public synchronized void start() throws IOException {
+		if (sessions != null) {
+			return;
+		}
+
+		PropertyHandler props = PropertyHandler.getInstance();
+		int count = Math.max(1, props.getInt("monitor.main.snmp.transports", 1));
+		retries = props.getInt("monitor.main.snmp.retries", 3);
+		timeout = props.getInt("monitor.main.snmp.timeout", 3000);
+		maxPduSize = props.getInt("monitor.main.snmp.maxpdu", 1400);
+
+		Snmp[] snmps = new Snmp[count];
+		try {
+			for (int i = 0; i < count; i++) {
+				snmps[i] = new Snmp(new DefaultUdpTransportMapping());
+				snmps[i].listen();
+			}
+
+		} catch (IOException e) {
+			close(snmps);
+			throw e;
+		}
+
+		sessions = snmps;
+		logger.debug("Started " + count + " shared SNMP transport(s)");
+	}
+
+	/**
+	 * Closes the shared transports and forgets the cached targets.
+	 */
+	public synchronized void close() {
+		if (sessions == null) {
+			return;
+		}
+
+		close(sessions);
+		sessions = null;
+		targets.clear();
+		logger.debug("Closed shared SNMP transports");
+	}
+
+	/**
+	 * @return true if the shared transports are bound and listening
+	 */
+	public boolean isRunning() {
+		return sessions != null;
+	}
+
+	/**
+	 * Returns one of the shared sessions; requests are spread round-robin
+	 * across the configured transports.
+	 *
+	 * @return a listening Snmp session, or null if the session is not started
+	 */
+	public Snmp getSnmp() {
+		Snmp[] snmps = sessions;
+		if (snmps == null) {
+			logger.error("The shared SNMP session has not been started");
+			return null;
+		}
+
+		return snmps[(next.getAndIncrement() & Integer.MAX_VALUE) % snmps.length];
+	}
+
+	/**
+	 * Returns the cached target for an agent, creating it on first use. The
+	 * returned target is shared and must not be modified by the caller.
+	 *
+	 * @param host the agent host name or address
+	 * @param port the agent UDP port
+	 * @param communityString the community string
+	 * @param version the SNMP version (see SnmpConstants)
+	 * @return the CommunityTarget for the agent
+	 */
+	public CommunityTarget getTarget(String host, String port, String communityString, int version) {
+		return getTarget(host, port, communityString, version, timeout, retries);
+	}
+
+	/**
+	 * Returns the cached target for an agent with its own timeout and retry
+	 * policy, creating it on first use. The returned target is shared and
+	 * must not be modified by the caller.
+	 *
+	 * @param host the agent host name or address
+	 * @param port the agent UDP port
+	 * @param communityString the community string
+	 * @param version the SNMP version (see SnmpConstants)
+	 * @param timeout the time to wait for each attempt in milliseconds
+	 * @param retries the number of retries after the first attempt
+	 * @return the CommunityTarget for the agent
+	 */
+	public CommunityTarget getTarget(String host, String port, String communityString,
+			int version, long timeout, int retries) {
+		String key = version + ":" + communityString + "@" + host + "/" + port
+				+ "?" + timeout + "x" + retries;
+
+		CommunityTarget target = targets.get(key);
+		if (target == null) {
+			target = new CommunityTarget();
+			target.setCommunity(new OctetString(communityString));
+			target.setAddress(GenericAddress.parse("udp:" + host + "/" + port));
+			target.setRetries(retries);
+			target.setTimeout(timeout);
+			target.setVersion(version);
+			target.setMaxSizeRequestPDU(maxPduSize);
+
+			CommunityTarget existing = targets.putIfAbsent(key, target);
+			if (existing != null) {
+				target = existing;
+			}
+		}
+
+		return target;
+	}
+
+	private static void close(Snmp[] snmps) {
+		for (Snmp snmp : snmps) {
+			if (snmp == null) {
+				continue;
+			}
+
+			try {
+				snmp.close();
+
+			} catch (IOException e) {
+				logger.warn("Error closing SNMP transport: " + e.getMessage());
+			}
+		}
+	}
+}
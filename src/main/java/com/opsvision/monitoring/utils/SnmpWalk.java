@@ -1,24 +1,29 @@
 package com.opsvision.monitoring.utils;
 
-import java.io.IOException;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.snmp4j.CommunityTarget;
+import org.snmp4j.PDU;
+import org.snmp4j.ScopedPDU;
 import org.snmp4j.Snmp;
-import org.snmp4j.TransportMapping;
+import org.snmp4j.Target;
+import org.snmp4j.event.ResponseEvent;
 import org.snmp4j.mp.SnmpConstants;
-import org.snmp4j.smi.Address;
-import org.snmp4j.smi.GenericAddress;
 import org.snmp4j.smi.OID;
-import org.snmp4j.smi.OctetString;
-import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.smi.VariableBinding;
 import org.snmp4j.util.DefaultPDUFactory;
 import org.snmp4j.util.TreeEvent;
 import org.snmp4j.util.TreeUtils;
 
+import com.opsvision.monitoring.metrics.Counter;
+import com.opsvision.monitoring.metrics.LatencyRecorder;
+import com.opsvision.monitoring.metrics.MetricsRegistry;
+
 public class SnmpWalk {
 	final static Logger logger = Logger.getLogger(SnmpWalk.class);
+	private static final LatencyRecorder latency = MetricsRegistry.getInstance().recorder("snmp.walk");
+	private static final Counter failures = MetricsRegistry.getInstance().counter("snmp.walk.failures");
 
 	/**
 	 * Once you have a List of TreeEvents, you can process them
@@ -46,43 +51,174 @@ public class SnmpWalk {
 	 * @param baseOID
 	 */
 	public static List<TreeEvent> doWalk(String host, String port, String communityString, String baseOID) {
-		Address targetAddress = GenericAddress.parse("udp:" + host + "/" + port);
-
-		TransportMapping transport = null;
-		Snmp snmp = null;
-		OID oid = null;
-
-		try {
-			transport = new DefaultUdpTransportMapping();
-			snmp = new Snmp(transport);
-			transport.listen();
-
-			oid = new OID(baseOID);
+		SnmpSession session = SnmpSession.getInstance();
 
-		} catch (NullPointerException | IOException e) {
+		Snmp snmp = session.getSnmp();
+		if (snmp == null) {
 			// Uh oh - log the error and return a null (hopefully we can catch it later)
-			logger.error(e.getMessage());
+			logger.error("No SNMP session available for " + host);
 			return null;
 		}
 
-		CommunityTarget target = new CommunityTarget();
-		target.setCommunity(new OctetString(communityString));
-		target.setAddress(targetAddress);
-		target.setRetries(3);
-		target.setTimeout(3000); // 3 seconds
-		target.setVersion(SnmpConstants.version1);
+		CommunityTarget target = session.getTarget(host, port, communityString, SnmpConstants.version1);
 
 		// Do an SNMP walk
 		TreeUtils treeUtils = new TreeUtils(snmp, new DefaultPDUFactory());
 
 		// Extract the events
 		@SuppressWarnings("unchecked")
-		List<TreeEvent> events = treeUtils.getSubtree(target, oid);
+		List<TreeEvent> events = treeUtils.getSubtree(target, new OID(baseOID));
 
+		return events;
+	}
+
+	/**
+	 * Walks a subtree with SNMPv2c GETBULK requests and streams the rows to
+	 * the listener, waiting until the walk has finished. Nothing is kept in
+	 * memory beyond the response currently being delivered. Each walk reads
+	 * monitor.main.snmp.maxrepetitions, so a reloaded value applies to the
+	 * next walk.
+	 *
+	 * @param host the agent host name or address
+	 * @param port the agent UDP port
+	 * @param communityString the community string
+	 * @param baseOID the root of the subtree to walk
+	 * @param listener receives each row
+	 * @return the number of rows delivered, or -1 if the walk failed
+	 */
+	public static int doWalk(String host, String port, String communityString, String baseOID,
+			SnmpWalkListener listener) {
+		CommunityTarget target = SnmpSession.getInstance().getTarget(
+				host, port, communityString, SnmpConstants.version2c);
+
+		int maxRepetitions = PropertyHandler.getInstance().getInt("monitor.main.snmp.maxrepetitions", 25);
+
+		long start = System.nanoTime();
+		Integer rows = null;
 		try {
-			snmp.close();
-		} catch (Exception e) {}
+			rows = walk(target, new OID(baseOID), maxRepetitions, listener).get();
 
-		return events;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		latency.recordSince(start);
+		if (rows == null) {
+			failures.increment();
+			return -1;
+		}
+		return rows;
+	}
+
+	/**
+	 * Starts a streaming walk of a subtree without waiting. SNMPv2c and v3
+	 * targets are walked with GETBULK, fetching up to maxRepetitions rows per
+	 * round trip; SNMPv1 targets fall back to one GETNEXT per row.
+	 *
+	 * @param target the agent, including its version, timeout and retry policy
+	 * @param baseOID the root of the subtree to walk
+	 * @param maxRepetitions the number of rows to request per GETBULK
+	 * @param listener receives each row
+	 * @return a future for the number of rows delivered, completed with null
+	 *         if the walk failed
+	 */
+	public static SnmpFuture<Integer> walk(Target target, OID baseOID, int maxRepetitions,
+			SnmpWalkListener listener) {
+		Walk walk = new Walk(target, baseOID, Math.max(1, maxRepetitions), listener);
+		walk.next(baseOID);
+		return walk.future;
+	}
+
+	/**
+	 * The state of one streaming walk; each response triggers the next request.
+	 */
+	private static class Walk implements SnmpFutureListener<ResponseEvent> {
+		private final SnmpFuture<Integer> future = new SnmpFuture<>();
+		private final Target target;
+		private final OID baseOID;
+		private final int maxRepetitions;
+		private final SnmpWalkListener listener;
+		private final PDU pdu;
+		private OID lastOID = null;
+		private int rows = 0;
+
+		Walk(Target target, OID baseOID, int maxRepetitions, SnmpWalkListener listener) {
+			this.target = target;
+			this.baseOID = baseOID;
+			this.maxRepetitions = maxRepetitions;
+			this.listener = listener;
+			this.pdu = (target.getVersion() == SnmpConstants.version3) ? new ScopedPDU() : new PDU();
+		}
+
+		// Only one page is in flight at a time, so every page reuses the PDU
+		void next(OID oid) {
+			pdu.clear();
+			if (target.getVersion() == SnmpConstants.version1) {
+				pdu.setType(PDU.GETNEXT);
+			} else {
+				pdu.setType(PDU.GETBULK);
+				pdu.setNonRepeaters(0);
+				pdu.setMaxRepetitions(maxRepetitions);
+			}
+			pdu.add(new VariableBinding(oid));
+
+			SnmpPoller.getInstance().send(pdu, target).addListener(this);
+		}
+
+		@Override
+		public void onComplete(ResponseEvent event) {
+			PDU response = (event == null) ? null : event.getResponse();
+			if (response == null) {
+				logger.error("No response from " + target.getAddress() + " walking " + baseOID);
+				future.complete(null);
+				return;
+			}
+
+			if (response.getErrorStatus() != PDU.noError) {
+				// An SNMPv1 agent reports the end of its MIB as noSuchName
+				if (response.getErrorStatus() == PDU.noSuchName) {
+					future.complete(rows);
+
+				} else {
+					logger.error("Error walking " + baseOID + " on " + target.getAddress()
+							+ ": " + response.getErrorStatusText());
+					future.complete(null);
+				}
+				return;
+			}
+
+			for (Object o : response.getVariableBindings()) {
+				VariableBinding variableBinding = (VariableBinding) o;
+				OID oid = variableBinding.getOid();
+
+				// Stop at the end of the MIB view or once we leave the subtree
+				if (variableBinding.isException() || !oid.startsWith(baseOID)) {
+					future.complete(rows);
+					return;
+				}
+
+				// Guard against agents that do not return increasing OIDs
+				if (lastOID != null && oid.compareTo(lastOID) <= 0) {
+					logger.error("Agent " + target.getAddress() + " returned OID " + oid
+							+ " out of order walking " + baseOID);
+					future.complete(null);
+					return;
+				}
+
+				lastOID = oid;
+				rows++;
+				if (!listener.onRow(variableBinding)) {
+					future.complete(rows);
+					return;
+				}
+			}
+
+			if (response.size() == 0) {
+				future.complete(rows);
+				return;
+			}
+
+			next(lastOID);
+		}
 	}
 }
@@ -0,0 +1,18 @@
+package com.opsvision.monitoring.utils;
+
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Receives the rows of a streaming walk as they arrive from the agent.
+ */
+public interface SnmpWalkListener {
+
+	/**
+	 * Called for every row below the walked OID, in OID order. Rows are
+	 * delivered on the SNMP transport thread, so this must not block.
+	 *
+	 * @param variableBinding the row
+	 * @return true to continue the walk, false to stop it
+	 */
+	boolean onRow(VariableBinding variableBinding);
+}
@@ -0,0 +1,452 @@
+package com.opsvision.monitoring.utils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Watches UDP streams continuously from a single background thread. Each
+ * stream, unicast or a multicast group, gets a non-blocking DatagramChannel
+ * registered with one Selector; datagrams are drained into a shared direct
+ * buffer and only counted, so hundreds of streams cost one thread and no
+ * per-packet allocation. Monitors read the {@link StreamStats} of their
+ * streams instead of listening themselves. Streams watched with analysis
+ * are also run through a {@link TsAnalyzer}.
+ *
+ * Streams are given as [address:]port. A multicast address is joined on
+ * monitor.main.stream.interface (by default the first multicast capable
+ * interface that is up); any other address binds to that local address,
+ * and a bare port listens on every interface.
+ *
+ * Every watch of a stream is counted; once each watcher has called
+ * {@link #unwatch(String)} the receiver thread closes its channel and
+ * leaves its multicast group. A stream keeps its analyzer only while a
+ * watcher that asked for analysis is left. The selector and thread are
+ * only opened once the first stream is watched, so an agent without
+ * streams runs none.
+ */
+public class StreamReceiver implements Runnable {
+	final static Logger logger = Logger.getLogger(StreamReceiver.class);
+	private static StreamReceiver _instance = null;
+	private static final long RATE_INTERVAL = 1000;
+	private final ConcurrentMap<String, StreamStats> streams = new ConcurrentHashMap<>();
+	private final Queue<StreamStats> pending = new ConcurrentLinkedQueue<>();
+	private final Queue<StreamStats> closing = new ConcurrentLinkedQueue<>();
+	// Guarded by this
+	private final Map<String, Integer> watchers = new HashMap<>();
+	private final Map<String, Integer> analyzers = new HashMap<>();
+	// Only touched by the receiver thread
+	private final Map<StreamStats, DatagramChannel> channels = new LinkedHashMap<>();
+	private final Map<StreamStats, MembershipKey> groups = new HashMap<>();
+	private ByteBuffer buffer = null;
+	private Selector selector = null;
+	private NetworkInterface multicastInterface = null;
+	private volatile Thread thread = null;
+	private volatile boolean running = false;
+	// Guarded by this: set between start() and stop()
+	private boolean started = false;
+
+	/**
+	 * Singleton constructor
+	 */
+	private StreamReceiver() {
+	}
+
+	/**
+	 * Method to return an instance of the StreamReceiver
+	 *
+	 * @return an instance of the StreamReceiver
+	 */
+	public static synchronized StreamReceiver getInstance() {
+		if (_instance == null)
+			_instance = new StreamReceiver();
+		return _instance;
+	}
+
+	/**
+	 * Starts the receiver. The selector is opened and the receiver thread
+	 * started now if streams are already watched, otherwise on the first
+	 * {@link #watch(String)}.
+	 *
+	 * @throws IOException if the selector cannot be opened
+	 */
+	public synchronized void start() throws IOException {
+		started = true;
+		if (!streams.isEmpty()) {
+			launch();
+		}
+	}
+
+	// Opens the selector and starts the thread, which opens every stream
+	private void launch() throws IOException {
+		if (running) {
+			return;
+		}
+
+		PropertyHandler props = PropertyHandler.getInstance();
+		buffer = ByteBuffer.allocateDirect(props.getInt("monitor.main.stream.buffer", 65536));
+		multicastInterface = findInterface(props.getValue("monitor.main.stream.interface", ""));
+		selector = Selector.open();
+
+		// Reopen every stream, including those of a previous run
+		pending.clear();
+		pending.addAll(streams.values());
+		closing.clear();
+
+		running = true;
+		thread = new Thread(this, "StreamReceiver");
+		thread.setDaemon(true);
+		thread.start();
+		logger.debug("Stream receiver started");
+	}
+
+	/**
+	 * Stops the receiver thread and closes every channel.
+	 */
+	public synchronized void stop() {
+		started = false;
+		if (!running) {
+			return;
+		}
+
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join(5000);
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		thread = null;
+		logger.debug("Stream receiver stopped");
+	}
+
+	/**
+	 * Starts watching a stream, or returns the counters of a stream that is
+	 * already watched.
+	 *
+	 * @param stream the stream as [address:]port
+	 * @return the counters of the stream
+	 */
+	public synchronized StreamStats watch(String stream) {
+		Integer count = watchers.get(stream);
+		watchers.put(stream, (count == null) ? 1 : count + 1);
+
+		StreamStats stats = streams.get(stream);
+		if (stats != null) {
+			return stats;
+		}
+
+		stats = new StreamStats(stream);
+		streams.put(stream, stats);
+		pending.add(stats);
+		wakeup();
+
+		if (started && !running) {
+			try {
+				launch();
+
+			} catch (IOException e) {
+				logger.error("Failed to start the stream receiver: " + e.getMessage());
+				stats.setError(String.valueOf(e.getMessage()));
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Gives up one watch of a stream. When no watcher is left the stream is
+	 * forgotten and the receiver thread closes its channel.
+	 *
+	 * @param stream the stream as [address:]port, as passed to watch
+	 */
+	public synchronized void unwatch(String stream) {
+		unwatch(stream, false);
+	}
+
+	/**
+	 * Gives up one watch of a stream like {@link #unwatch(String)}. When the
+	 * last watcher analyzing the stream is gone its {@link TsAnalyzer} is
+	 * detached.
+	 *
+	 * @param stream the stream as [address:]port, as passed to watch
+	 * @param analyze as passed to watch
+	 */
+	public synchronized void unwatch(String stream, boolean analyze) {
+		Integer analyzing = analyzers.get(stream);
+		if (analyze && analyzing != null) {
+			if (analyzing > 1) {
+				analyzers.put(stream, analyzing - 1);
+
+			} else {
+				analyzers.remove(stream);
+				StreamStats stats = streams.get(stream);
+				if (stats != null) {
+					synchronized (stats) {
+						stats.setAnalyzer(null);
+					}
+				}
+			}
+		}
+
+		Integer count = watchers.get(stream);
+		if (count == null) {
+			return;
+		}
+
+		if (count > 1) {
+			watchers.put(stream, count - 1);
+			return;
+		}
+
+		watchers.remove(stream);
+		StreamStats stats = streams.remove(stream);
+		if (stats != null && running) {
+			closing.add(stats);
+			wakeup();
+		}
+	}
+
+	/**
+	 * Starts watching a stream like {@link #watch(String)}, optionally
+	 * analyzing it as an MPEG transport stream.
+	 *
+	 * @param stream the stream as [address:]port
+	 * @param analyze true to attach a {@link TsAnalyzer} to the stream
+	 * @return the counters of the stream
+	 */
+	public synchronized StreamStats watch(String stream, boolean analyze) {
+		StreamStats stats = watch(stream);
+		if (analyze) {
+			Integer analyzing = analyzers.get(stream);
+			analyzers.put(stream, (analyzing == null) ? 1 : analyzing + 1);
+			synchronized (stats) {
+				if (stats.getAnalyzer() == null) {
+					stats.setAnalyzer(new TsAnalyzer());
+				}
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * @return the number of streams being watched
+	 */
+	public int size() {
+		return streams.size();
+	}
+
+	@Override
+	public void run() {
+		long lastRate = System.currentTimeMillis();
+
+		try {
+			while (running) {
+				StreamStats stats;
+				while ((stats = closing.poll()) != null) {
+					close(stats);
+				}
+				while ((stats = pending.poll()) != null) {
+					// Skip a stream unwatched before it was opened
+					if (streams.get(stats.getName()) == stats) {
+						open(stats);
+					}
+				}
+
+				selector.select(RATE_INTERVAL);
+				long now = System.currentTimeMillis();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					drain((DatagramChannel) key.channel(), (StreamStats) key.attachment(), now);
+				}
+
+				if (now - lastRate >= RATE_INTERVAL) {
+					for (StreamStats open : channels.keySet()) {
+						open.updateRates(now - lastRate);
+					}
+					lastRate = now;
+				}
+			}
+
+		} catch (IOException e) {
+			logger.error("Stream receiver failed: " + e.getMessage());
+
+		} finally {
+			close();
+		}
+	}
+
+	// Reads every queued datagram of a channel
+	private void drain(DatagramChannel channel, StreamStats stats, long now) {
+		TsAnalyzer analyzer = stats.getAnalyzer();
+		try {
+			while (true) {
+				buffer.clear();
+				if (channel.receive(buffer) == null) {
+					break;
+				}
+				buffer.flip();
+				stats.received(buffer.remaining(), now);
+
+				// Parsed in place from the receive buffer
+				if (analyzer != null) {
+					analyzer.analyze(buffer, System.nanoTime());
+				}
+			}
+
+		} catch (IOException e) {
+			logger.warn("Error reading stream " + stats.getName() + ": " + e.getMessage());
+		}
+	}
+
+	private void open(StreamStats stats) {
+		String stream = stats.getName();
+		int colon = stream.lastIndexOf(':');
+		String host = (colon < 0) ? "" : stream.substring(0, colon).trim();
+
+		DatagramChannel channel = null;
+		try {
+			int port = Integer.parseInt(stream.substring(colon + 1).trim());
+			InetAddress address = host.isEmpty() ? null : InetAddress.getByName(host);
+
+			channel = DatagramChannel.open(StandardProtocolFamily.INET);
+			channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			channel.setOption(StandardSocketOptions.SO_RCVBUF, 1 << 20);
+
+			if (address != null && address.isMulticastAddress()) {
+				// Binding to the group keeps other groups on the port out;
+				// where that is not allowed (Windows) bind to the port only
+				try {
+					channel.bind(new InetSocketAddress(address, port));
+				} catch (IOException e) {
+					channel.bind(new InetSocketAddress(port));
+				}
+				if (multicastInterface == null) {
+					throw new IOException("no multicast interface");
+				}
+				groups.put(stats, channel.join(address, multicastInterface));
+
+			} else {
+				channel.bind((address == null) ? new InetSocketAddress(port)
+						: new InetSocketAddress(address, port));
+			}
+
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ, stats);
+			channels.put(stats, channel);
+			stats.setError(null);
+			logger.debug("Watching stream " + stream);
+
+		} catch (IOException | NumberFormatException e) {
+			logger.error("Failed to open stream " + stream + ": " + e.getMessage());
+			stats.setError(String.valueOf(e.getMessage()));
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException ignore) {
+				}
+			}
+		}
+	}
+
+	// Stops receiving a stream that is no longer watched
+	private void close(StreamStats stats) {
+		DatagramChannel channel = channels.remove(stats);
+		if (channel == null) {
+			return;
+		}
+
+		SelectionKey key = channel.keyFor(selector);
+		if (key != null) {
+			key.cancel();
+		}
+
+		MembershipKey group = groups.remove(stats);
+		if (group != null) {
+			group.drop();
+		}
+
+		try {
+			channel.close();
+
+		} catch (IOException e) {
+			logger.warn("Error closing stream channel: " + e.getMessage());
+		}
+		logger.debug("Stopped watching stream " + stats.getName());
+	}
+
+	private void close() {
+		for (DatagramChannel channel : channels.values()) {
+			try {
+				channel.close();
+
+			} catch (IOException e) {
+				logger.warn("Error closing stream channel: " + e.getMessage());
+			}
+		}
+		channels.clear();
+		groups.clear();
+
+		try {
+			selector.close();
+
+		} catch (IOException e) {
+			logger.warn("Error closing stream selector: " + e.getMessage());
+		}
+	}
+
+	private void wakeup() {
+		Selector s = selector;
+		if (s != null) {
+			s.wakeup();
+		}
+	}
+
+	private static NetworkInterface findInterface(String name) throws SocketException {
+		if (!name.isEmpty()) {
+			NetworkInterface ni = NetworkInterface.getByName(name);
+			if (ni == null) {
+				logger.error("Unknown stream interface " + name);
+			}
+			return ni;
+		}
+
+		NetworkInterface loopback = null;
+		Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+		while (interfaces != null && interfaces.hasMoreElements()) {
+			NetworkInterface ni = interfaces.nextElement();
+			if (!ni.isUp() || !ni.supportsMulticast()) {
+				continue;
+			}
+			if (!ni.isLoopback()) {
+				return ni;
+			}
+			loopback = ni;
+		}
+		return loopback;
+	}
+}
@@ -0,0 +1,110 @@
+package com.opsvision.monitoring.utils;
+
+/**
+ * Counters of one UDP stream watched by the {@link StreamReceiver}. The
+ * receiver thread is the only writer; monitors read the counters at any
+ * time without locking.
+ */
+public class StreamStats {
+	private final String name;
+	private volatile long packets = 0;
+	private volatile long bytes = 0;
+	private volatile long lastSeen = 0;
+	private volatile double packetRate = 0;
+	private volatile double byteRate = 0;
+	private volatile String error = null;
+	private volatile TsAnalyzer analyzer = null;
+	// Receiver thread only: the totals at the last rate update
+	long ratePackets = 0;
+	long rateBytes = 0;
+
+	StreamStats(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the stream as given to StreamReceiver.watch, e.g. 239.1.1.1:5000
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of datagrams received since the stream was watched
+	 */
+	public long getPackets() {
+		return packets;
+	}
+
+	/**
+	 * @return the number of payload bytes received since the stream was watched
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the time the last datagram arrived in milliseconds, 0 if none has
+	 */
+	public long getLastSeen() {
+		return lastSeen;
+	}
+
+	/**
+	 * @return datagrams per second over the last rate interval
+	 */
+	public double getPacketRate() {
+		return packetRate;
+	}
+
+	/**
+	 * @return payload bytes per second over the last rate interval
+	 */
+	public double getByteRate() {
+		return byteRate;
+	}
+
+	/**
+	 * @return the reason the stream could not be opened, null if it is open
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @return the MPEG-TS analysis of the stream, null if it is not analyzed
+	 */
+	public TsAnalyzer getAnalyzer() {
+		return analyzer;
+	}
+
+	void setAnalyzer(TsAnalyzer analyzer) {
+		this.analyzer = analyzer;
+	}
+
+	// Called by the receiver thread for every datagram
+	void received(int length, long now) {
+		packets++;
+		bytes += length;
+		lastSeen = now;
+	}
+
+	// Called by the receiver thread once per rate interval
+	void updateRates(long elapsed) {
+		long p = packets;
+		long b = bytes;
+		packetRate = (p - ratePackets) * 1000.0 / elapsed;
+		byteRate = (b - rateBytes) * 1000.0 / elapsed;
+		ratePackets = p;
+		rateBytes = b;
+
+		TsAnalyzer ts = analyzer;
+		if (ts != null) {
+			ts.updateRates(elapsed);
+		}
+	}
+
+	void setError(String error) {
+		this.error = error;
+	}
+}
@@ -0,0 +1,371 @@
+package com.opsvision.monitoring.utils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+import org.snmp4j.CommunityTarget;
+import org.snmp4j.PDU;
+import org.snmp4j.PDUv1;
+import org.snmp4j.Snmp;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.IpAddress;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.VariableBinding;
+
+import com.opsvision.monitoring.metrics.Counter;
+import com.opsvision.monitoring.metrics.LatencyRecorder;
+import com.opsvision.monitoring.metrics.MetricsRegistry;
+
+/**
+ * Sends traps from a single background thread so monitors never block on
+ * trap I/O. Traps are queued (up to monitor.main.trap.queue entries; more
+ * are dropped with a warning) and the sender drains everything queued in
+ * the same tick as one batch. A trap identical to the last one sent for the
+ * same specific trap and OIDs within monitor.main.trap.coalesce seconds is
+ * dropped, so a fault reported on every poll reaches the NMS once per window.
+ * Traps are only coalesced with earlier traps from the same monitor instance;
+ * traps without a source (such as the heartbeat) are always sent. Sent,
+ * dropped, coalesced and failed traps are counted in the MetricsRegistry
+ * (trap.*), along with the time traps wait in the queue and take to send.
+ * While the dispatcher is not running traps are sent on the calling thread.
+ */
+public class TrapDispatcher implements Runnable {
+	final static Logger logger = Logger.getLogger(TrapDispatcher.class);
+	private static TrapDispatcher _instance = null;
+	private static final OID enterprise = new OID("1.3.6.1.4.1.44132.4.3");
+	private final Counter sent = MetricsRegistry.getInstance().counter("trap.sent");
+	private final Counter dropped = MetricsRegistry.getInstance().counter("trap.dropped");
+	private final Counter coalesced = MetricsRegistry.getInstance().counter("trap.coalesced");
+	private final Counter errors = MetricsRegistry.getInstance().counter("trap.errors");
+	private final LatencyRecorder queued = MetricsRegistry.getInstance().recorder("trap.queue");
+	private final LatencyRecorder sending = MetricsRegistry.getInstance().recorder("trap.send");
+	// Only touched by the sender thread
+	private final Map<String, Sent> recent = new HashMap<>();
+	// Read-held while queueing, write-held to stop, so no trap is queued
+	// after the sender thread's last drain
+	private final ReadWriteLock gate = new ReentrantReadWriteLock();
+	private BlockingQueue<Trap> queue = null;
+	private CommunityTarget target = null;
+	private IpAddress agentAddress = null;
+	private volatile Thread thread = null;
+	private volatile boolean running = false;
+	private long window = 0;
+	private long tick = 100;
+	private long lastPurge = 0;
+
+	/**
+	 * Singleton constructor
+	 */
+	private TrapDispatcher() {
+	}
+
+	/**
+	 * Method to return an instance of the TrapDispatcher
+	 *
+	 * @return an instance of the TrapDispatcher
+	 */
+	public static synchronized TrapDispatcher getInstance() {
+		if (_instance == null)
+			_instance = new TrapDispatcher();
+		return _instance;
+	}
+
+	/**
+	 * Resolves the trap destination and starts the sender thread. The shared
+	 * {@link SnmpSession} must already be started.
+	 *
+	 * @throws IOException if the local agent address cannot be resolved
+	 */
+	public synchronized void start() throws IOException {
+		if (running) {
+			return;
+		}
+
+		PropertyHandler props = PropertyHandler.getInstance();
+		queue = new ArrayBlockingQueue<>(Math.max(1, props.getInt("monitor.main.trap.queue", 10000)));
+		window = props.getLong("monitor.main.trap.coalesce", 0) * 1000L;
+		tick = Math.max(1, props.getLong("monitor.main.trap.tick", 100));
+
+		resolve();
+
+		running = true;
+		thread = new Thread(this, "TrapDispatcher");
+		thread.setDaemon(true);
+		thread.start();
+		logger.debug("Trap dispatcher started");
+	}
+
+	/**
+	 * Stops the sender thread after it has sent everything still queued.
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+
+		gate.writeLock().lock();
+		try {
+			running = false;
+
+		} finally {
+			gate.writeLock().unlock();
+		}
+
+		try {
+			thread.join(5000);
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		thread = null;
+		logger.debug("Trap dispatcher stopped: sent=" + sent.get() + " coalesced="
+				+ coalesced.get() + " dropped=" + dropped.get());
+	}
+
+	/**
+	 * @return true if traps are being queued for the sender thread
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Queues a trap without blocking. While the dispatcher is not running,
+	 * before start() or once stop() has begun, the trap is sent on the
+	 * calling thread instead.
+	 *
+	 * @param source the name of the monitor instance raising the trap, may be null
+	 * @param specificTrap the enterprise specific trap number
+	 * @param varbinds the variable bindings of the trap
+	 * @return false if the queue was full and the trap was dropped
+	 */
+	public boolean dispatch(String source, int specificTrap, VariableBinding[] varbinds) {
+		gate.readLock().lock();
+		try {
+			if (running) {
+				if (queue.offer(new Trap(source, specificTrap, varbinds, System.nanoTime()))) {
+					return true;
+				}
+
+				// Do not flood the log while the queue stays full
+				dropped.increment();
+				long count = dropped.get();
+				if (count == 1 || count % 1000 == 0) {
+					logger.warn("Trap queue full, dropped " + count + " trap(s)");
+				}
+				return false;
+			}
+
+		} finally {
+			gate.readLock().unlock();
+		}
+
+		send(specificTrap, varbinds);
+		return true;
+	}
+
+	/**
+	 * Sends a trap on the calling thread, bypassing the queue.
+	 *
+	 * @param specificTrap the enterprise specific trap number
+	 * @param varbinds the variable bindings of the trap
+	 */
+	public synchronized void send(int specificTrap, VariableBinding[] varbinds) {
+		try {
+			if (target == null) {
+				resolve();
+			}
+			send(new Trap(null, specificTrap, varbinds, 0), newPdu());
+
+		} catch (IOException e) {
+			logger.error(e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the number of traps handed to the transport
+	 */
+	public long getSent() {
+		return sent.get();
+	}
+
+	/**
+	 * @return the number of traps suppressed as repeats
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	/**
+	 * @return the number of traps dropped because the queue was full
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	@Override
+	public void run() {
+		List<Trap> batch = new ArrayList<>();
+		PDUv1 pdu = newPdu();
+
+		while (running || !queue.isEmpty()) {
+			try {
+				Trap trap = queue.poll(tick, TimeUnit.MILLISECONDS);
+				if (trap == null) {
+					continue;
+				}
+
+				// Take everything else that came out in the same tick
+				batch.add(trap);
+				queue.drainTo(batch);
+
+				long now = System.currentTimeMillis();
+				for (Trap t : batch) {
+					if (!isRepeat(t, now)) {
+						send(t, pdu);
+					}
+				}
+				batch.clear();
+				purge(now);
+
+			} catch (InterruptedException e) {
+				// keep draining until stop() clears the running flag
+			}
+		}
+	}
+
+	/**
+	 * Checks a trap against the last one sent by the same source for the same
+	 * specific trap and OIDs; within the coalescing window an identical trap
+	 * is a repeat. Traps without a source are never repeats.
+	 */
+	private boolean isRepeat(Trap trap, long now) {
+		if (window <= 0 || trap.source == null) {
+			return false;
+		}
+
+		String key = trap.getKey();
+		Sent last = recent.get(key);
+		if (last != null && now - last.time < window
+				&& Arrays.equals(last.varbinds, trap.varbinds)) {
+			coalesced.increment();
+			return true;
+		}
+
+		recent.put(key, new Sent(trap.varbinds, now));
+		return false;
+	}
+
+	private void purge(long now) {
+		if (window <= 0 || now - lastPurge < window) {
+			return;
+		}
+
+		lastPurge = now;
+		Iterator<Sent> it = recent.values().iterator();
+		while (it.hasNext()) {
+			if (now - it.next().time >= window) {
+				it.remove();
+			}
+		}
+	}
+
+	private void resolve() throws IOException {
+		PropertyHandler props = PropertyHandler.getInstance();
+		String host = props.getValue("monitor.main.trap.destination", "10.1.3.69");
+		String port = props.getValue("monitor.main.trap.port", "162");
+
+		agentAddress = new IpAddress(InetAddress.getLocalHost());
+		target = SnmpSession.getInstance().getTarget(host, port, "public", SnmpConstants.version1);
+	}
+
+	/**
+	 * Builds the parts of a trap PDU that are the same for every trap
+	 */
+	private PDUv1 newPdu() {
+		PDUv1 pdu = new PDUv1();
+		pdu.setType(PDU.V1TRAP);
+		pdu.setEnterprise(enterprise);
+		pdu.setGenericTrap(PDUv1.ENTERPRISE_SPECIFIC);
+		pdu.setAgentAddress(agentAddress);
+		return pdu;
+	}
+
+	/**
+	 * Fills in a trap PDU and sends it. The encoded trap is on its way once
+	 * snmp4j returns, so the sender thread refills the same PDU every time.
+	 */
+	private void send(Trap trap, PDUv1 pdu) {
+		Snmp snmp = SnmpSession.getInstance().getSnmp();
+		if (snmp == null) {
+			logger.error("No SNMP session available for trap to " + target.getAddress());
+			return;
+		}
+
+		pdu.clear();
+		pdu.setSpecificTrap(trap.specificTrap);
+		pdu.addAll(trap.varbinds);
+
+		long start = System.nanoTime();
+		if (trap.queued != 0) {
+			queued.record(start - trap.queued);
+		}
+		try {
+			snmp.send(pdu, target);
+			sending.recordSince(start);
+			sent.increment();
+
+		} catch (IOException e) {
+			logger.error("Error sending trap: " + e.getMessage());
+			errors.increment();
+		}
+	}
+
+	private static class Trap {
+		private final String source;
+		private final int specificTrap;
+		private final VariableBinding[] varbinds;
+		private final long queued;
+
+		Trap(String source, int specificTrap, VariableBinding[] varbinds, long queued) {
+			this.source = source;
+			this.specificTrap = specificTrap;
+			this.varbinds = varbinds;
+			this.queued = queued;
+		}
+
+		/**
+		 * The coalescing key; built on the sender thread, not the monitor's
+		 */
+		String getKey() {
+			StringBuilder sb = new StringBuilder().append(source).append('#').append(specificTrap);
+			for (VariableBinding variableBinding : varbinds) {
+				sb.append('/').append(variableBinding.getOid());
+			}
+			return sb.toString();
+		}
+	}
+
+	private static class Sent {
+		private final VariableBinding[] varbinds;
+		private final long time;
+
+		Sent(VariableBinding[] varbinds, long time) {
+			this.varbinds = varbinds;
+			this.time = time;
+		}
+	}
+}
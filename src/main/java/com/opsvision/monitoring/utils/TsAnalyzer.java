@@ -0,0 +1,250 @@
+package com.opsvision.monitoring.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Health analysis of an MPEG transport stream carried in UDP (raw or in
+ * RTP). Packets are parsed in place from the receive buffer with absolute
+ * reads; all state lives in fixed arrays indexed by PID, so analysis never
+ * allocates. Tracked per stream:
+ *
+ * <ul>
+ * <li>continuity counter errors (ISO/IEC 13818-1 2.4.3.3; duplicates and
+ * signalled discontinuities are not errors)</li>
+ * <li>transport error indicator and sync byte errors</li>
+ * <li>PCR jitter: the difference between the PCR advance and the arrival
+ * time advance of consecutive PCRs on a PID; the largest since it was
+ * last read. PCRs more than a second apart, across a signalled
+ * discontinuity or a rate interval without packets are not compared.</li>
+ * <li>the bitrate of every PID over the last rate interval</li>
+ * </ul>
+ *
+ * The {@link StreamReceiver} thread is the only writer; totals are volatile
+ * and may be read at any time, per-PID rates may be a rate interval old.
+ */
+public class TsAnalyzer {
+	public static final int PACKET_SIZE = 188;
+	private static final int PIDS = 8192;
+	private static final int NULL_PID = 0x1FFF;
+	private static final byte SYNC = 0x47;
+	private static final long PCR_HZ = 27000000L;
+	private static final long PCR_WRAP = (1L << 33) * 300;
+	// PCRs are at most 100 ms apart (ISO/IEC 13818-1 2.7.2); a longer gap is an outage
+	private static final long MAX_PCR_GAP = 1000000000L;
+	private final byte[] lastCC = new byte[PIDS];
+	private final long[] pidPackets = new long[PIDS];
+	private final long[] pidRatePackets = new long[PIDS];
+	private final float[] pidRate = new float[PIDS];
+	private final long[] lastPcr = new long[PIDS];
+	private final long[] lastPcrArrival = new long[PIDS];
+	// Receiver thread only: the packet total at the last rate update
+	private long ratePackets = 0;
+	private volatile long packets = 0;
+	private volatile long ccErrors = 0;
+	private volatile long transportErrors = 0;
+	private volatile long syncErrors = 0;
+	// The bits of a non-negative double, which order like the double
+	private final AtomicLong maxJitter = new AtomicLong();
+
+	public TsAnalyzer() {
+		for (int pid = 0; pid < PIDS; pid++) {
+			lastCC[pid] = -1;
+			lastPcr[pid] = -1;
+		}
+	}
+
+	/**
+	 * Analyzes the TS packets of one datagram.
+	 *
+	 * @param buffer the datagram between position and limit; not modified
+	 * @param arrival the arrival time of the datagram from System.nanoTime
+	 */
+	public void analyze(ByteBuffer buffer, long arrival) {
+		int start = buffer.position();
+		int end = buffer.limit();
+
+		// Skip an RTP header (version 2) in front of the TS packets
+		if (end - start > 12 && buffer.get(start) != SYNC && (buffer.get(start) & 0xC0) == 0x80) {
+			int b0 = buffer.get(start);
+			int header = 12 + 4 * (b0 & 0x0F);
+			if ((b0 & 0x10) != 0 && start + header + 4 <= end) {
+				header += 4 + 4 * (buffer.getShort(start + header + 2) & 0xFFFF);
+			}
+			start += header;
+		}
+
+		long count = 0;
+		for (int p = start; p + PACKET_SIZE <= end; p += PACKET_SIZE) {
+			if (buffer.get(p) != SYNC) {
+				syncErrors++;
+				break;
+			}
+			packet(buffer, p, arrival);
+			count++;
+		}
+		packets += count;
+	}
+
+	private void packet(ByteBuffer buffer, int p, long arrival) {
+		int b1 = buffer.get(p + 1) & 0xFF;
+		int pid = ((b1 & 0x1F) << 8) | (buffer.get(p + 2) & 0xFF);
+		int b3 = buffer.get(p + 3) & 0xFF;
+		int afc = (b3 >> 4) & 0x03;
+		int cc = b3 & 0x0F;
+
+		pidPackets[pid]++;
+		if ((b1 & 0x80) != 0) {
+			transportErrors++;
+			return;
+		}
+		if (pid == NULL_PID) {
+			return;
+		}
+
+		boolean discontinuity = false;
+		if ((afc & 0x02) != 0) {
+			int length = buffer.get(p + 4) & 0xFF;
+			if (length > 0 && length <= 183) {
+				int flags = buffer.get(p + 5) & 0xFF;
+				discontinuity = (flags & 0x80) != 0;
+				if ((flags & 0x10) != 0 && length >= 7) {
+					pcr(pid, buffer, p + 6, arrival, discontinuity);
+				}
+			}
+		}
+
+		// The counter only advances on packets with payload
+		int last = lastCC[pid];
+		if (last >= 0 && !discontinuity) {
+			int expected = ((afc & 0x01) != 0) ? (last + 1) & 0x0F : last;
+			if (cc != expected && !((afc & 0x01) != 0 && cc == last)) {
+				ccErrors++;
+			}
+		}
+		lastCC[pid] = (byte) cc;
+	}
+
+	private void pcr(int pid, ByteBuffer buffer, int i, long arrival, boolean discontinuity) {
+		long base = ((buffer.getInt(i) & 0xFFFFFFFFL) << 1) | ((buffer.get(i + 4) & 0x80) >> 7);
+		long extension = ((buffer.get(i + 4) & 0x01) << 8) | (buffer.get(i + 5) & 0xFF);
+		long pcr = base * 300 + extension;
+
+		long previous = lastPcr[pid];
+		if (previous >= 0 && !discontinuity && arrival - lastPcrArrival[pid] <= MAX_PCR_GAP) {
+			long delta = pcr - previous;
+			if (delta < 0) {
+				delta += PCR_WRAP;
+			}
+
+			// PCR advance vs arrival advance, in milliseconds
+			double jitter = Math.abs(delta * 1000.0 / PCR_HZ
+					- (arrival - lastPcrArrival[pid]) / 1000000.0);
+			long bits = Double.doubleToLongBits(jitter);
+			long max;
+			while (bits > (max = maxJitter.get()) && !maxJitter.compareAndSet(max, bits)) {
+			}
+		}
+
+		lastPcr[pid] = pcr;
+		lastPcrArrival[pid] = arrival;
+	}
+
+	// Called by the receiver thread once per rate interval
+	void updateRates(long elapsed) {
+		for (int pid = 0; pid < PIDS; pid++) {
+			long n = pidPackets[pid];
+			if (n != pidRatePackets[pid] || pidRate[pid] != 0) {
+				pidRate[pid] = (float) ((n - pidRatePackets[pid]) * PACKET_SIZE * 8 * 1000.0 / elapsed);
+				pidRatePackets[pid] = n;
+			}
+		}
+
+		// Nothing arrived: the stream is down and its PCRs are stale
+		long total = packets;
+		if (total == ratePackets) {
+			Arrays.fill(lastPcr, -1);
+		}
+		ratePackets = total;
+	}
+
+	/**
+	 * @return the number of TS packets analyzed
+	 */
+	public long getPackets() {
+		return packets;
+	}
+
+	/**
+	 * @return the number of continuity counter errors
+	 */
+	public long getContinuityErrors() {
+		return ccErrors;
+	}
+
+	/**
+	 * @return the number of packets flagged with the transport error indicator
+	 */
+	public long getTransportErrors() {
+		return transportErrors;
+	}
+
+	/**
+	 * @return the number of datagrams that contained a packet without sync byte
+	 */
+	public long getSyncErrors() {
+		return syncErrors;
+	}
+
+	/**
+	 * Reads and resets the PCR jitter, so every PCR is seen by exactly one
+	 * read whatever the polling rate.
+	 *
+	 * @return the largest PCR jitter since the previous call, in milliseconds
+	 */
+	public double getPcrJitter() {
+		return Double.longBitsToDouble(maxJitter.getAndSet(0));
+	}
+
+	/**
+	 * @return the PIDs that carried packets in the last rate interval, in
+	 *         ascending order
+	 */
+	public int[] getPids() {
+		int count = 0;
+		for (int pid = 0; pid < PIDS; pid++) {
+			if (pidRate[pid] != 0) {
+				count++;
+			}
+		}
+
+		int[] pids = new int[count];
+		for (int pid = 0, i = 0; pid < PIDS && i < count; pid++) {
+			if (pidRate[pid] != 0) {
+				pids[i++] = pid;
+			}
+		}
+		return pids;
+	}
+
+	/**
+	 * @param pid the PID
+	 * @return the bitrate of the PID over the last rate interval, in bit/s
+	 */
+	public double getBitrate(int pid) {
+		return pidRate[pid & (PIDS - 1)];
+	}
+
+	/**
+	 * @return the bitrate of the whole transport stream over the last rate
+	 *         interval, in bit/s
+	 */
+	public double getBitrate() {
+		double total = 0;
+		for (int pid = 0; pid < PIDS; pid++) {
+			total += pidRate[pid];
+		}
+		return total;
+	}
+}
@@ -0,0 +1,159 @@
+package com.opsvision.monitoring.utils;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+
+/**
+ * Keeps the login cookies of web targets between polls, so a poll is a
+ * single GET instead of a login POST followed by a GET. The device is only
+ * logged into again when it rejects the session: with a 401/403 status or
+ * by serving its login form (a page with a password field). Pages are
+ * returned as raw bytes for the {@link HtmlExtractor}.
+ *
+ * Jsoup runs on HttpURLConnection, which keeps fully read responses'
+ * connections alive and reuses them for the next request to the same
+ * host, so steady-state polls also skip the TCP connection setup.
+ */
+public class WebSessionCache {
+	final static Logger logger = Logger.getLogger(WebSessionCache.class);
+	private static WebSessionCache _instance = null;
+	// Each target is polled by a single monitor job, so the cookie maps are not shared
+	private final ConcurrentMap<String, Map<String, String>> sessions = new ConcurrentHashMap<>();
+
+	/**
+	 * Singleton constructor
+	 */
+	private WebSessionCache() {
+	}
+
+	/**
+	 * Method to return an instance of the WebSessionCache
+	 *
+	 * @return an instance of the WebSessionCache
+	 */
+	public static synchronized WebSessionCache getInstance() {
+		if (_instance == null)
+			_instance = new WebSessionCache();
+		return _instance;
+	}
+
+	/**
+	 * Fetches a page with the cached session of a target, logging in first
+	 * if there is no session or the device rejected it.
+	 *
+	 * @param url the page to fetch
+	 * @param loginUrl the URL the login form is posted to
+	 * @param credentials the login form fields
+	 * @param timeout the timeout of each request in milliseconds
+	 * @return the raw bytes of the page, or null if the login failed
+	 * @throws IOException if the target could not be reached
+	 */
+	public byte[] fetch(String url, String loginUrl, Map<String, String> credentials,
+			int timeout) throws IOException {
+		String key = loginUrl + "#" + credentials.get("username");
+
+		Map<String, String> cookies = sessions.get(key);
+		if (cookies != null) {
+			byte[] page = get(url, cookies, timeout);
+			if (page != null) {
+				return page;
+			}
+
+			logger.debug("Session for " + loginUrl + " was rejected, logging in again");
+			sessions.remove(key);
+		}
+
+		cookies = login(loginUrl, credentials, timeout);
+		if (cookies == null) {
+			return null;
+		}
+
+		byte[] page = get(url, cookies, timeout);
+		if (page == null) {
+			logger.error("A new session for " + loginUrl + " was rejected");
+			return null;
+		}
+
+		sessions.put(key, cookies);
+		return page;
+	}
+
+	/**
+	 * Fetches a page that does not need a login
+	 *
+	 * @param url the page to fetch
+	 * @param timeout the timeout of the request in milliseconds
+	 * @return the raw bytes of the page
+	 * @throws IOException if the target could not be reached or failed the request
+	 */
+	public byte[] fetch(String url, int timeout) throws IOException {
+		Connection.Response response = Jsoup.connect(url).userAgent("Mozilla")
+				.ignoreHttpErrors(true).timeout(timeout).execute();
+
+		if (response.statusCode() >= 400) {
+			throw new IOException("HTTP " + response.statusCode() + " fetching " + url);
+		}
+		return response.bodyAsBytes();
+	}
+
+	/**
+	 * Forgets the sessions of every target.
+	 */
+	public void clear() {
+		sessions.clear();
+	}
+
+	private Map<String, String> login(String loginUrl, Map<String, String> credentials,
+			int timeout) throws IOException {
+		logger.debug("Attempting login as " + credentials.get("username") + " @ " + loginUrl);
+		Connection.Response response = Jsoup.connect(loginUrl).data(credentials)
+				.userAgent("Mozilla").method(Connection.Method.POST)
+				.timeout(timeout).execute();
+
+		// We should have at least one session cookie
+		if (response.cookies().isEmpty()) {
+			logger.error("Failed to log into " + loginUrl);
+			return null;
+		}
+
+		return new HashMap<>(response.cookies());
+	}
+
+	/**
+	 * @return the raw bytes of the page, or null if the device rejected the session
+	 */
+	private byte[] get(String url, Map<String, String> cookies, int timeout) throws IOException {
+		Connection.Response response = Jsoup.connect(url).cookies(cookies)
+				.userAgent("Mozilla").ignoreHttpErrors(true)
+				.timeout(timeout).execute();
+
+		if (response.statusCode() == 401 || response.statusCode() == 403) {
+			return null;
+		}
+		if (response.statusCode() >= 400) {
+			throw new IOException("HTTP " + response.statusCode() + " fetching " + url);
+		}
+
+		byte[] page = response.bodyAsBytes();
+		if (isLoginForm(page)) {
+			return null;
+		}
+
+		// Devices may rotate the session cookie on any response
+		cookies.putAll(response.cookies());
+		return page;
+	}
+
+	private static boolean isLoginForm(byte[] page) {
+		return HtmlExtractor.indexOf(page, 0, "type=\"password\"") >= 0
+				|| HtmlExtractor.indexOf(page, 0, "type='password'") >= 0
+				|| HtmlExtractor.indexOf(page, 0, "type=password") >= 0;
+	}
+}